@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.benchmarks.xbee;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Shared test data for xbee benchmarks.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+abstract class BenchmarkData {
+
+	/**
+	 * Creates a payload with random content which is always same for a
+	 * given size.
+	 *
+	 * @param size the payload size
+	 * @return the payload
+	 */
+	static byte[] payload(int size) {
+		byte[] payload = new byte[size];
+		new Random(size).nextBytes(payload);
+		return payload;
+	}
+
+	/**
+	 * Creates headers resembling what is sent through a gateway, first
+	 * headers use well known keys and values and rest are custom.
+	 *
+	 * @param count the number of headers
+	 * @return the headers
+	 */
+	static Map<String, String> headers(int count) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		if (count > 0) {
+			headers.put("contentType", "application/json");
+		}
+		if (count > 1) {
+			headers.put("iotGatewayServiceRoute", "RestGatewayService");
+		}
+		for (int i = headers.size(); i < count; i++) {
+			headers.put("customHeader" + i, "customValue" + i);
+		}
+		return headers;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.benchmarks.xbee;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.cloud.iot.xbee.protocol.BinaryHeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.RxMessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.TextHeaderCodec;
+import org.springframework.cloud.iot.xbee.support.MessageProtocolSessions;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Benchmarks decoding headers of a received message the way
+ * {@code DefaultXBeeComponent} does it through
+ * {@link MessageProtocolSessions#decodeHeaders(RxMessageProtocol)}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HeaderDecodingBenchmark {
+
+	@Param({ "text", "binary" })
+	private String codec;
+
+	@Param({ "1", "4", "16" })
+	private int headerCount;
+
+	private MessageProtocolSessions sessions;
+	private RxMessageProtocol rx;
+
+	@Setup
+	public void setup() {
+		sessions = new MessageProtocolSessions();
+		sessions.setHeaderCodec("binary".equals(codec) ? new BinaryHeaderCodec() : new TextHeaderCodec());
+		Message<byte[]> message = MessageBuilder.withPayload(BenchmarkData.payload(100))
+				.copyHeaders(BenchmarkData.headers(headerCount))
+				.build();
+		rx = new RxMessageProtocol();
+		for (byte[] frame : sessions.createTxSession(message).getFrames()) {
+			rx.add(frame);
+		}
+	}
+
+	@Benchmark
+	public Map<String, String> decodeHeaders() {
+		return sessions.decodeHeaders(rx);
+	}
+}
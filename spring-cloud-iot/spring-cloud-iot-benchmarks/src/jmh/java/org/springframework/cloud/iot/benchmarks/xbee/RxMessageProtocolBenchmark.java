@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.benchmarks.xbee;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.iot.xbee.protocol.MessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.RxMessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.TextHeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
+
+/**
+ * Benchmarks reassembling a message from frames with
+ * {@link RxMessageProtocol}, both in order and with frames arriving in
+ * reverse order.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RxMessageProtocolBenchmark {
+
+	@Param({ "10", "100", "1024", "16384", "65536" })
+	private int payloadSize;
+
+	@Param({ "0", "4", "16" })
+	private int headerCount;
+
+	private byte[][] frames;
+
+	@Setup
+	public void setup() {
+		byte[] header = new TextHeaderCodec().encode(BenchmarkData.headers(headerCount));
+		byte[] payload = BenchmarkData.payload(payloadSize);
+		frames = new TxMessageProtocol(header, payload, (short) 1, MessageProtocol.DEFAULT_FRAME_SIZE).getFrames();
+	}
+
+	@Benchmark
+	public void addInOrder(Blackhole blackhole) {
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = 0; i < frames.length; i++) {
+			rx.add(frames[i]);
+		}
+		blackhole.consume(rx.getPayload());
+		blackhole.consume(rx.getHeader());
+	}
+
+	@Benchmark
+	public void addInReverseOrder(Blackhole blackhole) {
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			rx.add(frames[i]);
+		}
+		blackhole.consume(rx.getPayload());
+		blackhole.consume(rx.getHeader());
+	}
+
+	@Benchmark
+	public void addInOrderWithBuffers(Blackhole blackhole) {
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = 0; i < frames.length; i++) {
+			rx.add(frames[i]);
+		}
+		blackhole.consume(rx.getPayloadBuffer());
+		blackhole.consume(rx.getHeaderBuffer());
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.benchmarks.xbee;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.iot.xbee.protocol.TextHeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
+
+/**
+ * Benchmarks splitting a message into frames with {@link TxMessageProtocol}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TxMessageProtocolBenchmark {
+
+	@Param({ "10", "100", "1024", "16384", "65536" })
+	private int payloadSize;
+
+	@Param({ "0", "4", "16" })
+	private int headerCount;
+
+	@Param({ "60", "256" })
+	private int frameSize;
+
+	private byte[] header;
+	private byte[] payload;
+
+	@Setup
+	public void setup() {
+		header = new TextHeaderCodec().encode(BenchmarkData.headers(headerCount));
+		payload = BenchmarkData.payload(payloadSize);
+	}
+
+	@Benchmark
+	public byte[][] getFrames() {
+		return new TxMessageProtocol(header, payload, (short) 1, frameSize).getFrames();
+	}
+
+	@Benchmark
+	public void writeFrames(Blackhole blackhole) {
+		new TxMessageProtocol(header, payload, (short) 1, frameSize).writeFrames((id, frame) -> blackhole.consume(frame));
+	}
+}
@@ -17,14 +17,16 @@ package org.springframework.cloud.iot.coap.californium;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.Option;
-import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.slf4j.Logger;
@@ -36,12 +38,11 @@ import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
 import org.springframework.cloud.iot.coap.server.ServerCoapObservableContext;
 import org.springframework.cloud.iot.coap.server.ServerCoapResponse;
 import org.springframework.cloud.iot.coap.server.support.DefaultServerCoapExchange;
-import org.springframework.cloud.iot.coap.server.support.DefaultServerCoapObservableContext;
 import org.springframework.cloud.iot.coap.server.support.GenericServerCoapRequest;
 import org.springframework.cloud.iot.coap.server.support.GenericServerCoapResponse;
 import org.springframework.cloud.iot.coap.server.support.RequestPath;
+import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
-import org.springframework.util.ObjectUtils;
 
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
@@ -57,9 +58,11 @@ import reactor.core.publisher.Mono;
 public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResource {
 
 	private static final Logger log = LoggerFactory.getLogger(CaliforniumCoapHandlerResource.class);
+	private static final ResponseCode DEFAULT_RESPONSE_CODE = ResponseCode.CREATED;
 	private List<CoapMethod> allowedMethods = null;
 	private final CoapHandler coapHandler;
-	private HashMap<Exchange, ServerCoapObservableContext> contexts = new HashMap<>();
+	private final ObserveRelationRegistry observeRelationRegistry;
+	private final Map<String, ObservedSource> observedSources = new ConcurrentHashMap<>();
 
 	/**
 	 * Instantiates a new californium coap handler resource.
@@ -68,40 +71,64 @@ public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResou
 	 * @param coapHandler the coap handler
 	 */
 	public CaliforniumCoapHandlerResource(String name, CoapHandler coapHandler) {
+		this(name, coapHandler, new ObserveRelationRegistry());
+	}
+
+	/**
+	 * Instantiates a new californium coap handler resource.
+	 *
+	 * @param name the name
+	 * @param coapHandler the coap handler
+	 * @param observeRelationRegistry the observe relation registry
+	 */
+	public CaliforniumCoapHandlerResource(String name, CoapHandler coapHandler,
+			ObserveRelationRegistry observeRelationRegistry) {
 		super(name);
+		Assert.notNull(observeRelationRegistry, "'observeRelationRegistry' must be set");
 
 		setObservable(true);
 		setObserveType(Type.CON);
 
 		this.coapHandler = coapHandler;
+		this.observeRelationRegistry = observeRelationRegistry;
 
 		addObserver(new CaliforniumResourceObserverAdapter() {
 			@Override
 			public void addedObserveRelation(ObserveRelation relation) {
-				log.info("addedObserveRelation {} {}", relation, relation.getExchange());
-				ServerCoapObservableContext context = contexts.get(relation.getExchange());
-				if (context != null && context.getObservableSource() != null) {
-					Flux<Object> observableSource = context.getObservableSource();
-					if (observableSource != null) {
-						Disposable disposable = observableSource.doOnNext(c -> {
-							context.setResult(c);
-							changed(r -> {
-								return ObjectUtils.nullSafeEquals(relation, r);
-							});
-						}).subscribe();
-						context.setDisposable(disposable);
+				log.debug("addedObserveRelation {} {}", relation, relation.getExchange());
+				ServerCoapObservableContext context = observeRelationRegistry.attach(relation);
+				String key = getObservedKey(relation.getExchange().getRequest().getOptions());
+				ObservedSource created = null;
+				synchronized (observedSources) {
+					ObservedSource source = observedSources.get(key);
+					if (source == null && context != null && context.getObservableSource() != null) {
+						source = new ObservedSource(key);
+						observedSources.put(key, source);
+						created = source;
+					}
+					if (source != null) {
+						source.relations.add(relation);
 					}
 				}
+				if (created != null) {
+					// upstream may emit synchronously, keep it out of the lock
+					created.subscribe(context.getObservableSource());
+				}
 			}
 
 			@Override
 			public void removedObserveRelation(ObserveRelation relation) {
-				log.info("removedObserveRelation {}", relation);
-				ServerCoapObservableContext context = contexts.get(relation.getExchange());
-				if (context != null && context.getDisposable() != null) {
-					context.getDisposable().dispose();
+				log.debug("removedObserveRelation {}", relation);
+				observeRelationRegistry.remove(relation);
+				String key = getObservedKey(relation.getExchange().getRequest().getOptions());
+				synchronized (observedSources) {
+					ObservedSource source = observedSources.get(key);
+					if (source != null && source.relations.remove(relation) && source.relations.isEmpty()) {
+						// last observer left, no need to keep upstream running
+						observedSources.remove(key);
+						source.dispose();
+					}
 				}
-				contexts.remove(context);
 			}
 		});
 	}
@@ -148,14 +175,41 @@ public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResou
 
 	private void handleRequest(CoapExchange exchange) {
 		log.trace("Handling exchange {} {} {}", exchange, exchange.getRequestOptions(), exchange.advanced());
-		ServerCoapObservableContext context = contexts.get(exchange.advanced());
-		if (exchange.getRequestOptions().hasObserve()) {
+		ObserveRelation relation = exchange.advanced().getRelation();
+		ObservedSource source = null;
+		Object latest = null;
+		if (relation != null) {
+			source = observedSources.get(getObservedKey(exchange.getRequestOptions()));
+			if (source != null) {
+				latest = source.latest;
+				ObservedResponse observed = source.response;
+				if (relation.isEstablished() && observed != null && observed.value == latest) {
+					// notification to an existing observer, latest value is already handled
+					respond(exchange, observed.code, observed.body, observed.contentFormat);
+					return;
+				}
+			}
+		}
+		ServerCoapObservableContext context = null;
+		OptionSet options = exchange.getRequestOptions();
+		if (options.hasObserve() && options.getObserve() == 0) {
+			context = observeRelationRegistry.register(exchange.advanced());
 			if (context == null) {
-				context = new DefaultServerCoapObservableContext(null);
-				contexts.put(exchange.advanced(), context);
+				// over observer limits, client may retry later
+				exchange.respond(ResponseCode.SERVICE_UNAVAILABLE);
+				return;
 			}
+			if (latest != null) {
+				// observer gets latest value without subscribing upstream
+				context.setResult(latest);
+			}
+		}
+		else if (options.hasObserve()) {
+			observeRelationRegistry.remove(exchange.advanced());
 		}
 		ServerCoapExchange serverCoapExchange = createServerCoapExchange(exchange, context);
+		ObservedSource observedSource = context != null && latest != null ? source : null;
+		Object observedValue = latest;
 
 		Mono<Void> handle = coapHandler.handle(serverCoapExchange);
 		handle
@@ -172,8 +226,13 @@ public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResou
 					}
 					ServerCoapResponse response = serverCoapExchange.getResponse();
 					ResponseCode responseCode = response.getStatus() != null
-							? ResponseCode.valueOf(response.getStatus().value) : ResponseCode.CREATED;
-					exchange.respond(responseCode, response.getBody());
+							? ResponseCode.valueOf(response.getStatus().value) : DEFAULT_RESPONSE_CODE;
+					if (observedSource != null) {
+						// other observers are notified with a same response of this value
+						observedSource.response = new ObservedResponse(observedValue, responseCode, response.getBody(),
+								response.getContentFormat());
+					}
+					respond(exchange, responseCode, response.getBody(), response.getContentFormat());
 					if (log.isTraceEnabled()) {
 						log.trace("Sent response {}", response);
 					}
@@ -181,6 +240,15 @@ public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResou
 			.subscribe();
 	}
 
+	private static void respond(CoapExchange exchange, ResponseCode code, byte[] body, Integer contentFormat) {
+		if (contentFormat != null) {
+			exchange.respond(code, body, contentFormat);
+		}
+		else {
+			exchange.respond(code, body);
+		}
+	}
+
 	private ServerCoapExchange createServerCoapExchange(CoapExchange exchange, ServerCoapObservableContext context) {
 		CoapHeaders coapHeaders = new CoapHeaders();
 		List<Option> others = exchange.getRequestOptions().getOthers();
@@ -210,4 +278,71 @@ public class CaliforniumCoapHandlerResource extends AbstractCaliforniumCoapResou
 			return CollectionUtils.containsInstance(allowedMethods, CoapMethod.resolve(exchange.getRequestCode().name()));
 		}
 	}
+
+	private static String getObservedKey(OptionSet options) {
+		return options.getUriPathString() + "?" + options.getUriQueryString();
+	}
+
+	/**
+	 * Single upstream subscription of an observed resource shared by all its
+	 * observe relations. Latest value and a response the handler produced for
+	 * it are kept so that one emission is handled once for all observers.
+	 */
+	private class ObservedSource {
+
+		private final String key;
+		private final Set<ObserveRelation> relations = ConcurrentHashMap.newKeySet();
+		private volatile Object latest;
+		private volatile ObservedResponse response;
+		private volatile Disposable disposable;
+		private volatile boolean disposed;
+
+		ObservedSource(String key) {
+			this.key = key;
+		}
+
+		void subscribe(Flux<Object> upstream) {
+			Disposable disposable = upstream.subscribe(value -> {
+				latest = value;
+				changed(relations::contains);
+			}, error -> {
+				log.warn("Observed source " + key + " failed", error);
+				observedSources.remove(key, this);
+			}, () -> {
+				// let next observer subscribe again
+				observedSources.remove(key, this);
+			});
+			this.disposable = disposable;
+			if (disposed) {
+				// last observer left while subscribing
+				disposable.dispose();
+			}
+		}
+
+		void dispose() {
+			disposed = true;
+			Disposable disposable = this.disposable;
+			if (disposable != null) {
+				disposable.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Response handled for a value of an observed source.
+	 */
+	private static class ObservedResponse {
+
+		private final Object value;
+		private final ResponseCode code;
+		private final byte[] body;
+		private final Integer contentFormat;
+
+		ObservedResponse(Object value, ResponseCode code, byte[] body, Integer contentFormat) {
+			this.value = value;
+			this.code = code;
+			this.body = body;
+			this.contentFormat = contentFormat;
+		}
+	}
 }
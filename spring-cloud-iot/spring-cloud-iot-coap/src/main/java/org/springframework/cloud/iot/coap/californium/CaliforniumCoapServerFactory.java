@@ -42,6 +42,7 @@ public class CaliforniumCoapServerFactory implements ConfigurableCoapServerFacto
 	private List<Resource> coapResources = new ArrayList<>();
 	private Map<String, CoapHandler> mappings;
 	private CoapHandler rootCoapHandler;
+	private ObserveRelationRegistry observeRelationRegistry = new ObserveRelationRegistry();
 
 	@Override
 	public void setPort(int port) {
@@ -55,7 +56,8 @@ public class CaliforniumCoapServerFactory implements ConfigurableCoapServerFacto
 		server.add(coapResources.toArray(new Resource[0]));
 		if (mappings != null) {
 			for (Entry<String,CoapHandler> entry : mappings.entrySet()) {
-				server.add(new CaliforniumCoapHandlerResource(entry.getKey(), entry.getValue()));
+				server.add(new CaliforniumCoapHandlerResource(entry.getKey(), entry.getValue(),
+						observeRelationRegistry));
 			}
 		}
 		return new CaliforniumCoapServer(server);
@@ -81,6 +83,25 @@ public class CaliforniumCoapServerFactory implements ConfigurableCoapServerFacto
 		this.coapResources = coapResources;
 	}
 
+	/**
+	 * Sets the observe relation registry shared by all handler resources.
+	 *
+	 * @param observeRelationRegistry the new observe relation registry
+	 */
+	public void setObserveRelationRegistry(ObserveRelationRegistry observeRelationRegistry) {
+		Assert.notNull(observeRelationRegistry, "'observeRelationRegistry' must be set");
+		this.observeRelationRegistry = observeRelationRegistry;
+	}
+
+	/**
+	 * Gets the observe relation registry shared by all handler resources.
+	 *
+	 * @return the observe relation registry
+	 */
+	public ObserveRelationRegistry getObserveRelationRegistry() {
+		return observeRelationRegistry;
+	}
+
 	/**
 	 * Custom server replacing root resource.
 	 */
@@ -93,7 +114,7 @@ public class CaliforniumCoapServerFactory implements ConfigurableCoapServerFacto
 		@Override
 		protected Resource createRoot() {
 			if (rootCoapHandler != null) {
-				return new CaliforniumCoapHandlerResource("", rootCoapHandler);
+				return new CaliforniumCoapHandlerResource("", rootCoapHandler, observeRelationRegistry);
 			} else {
 				return super.createRoot();
 			}
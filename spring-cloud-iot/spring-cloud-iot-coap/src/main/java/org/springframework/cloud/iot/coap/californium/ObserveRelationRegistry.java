@@ -0,0 +1,294 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.californium;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.iot.coap.server.ServerCoapObservableContext;
+import org.springframework.cloud.iot.coap.server.support.DefaultServerCoapObservableContext;
+import org.springframework.util.Assert;
+
+/**
+ * Thread safe registry of observers and their {@link ServerCoapObservableContext}s
+ * keyed by a remote endpoint and a request token, which stay same when a client
+ * re-registers its observation. Entries are removed when an observe relation
+ * ends. Registrations which never established an observe relation are expired
+ * after an idle timeout, established relations are left to {@code Californium}
+ * which ends them when notifications fail.
+ * Number of observers is capped globally and per resource, registrations over
+ * either cap are rejected.
+ * <p>
+ * One registry is usually shared by all resources of a server for a global
+ * cap to be meaningful.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class ObserveRelationRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(ObserveRelationRegistry.class);
+	public final static int DEFAULT_MAX_OBSERVERS = 10000;
+	public final static int DEFAULT_MAX_OBSERVERS_PER_RESOURCE = 1000;
+	public final static long DEFAULT_IDLE_TIMEOUT = 600000;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> resourceCounts = new ConcurrentHashMap<>();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+	private volatile int maxObservers = DEFAULT_MAX_OBSERVERS;
+	private volatile int maxObserversPerResource = DEFAULT_MAX_OBSERVERS_PER_RESOURCE;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long lastEviction = System.currentTimeMillis();
+
+	/**
+	 * Registers an observer of a given exchange or returns its existing context
+	 * if it is already known.
+	 *
+	 * @param exchange the exchange
+	 * @return the observable context or {@code null} if observer was rejected
+	 */
+	public ServerCoapObservableContext register(Exchange exchange) {
+		long now = System.currentTimeMillis();
+		if (now - lastEviction > idleTimeout / 2) {
+			evictExpired();
+		}
+		String key = getKey(exchange);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			String resource = exchange.getRequest().getOptions().getUriPathString();
+			synchronized (this) {
+				entry = entries.get(key);
+				if (entry == null) {
+					if (entries.size() >= maxObservers || getObserverCount(resource) >= maxObserversPerResource) {
+						rejectedCount.incrementAndGet();
+						log.debug("Rejecting observer {} of resource {}, observer limit reached", key, resource);
+						return null;
+					}
+					entry = add(key, resource);
+				}
+			}
+		}
+		entry.lastAccess = now;
+		return entry.context;
+	}
+
+	/**
+	 * Gets a context of a known observer of a given exchange.
+	 *
+	 * @param exchange the exchange
+	 * @return the observable context or {@code null} if observer is not known
+	 */
+	public ServerCoapObservableContext get(Exchange exchange) {
+		Entry entry = entries.get(getKey(exchange));
+		if (entry == null) {
+			return null;
+		}
+		entry.lastAccess = System.currentTimeMillis();
+		return entry.context;
+	}
+
+	/**
+	 * Attaches an established observe relation to its observer, which is
+	 * registered if not known anymore.
+	 *
+	 * @param relation the observe relation
+	 * @return the observable context
+	 */
+	public ServerCoapObservableContext attach(ObserveRelation relation) {
+		Exchange exchange = relation.getExchange();
+		String key = getKey(exchange);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				// relation is already accepted, not subject to caps anymore
+				entry = add(key, exchange.getRequest().getOptions().getUriPathString());
+			}
+		}
+		entry.relation = relation;
+		entry.lastAccess = System.currentTimeMillis();
+		return entry.context;
+	}
+
+	/**
+	 * Removes an observer of an ended observe relation. Nothing is removed if
+	 * the observer has already attached a newer relation.
+	 *
+	 * @param relation the observe relation
+	 */
+	public void remove(ObserveRelation relation) {
+		String key = getKey(relation.getExchange());
+		Entry entry = entries.get(key);
+		if (entry != null && (entry.relation == null || entry.relation == relation)) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Removes an observer of a given exchange, i.e. when it deregisters.
+	 *
+	 * @param exchange the exchange
+	 */
+	public void remove(Exchange exchange) {
+		Entry entry = entries.get(getKey(exchange));
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Removes observers idle longer than the idle timeout which have not
+	 * established an observe relation.
+	 *
+	 * @return the number of expired observers
+	 */
+	public int evictExpired() {
+		long now = System.currentTimeMillis();
+		lastEviction = now;
+		int count = 0;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.relation == null && now - entry.lastAccess > idleTimeout && remove(entry)) {
+				count++;
+				expiredCount.incrementAndGet();
+			}
+		}
+		if (count > 0) {
+			log.debug("Expired {} idle observers", count);
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the max number of observers of all resources. Defaults to
+	 * {@link #DEFAULT_MAX_OBSERVERS}.
+	 *
+	 * @param maxObservers the new max observers
+	 */
+	public void setMaxObservers(int maxObservers) {
+		Assert.isTrue(maxObservers > 0, "'maxObservers' must be positive");
+		this.maxObservers = maxObservers;
+	}
+
+	/**
+	 * Sets the max number of observers of a single resource. Defaults to
+	 * {@link #DEFAULT_MAX_OBSERVERS_PER_RESOURCE}.
+	 *
+	 * @param maxObserversPerResource the new max observers per resource
+	 */
+	public void setMaxObserversPerResource(int maxObserversPerResource) {
+		Assert.isTrue(maxObserversPerResource > 0, "'maxObserversPerResource' must be positive");
+		this.maxObserversPerResource = maxObserversPerResource;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which an observer nothing has been
+	 * exchanged with is expired if it has not established an observe relation.
+	 * Defaults to {@link #DEFAULT_IDLE_TIMEOUT}.
+	 *
+	 * @param idleTimeout the new idle timeout
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		Assert.isTrue(idleTimeout > 0, "'idleTimeout' must be positive");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Gets the number of registered observers.
+	 *
+	 * @return the observer count
+	 */
+	public int getObserverCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of registered observers of a resource.
+	 *
+	 * @param resource the resource uri path
+	 * @return the observer count
+	 */
+	public int getObserverCount(String resource) {
+		AtomicInteger count = resourceCounts.get(resource);
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * Gets the number of observers rejected as an observer limit was reached.
+	 *
+	 * @return the rejected count
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Gets the number of observers expired as idle without an observe relation.
+	 *
+	 * @return the expired count
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	private Entry add(String key, String resource) {
+		Entry entry = new Entry(key, resource);
+		entries.put(key, entry);
+		resourceCounts.computeIfAbsent(resource, r -> new AtomicInteger()).incrementAndGet();
+		return entry;
+	}
+
+	private boolean remove(Entry entry) {
+		synchronized (this) {
+			if (!entries.remove(entry.key, entry)) {
+				return false;
+			}
+			AtomicInteger count = resourceCounts.get(entry.resource);
+			if (count != null && count.decrementAndGet() <= 0) {
+				resourceCounts.remove(entry.resource);
+			}
+			return true;
+		}
+	}
+
+	private static String getKey(Exchange exchange) {
+		Request request = exchange.getRequest();
+		return request.getSource() + ":" + request.getSourcePort() + "#" + request.getTokenString();
+	}
+
+	private static class Entry {
+
+		private final String key;
+		private final String resource;
+		private final ServerCoapObservableContext context = new DefaultServerCoapObservableContext(null);
+		private volatile ObserveRelation relation;
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		Entry(String key, String resource) {
+			this.key = key;
+			this.resource = resource;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.metrics;
+
+import org.springframework.cloud.iot.coap.californium.ObserveRelationRegistry;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * {@link MeterBinder} exposing observer counts of an
+ * {@link ObserveRelationRegistry} with Micrometer.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class MicrometerObserveMetrics implements MeterBinder {
+
+	private final ObserveRelationRegistry observeRelationRegistry;
+
+	/**
+	 * Instantiates a new micrometer observe metrics.
+	 *
+	 * @param observeRelationRegistry the observe relation registry
+	 */
+	public MicrometerObserveMetrics(ObserveRelationRegistry observeRelationRegistry) {
+		Assert.notNull(observeRelationRegistry, "'observeRelationRegistry' must be set");
+		this.observeRelationRegistry = observeRelationRegistry;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("coap.observers", observeRelationRegistry, ObserveRelationRegistry::getObserverCount)
+				.description("Number of registered observers").register(registry);
+		FunctionCounter.builder("coap.observers.rejected", observeRelationRegistry,
+				ObserveRelationRegistry::getRejectedCount)
+				.description("Number of observers rejected as observer limit was reached").register(registry);
+		FunctionCounter.builder("coap.observers.expired", observeRelationRegistry,
+				ObserveRelationRegistry::getExpiredCount)
+				.description("Number of idle observers expired without an observe relation").register(registry);
+	}
+}
@@ -181,13 +181,20 @@ public class HandlerMethod {
 		return this.parameters;
 	}
 
+	/**
+	 * If the provided instance contains a bean name rather than an object
+	 * instance, the bean name is resolved before a {@link HandlerMethod} is
+	 * created and returned. Handler methods for singleton beans are already
+	 * resolved when registered and are returned as is.
+	 *
+	 * @return the handler method with a resolved bean
+	 */
 	public HandlerMethod createWithResolvedBean() {
-		Object handler = this.bean;
-		if (this.bean instanceof String) {
-			String beanName = (String) this.bean;
-			handler = this.beanFactory.getBean(beanName);
+		if (!(this.bean instanceof String)) {
+			return this;
 		}
-		return new HandlerMethod(this, handler);
+		String beanName = (String) this.bean;
+		return new HandlerMethod(this, this.beanFactory.getBean(beanName));
 	}
 
 	/**
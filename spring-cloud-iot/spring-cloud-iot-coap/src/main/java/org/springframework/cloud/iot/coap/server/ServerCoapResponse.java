@@ -26,4 +26,6 @@ public interface ServerCoapResponse extends CoapOutputMessage {
 
 	void setBody(byte[] body);
 
+	Integer getContentFormat();
+
 }
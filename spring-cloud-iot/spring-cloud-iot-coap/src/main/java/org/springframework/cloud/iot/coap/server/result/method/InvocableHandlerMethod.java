@@ -16,12 +16,13 @@
 package org.springframework.cloud.iot.coap.server.result.method;
 
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -35,6 +36,7 @@ import org.springframework.core.DefaultParameterNameDiscoverer;
 import org.springframework.core.MethodParameter;
 import org.springframework.core.ParameterNameDiscoverer;
 import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.ReflectionUtils;
@@ -48,20 +50,39 @@ public class InvocableHandlerMethod extends HandlerMethod {
 	private static final Object NO_ARG_VALUE = new Object();
 	private List<CoapHandlerMethodArgumentResolver> resolvers = new ArrayList<>();
 	private ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+	private InvocationPlan plan;
 
 	public InvocableHandlerMethod(HandlerMethod handlerMethod) {
 		super(handlerMethod);
 	}
 
+	/**
+	 * Instantiates a new invocable handler method for a handler method sharing
+	 * argument resolvers and a precompiled invocation plan with other invocable
+	 * handler method having a same method, i.e. for a different bean instance.
+	 *
+	 * @param handlerMethod the handler method
+	 * @param invocable the invocable handler method to share resolvers and plan
+	 */
+	public InvocableHandlerMethod(HandlerMethod handlerMethod, InvocableHandlerMethod invocable) {
+		super(handlerMethod);
+		Assert.isTrue(handlerMethod.getMethod().equals(invocable.getMethod()), "'invocable' must have a same method");
+		this.resolvers = invocable.resolvers;
+		this.parameterNameDiscoverer = invocable.parameterNameDiscoverer;
+		this.plan = invocable.getPlan();
+	}
+
 	/**
 	 * Configure the argument resolvers to use to use for resolving method
-	 * argument values against a {@code ServerCoapExchange}.
+	 * argument values against a {@code ServerCoapExchange}. Resolvers for
+	 * method parameters are looked up once from configured resolvers when
+	 * this method is called.
 	 *
 	 * @param resolvers the argument resolvers
 	 */
 	public void setArgumentResolvers(List<CoapHandlerMethodArgumentResolver> resolvers) {
-		this.resolvers.clear();
-		this.resolvers.addAll(resolvers);
+		this.resolvers = new ArrayList<>(resolvers);
+		this.plan = new InvocationPlan();
 	}
 
 	/**
@@ -74,22 +95,68 @@ public class InvocableHandlerMethod extends HandlerMethod {
 	}
 
 	public Mono<HandlerResult> invoke(ServerCoapExchange exchange, Object... providedArgs) {
-		return resolveArguments(exchange, providedArgs).flatMap(args -> {
+		InvocationPlan plan = getPlan();
+		if (plan.sync) {
+			// all arguments are known without subscribing anything
+			Object[] args;
 			try {
-				Object value = doInvoke(args);
-				HandlerResult result = new HandlerResult(this, value, getReturnType());
-				return Mono.just(result);
-			}
-			catch (InvocationTargetException ex) {
-				return Mono.error(ex.getTargetException());
+				args = resolveArgumentValues(plan, exchange, providedArgs);
 			}
 			catch (Throwable ex) {
-				return Mono.error(new IllegalStateException(getInvocationErrorMessage(new String[0])));
+				return Mono.error(ex);
 			}
-		});
+			return invoke(plan, args);
+		}
+		return resolveArguments(plan, exchange, providedArgs).flatMap(args -> invoke(plan, args));
 	}
 
-	private Mono<Object[]> resolveArguments(ServerCoapExchange exchange, Object... providedArgs) {
+	private Mono<HandlerResult> invoke(InvocationPlan plan, Object[] args) {
+		Object bean = getBean();
+		if (!plan.isInvocable(bean, args)) {
+			// checked up front so that exceptions thrown by a handler are passed as is
+			return Mono.error(new IllegalStateException(getInvocationErrorMessage(args)));
+		}
+		Object value;
+		try {
+			value = plan.invoker.invokeExact(bean, args);
+		}
+		catch (Throwable ex) {
+			return Mono.error(ex);
+		}
+		return Mono.just(new HandlerResult(this, value, getReturnType()));
+	}
+
+	private InvocationPlan getPlan() {
+		InvocationPlan plan = this.plan;
+		if (plan == null) {
+			plan = new InvocationPlan();
+			this.plan = plan;
+		}
+		return plan;
+	}
+
+	private Object[] resolveArgumentValues(InvocationPlan plan, ServerCoapExchange exchange, Object... providedArgs) {
+		MethodParameter[] parameters = getMethodParameters();
+		Object[] args = new Object[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			MethodParameter param = parameters[i];
+			Object arg = findProvidedArgument(param, providedArgs);
+			if (arg == null) {
+				SyncCoapHandlerMethodArgumentResolver resolver =
+						(SyncCoapHandlerMethodArgumentResolver) getResolver(plan, param);
+				try {
+					arg = resolver.resolveArgumentValue(param, exchange);
+				}
+				catch (Exception ex) {
+					throw getArgumentError("Failed to resolve", param, ex);
+				}
+			}
+			args[i] = arg;
+		}
+		return args;
+	}
+
+	private Mono<Object[]> resolveArguments(InvocationPlan plan, ServerCoapExchange exchange, Object... providedArgs) {
 
 		if (ObjectUtils.isEmpty(getMethodParameters())) {
 			return EMPTY_ARGS;
@@ -97,14 +164,11 @@ public class InvocableHandlerMethod extends HandlerMethod {
 		try {
 			List<Mono<Object>> argMonos = Stream.of(getMethodParameters())
 					.map(param -> {
-						param.initParameterNameDiscovery(this.parameterNameDiscoverer);
-						return findProvidedArgument(param, providedArgs)
-								.map(Mono::just)
-								.orElseGet(() -> {
-									CoapHandlerMethodArgumentResolver resolver = findResolver(param);
-									return resolveArg(resolver, param, exchange);
-								});
-
+						Object arg = findProvidedArgument(param, providedArgs);
+						if (arg != null) {
+							return Mono.just(arg);
+						}
+						return resolveArg(getResolver(plan, param), param, exchange);
 					})
 					.collect(Collectors.toList());
 
@@ -117,20 +181,33 @@ public class InvocableHandlerMethod extends HandlerMethod {
 		}
 	}
 
-	private Optional<Object> findProvidedArgument(MethodParameter parameter, Object... providedArgs) {
+	@Nullable
+	private Object findProvidedArgument(MethodParameter parameter, Object... providedArgs) {
 		if (ObjectUtils.isEmpty(providedArgs)) {
-			return Optional.empty();
+			return null;
 		}
-		return Arrays.stream(providedArgs)
-				.filter(arg -> parameter.getParameterType().isInstance(arg))
-				.findFirst();
+		for (Object providedArg : providedArgs) {
+			if (parameter.getParameterType().isInstance(providedArg)) {
+				return providedArg;
+			}
+		}
+		return null;
 	}
 
+	private CoapHandlerMethodArgumentResolver getResolver(InvocationPlan plan, MethodParameter param) {
+		CoapHandlerMethodArgumentResolver resolver = plan.resolvers[param.getParameterIndex()];
+		if (resolver == null) {
+			throw getArgumentError("No suitable resolver for", param, null);
+		}
+		return resolver;
+	}
+
+	@Nullable
 	private CoapHandlerMethodArgumentResolver findResolver(MethodParameter param) {
 		return this.resolvers.stream()
 				.filter(r -> r.supportsParameter(param))
 				.findFirst()
-				.orElseThrow(() -> getArgumentError("No suitable resolver for", param, null));
+				.orElse(null);
 	}
 
 	private Mono<Object> resolveArg(CoapHandlerMethodArgumentResolver resolver, MethodParameter parameter,
@@ -159,22 +236,6 @@ public class InvocableHandlerMethod extends HandlerMethod {
 				param.getParameterType().getName() + "' on " + getBridgedMethod().toGenericString();
 	}
 
-	private Object doInvoke(Object[] args) throws Exception {
-//		if (logger.isTraceEnabled()) {
-//			logger.trace("Invoking '" + ClassUtils.getQualifiedMethodName(getMethod(), getBeanType()) +
-//					"' with arguments " + Arrays.toString(args));
-//		}
-		ReflectionUtils.makeAccessible(getBridgedMethod());
-		Method ddd1 = getBridgedMethod();
-		Object ddd2 = getBean();
-		Object returnValue = getBridgedMethod().invoke(getBean(), args);
-//		if (logger.isTraceEnabled()) {
-//			logger.trace("Method [" + ClassUtils.getQualifiedMethodName(getMethod(), getBeanType()) +
-//					"] returned [" + returnValue + "]");
-//		}
-		return returnValue;
-	}
-
 	private String getInvocationErrorMessage(Object[] args) {
 		String argumentDetails = IntStream.range(0, args.length)
 				.mapToObj(i -> (args[i] != null ?
@@ -185,4 +246,68 @@ public class InvocableHandlerMethod extends HandlerMethod {
 				"on " + getBridgedMethod().toGenericString();
 	}
 
+	/**
+	 * Per method state computed once instead of on every invocation, having
+	 * resolvers for method parameters, whether all of them are synchronous,
+	 * types a method handle accepts and a method handle taking a bean and an
+	 * argument array.
+	 */
+	private class InvocationPlan {
+
+		private final CoapHandlerMethodArgumentResolver[] resolvers;
+		private final boolean sync;
+		private final Class<?> beanType;
+		private final Class<?>[] parameterTypes;
+		private final MethodHandle invoker;
+
+		InvocationPlan() {
+			MethodParameter[] parameters = getMethodParameters();
+			this.resolvers = new CoapHandlerMethodArgumentResolver[parameters.length];
+			boolean sync = true;
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i].initParameterNameDiscovery(parameterNameDiscoverer);
+				resolvers[i] = findResolver(parameters[i]);
+				if (!(resolvers[i] instanceof SyncCoapHandlerMethodArgumentResolver)) {
+					// provided args or a missing resolver are handled on an async path
+					sync = false;
+				}
+			}
+			this.sync = sync;
+			Method method = getBridgedMethod();
+			this.beanType = Modifier.isStatic(method.getModifiers()) ? null : method.getDeclaringClass();
+			this.parameterTypes = method.getParameterTypes();
+			this.invoker = createInvoker(method);
+		}
+
+		boolean isInvocable(Object bean, Object[] args) {
+			if (beanType != null && !beanType.isInstance(bean)) {
+				return false;
+			}
+			if (args.length != parameterTypes.length) {
+				return false;
+			}
+			for (int i = 0; i < args.length; i++) {
+				if (!ClassUtils.isAssignableValue(parameterTypes[i], args[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private MethodHandle createInvoker(Method method) {
+			ReflectionUtils.makeAccessible(method);
+			MethodHandle handle;
+			try {
+				handle = MethodHandles.lookup().unreflect(method);
+			}
+			catch (IllegalAccessException ex) {
+				throw new IllegalStateException("Unable to access handler method " + method.toGenericString(), ex);
+			}
+			if (Modifier.isStatic(method.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			return handle.asSpreader(Object[].class, method.getParameterCount())
+					.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+		}
+	}
 }
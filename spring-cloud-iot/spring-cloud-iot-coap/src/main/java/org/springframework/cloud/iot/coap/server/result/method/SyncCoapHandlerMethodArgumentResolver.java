@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.server.result.method;
+
+import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.Nullable;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * An extension of {@link CoapHandlerMethodArgumentResolver} for implementations
+ * that are synchronous in nature and do not block to resolve values. Methods
+ * having only synchronous resolvers are invoked without composing arguments
+ * through {@code Mono}s.
+ *
+ * @author Janne Valkealahti
+ */
+public interface SyncCoapHandlerMethodArgumentResolver extends CoapHandlerMethodArgumentResolver {
+
+	@Override
+	default Mono<Object> resolveArgument(MethodParameter parameter, ServerCoapExchange exchange) {
+		return Mono.justOrEmpty(resolveArgumentValue(parameter, exchange));
+	}
+
+	/**
+	 * Resolve the value for the method parameter synchronously.
+	 *
+	 * @param parameter the method parameter
+	 * @param exchange the current exchange
+	 * @return the resolved value, if any
+	 */
+	@Nullable
+	Object resolveArgumentValue(MethodParameter parameter, ServerCoapExchange exchange);
+}
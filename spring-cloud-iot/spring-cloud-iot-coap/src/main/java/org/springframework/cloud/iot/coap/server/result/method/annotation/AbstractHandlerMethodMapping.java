@@ -17,14 +17,8 @@ package org.springframework.cloud.iot.coap.server.result.method.annotation;
 
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,14 +28,13 @@ import org.springframework.cloud.iot.coap.server.HandlerMapping;
 import org.springframework.cloud.iot.coap.server.HandlerMethod;
 import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
 import org.springframework.cloud.iot.coap.server.result.method.CoapRequestMappingInfo;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.HandlerMethodRouteIndex.RouteMatch;
 import org.springframework.cloud.iot.coap.server.support.PathContainer;
-import org.springframework.cloud.iot.coap.server.support.util.pattern.PathPattern;
 import org.springframework.context.support.ApplicationObjectSupport;
 import org.springframework.core.MethodIntrospector;
 import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
-import org.springframework.util.MultiValueMap;
 
 import reactor.core.publisher.Mono;
 
@@ -56,29 +49,37 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 
 	private static final String SCOPED_TARGET_NAME_PREFIX = "scopedTarget.";
 
-	private Map<CoapRequestMappingInfo, HandlerMethod> registry = new HashMap<>();
+	private final Map<CoapRequestMappingInfo, HandlerMethod> registry = new HashMap<>();
+
+	private volatile HandlerMethodRouteIndex routeIndex;
 
 	@Override
 	public Mono<Object> getHandler(ServerCoapExchange exchange) {
-		return getHandlerInternal(exchange).map(handler -> {
-			return handler;
-		});
+		// returned as a plain value mono so that dispatching can take it synchronously
+		try {
+			return Mono.justOrEmpty(resolveHandlerMethod(exchange));
+		}
+		catch (Exception ex) {
+			return Mono.error(ex);
+		}
 	}
 
 	public Mono<HandlerMethod> getHandlerInternal(ServerCoapExchange exchange) {
-		HandlerMethod handlerMethod = null;
-
 		try {
-			handlerMethod = lookupHandlerMethod(exchange);
+			return Mono.justOrEmpty(resolveHandlerMethod(exchange));
 		}
 		catch (Exception ex) {
 			return Mono.error(ex);
 		}
+	}
 
+	@Nullable
+	private HandlerMethod resolveHandlerMethod(ServerCoapExchange exchange) throws Exception {
+		HandlerMethod handlerMethod = lookupHandlerMethod(exchange);
 		if (handlerMethod != null) {
 			handlerMethod = handlerMethod.createWithResolvedBean();
 		}
-		return Mono.justOrEmpty(handlerMethod);
+		return handlerMethod;
 	}
 
 	@Override
@@ -89,29 +90,14 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 	@Nullable
 	protected HandlerMethod lookupHandlerMethod(ServerCoapExchange exchange)
 			throws Exception {
-		List<Match> matches = new ArrayList<>();
-//		addMatchingMappings(this.mappingRegistry.getMappings().keySet(), matches, exchange);
-		addMatchingMappings(registry.keySet(), matches, exchange);
-
-		if (!matches.isEmpty()) {
-			Comparator<Match> comparator = new MatchComparator(getMappingComparator(exchange));
-			Collections.sort(matches, comparator);
+		PathContainer lookupPath = exchange.getRequest().getPath().pathWithinApplication();
+		RouteMatch match = getRouteIndex().lookup(lookupPath, exchange.getRequest().getMethod());
+		if (match != null) {
 			if (logger.isTraceEnabled()) {
-				logger.trace("Found " + matches.size() + " matching mapping(s) for [" +
-						exchange.getRequest().getPath() + "] : " + matches);
-			}
-			Match bestMatch = matches.get(0);
-			if (matches.size() > 1) {
-				Match secondBestMatch = matches.get(1);
-				if (comparator.compare(bestMatch, secondBestMatch) == 0) {
-					Method m1 = bestMatch.handlerMethod.getMethod();
-					Method m2 = secondBestMatch.handlerMethod.getMethod();
-					throw new IllegalStateException("Ambiguous handler methods mapped for HTTP path '" +
-							exchange.getRequest().getPath() + "': {" + m1 + ", " + m2 + "}");
-				}
+				logger.trace("Found mapping " + match + " for [" + exchange.getRequest().getPath() + "]");
 			}
-			handleMatch(bestMatch.mapping, bestMatch.handlerMethod, exchange);
-			return bestMatch.handlerMethod;
+			handleMatch(match.getMapping(), match.getHandlerMethod(), match.getUriVariables(), exchange);
+			return match.getHandlerMethod();
 		}
 		else {
 			return null;
@@ -119,57 +105,32 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 		}
 	}
 
-	protected Comparator<CoapRequestMappingInfo> getMappingComparator(final ServerCoapExchange exchange) {
-		return (info1, info2) -> info1.compareTo(info2, exchange);
-	}
-
+	/**
+	 * Invoked when a matching mapping is found.
+	 *
+	 * @param info the matching mapping
+	 * @param handlerMethod the matching method
+	 * @param uriVariables the uri variables extracted from a request path
+	 * @param exchange the current exchange
+	 */
 	protected void handleMatch(CoapRequestMappingInfo info, HandlerMethod handlerMethod,
-			ServerCoapExchange exchange) {
-
-		PathContainer lookupPath = exchange.getRequest().getPath().pathWithinApplication();
-
-		PathPattern bestPattern;
-		Map<String, String> uriVariables;
-		Map<String, MultiValueMap<String, String>> matrixVariables;
-
-		Set<PathPattern> patterns = info.getPatternsCondition().getPatterns();
-		if (patterns.isEmpty()) {
-//			bestPattern = getPathPatternParser().parse(lookupPath.value());
-//			uriVariables = Collections.emptyMap();
-//			matrixVariables = Collections.emptyMap();
-		}
-		else {
-			bestPattern = patterns.iterator().next();
-			PathPattern.PathMatchInfo result = bestPattern.matchAndExtract(lookupPath);
-			Assert.notNull(result, () ->
-					"Expected bestPattern: " + bestPattern + " to match lookupPath " + lookupPath);
-			uriVariables = result.getUriVariables();
-			matrixVariables = result.getMatrixVariables();
-		}
-
+			Map<String, String> uriVariables, ServerCoapExchange exchange) {
 //		exchange.getAttributes().put(BEST_MATCHING_HANDLER_ATTRIBUTE, handlerMethod);
-//		exchange.getAttributes().put(BEST_MATCHING_PATTERN_ATTRIBUTE, bestPattern);
 //		exchange.getAttributes().put(URI_TEMPLATE_VARIABLES_ATTRIBUTE, uriVariables);
-//		exchange.getAttributes().put(MATRIX_VARIABLES_ATTRIBUTE, matrixVariables);
-//
-//		if (!info.getProducesCondition().getProducibleMediaTypes().isEmpty()) {
-//			Set<MediaType> mediaTypes = info.getProducesCondition().getProducibleMediaTypes();
-//			exchange.getAttributes().put(PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE, mediaTypes);
-//		}
 	}
 
-	private void addMatchingMappings(Collection<CoapRequestMappingInfo> mappings, List<Match> matches, ServerCoapExchange exchange) {
-		for (CoapRequestMappingInfo mapping : mappings) {
-			CoapRequestMappingInfo match = getMatchingMapping(mapping, exchange);
-			if (match != null) {
-//				matches.add(new Match(match, this.mappingRegistry.getMappings().get(mapping)));
-				matches.add(new Match(match, registry.get(mapping)));
+	private HandlerMethodRouteIndex getRouteIndex() {
+		HandlerMethodRouteIndex routeIndex = this.routeIndex;
+		if (routeIndex == null) {
+			synchronized (registry) {
+				routeIndex = this.routeIndex;
+				if (routeIndex == null) {
+					routeIndex = new HandlerMethodRouteIndex(registry);
+					this.routeIndex = routeIndex;
+				}
 			}
 		}
-	}
-
-	protected CoapRequestMappingInfo getMatchingMapping(CoapRequestMappingInfo info, ServerCoapExchange exchange) {
-		return info.getMatchingCondition(exchange);
+		return routeIndex;
 	}
 
 	protected void initHandlerMethods() {
@@ -192,6 +153,7 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 				}
 			}
 		}
+		getRouteIndex();
 	}
 
 	protected abstract boolean isHandler(Class<?> beanType);
@@ -218,15 +180,24 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 
 	protected void registerHandlerMethod(Object handler, Method method, CoapRequestMappingInfo mapping) {
 		HandlerMethod handlerMethod = createHandlerMethod(handler, method);
-		registry.put(mapping, handlerMethod);
+		synchronized (registry) {
+			registry.put(mapping, handlerMethod);
+			routeIndex = null;
+		}
 	}
 
 	protected HandlerMethod createHandlerMethod(Object handler, Method method) {
 		HandlerMethod handlerMethod;
 		if (handler instanceof String) {
 			String beanName = (String) handler;
-			handlerMethod = new HandlerMethod(beanName,
-					obtainApplicationContext().getAutowireCapableBeanFactory(), method);
+			if (obtainApplicationContext().isSingleton(beanName)) {
+				// resolve singletons now so that requests never go to the bean factory
+				handlerMethod = new HandlerMethod(obtainApplicationContext().getBean(beanName), method);
+			}
+			else {
+				handlerMethod = new HandlerMethod(beanName,
+						obtainApplicationContext().getAutowireCapableBeanFactory(), method);
+			}
 		}
 		else {
 			handlerMethod = new HandlerMethod(handler, method);
@@ -272,41 +243,4 @@ public abstract class AbstractHandlerMethodMapping extends ApplicationObjectSupp
 
 	}
 
-
-	/**
-	 * A thin wrapper around a matched HandlerMethod and its mapping, for the purpose of
-	 * comparing the best match with a comparator in the context of the current request.
-	 */
-	private class Match {
-
-		private final CoapRequestMappingInfo mapping;
-
-		private final HandlerMethod handlerMethod;
-
-		public Match(CoapRequestMappingInfo mapping, HandlerMethod handlerMethod) {
-			this.mapping = mapping;
-			this.handlerMethod = handlerMethod;
-		}
-
-		@Override
-		public String toString() {
-			return this.mapping.toString();
-		}
-	}
-
-
-	private class MatchComparator implements Comparator<Match> {
-
-		private final Comparator<CoapRequestMappingInfo> comparator;
-
-		public MatchComparator(Comparator<CoapRequestMappingInfo> comparator) {
-			this.comparator = comparator;
-		}
-
-		@Override
-		public int compare(Match match1, Match match2) {
-			return this.comparator.compare(match1.mapping, match2.mapping);
-		}
-	}
-
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.server.result.method.annotation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.cloud.iot.coap.CoapMethod;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
+import org.springframework.cloud.iot.coap.server.result.method.CoapRequestMappingInfo;
+import org.springframework.cloud.iot.coap.server.support.PathContainer;
+import org.springframework.cloud.iot.coap.server.support.PathContainer.PathSegment;
+import org.springframework.cloud.iot.coap.server.support.util.pattern.PathPattern;
+import org.springframework.lang.Nullable;
+
+/**
+ * Route index of {@link HandlerMethod}s keyed by literal path segments of
+ * their patterns. Every pattern is stored in a node reached by its leading
+ * literal segments, either as a fully literal route or as a route whose
+ * remaining part has captures or wildcards. Routes of a node are ranked with
+ * {@link PathPattern#SPECIFICITY_COMPARATOR} when the index is built, so a
+ * lookup walks the request path once and only matches the patterns of the
+ * nodes it passes, best ranked first.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+class HandlerMethodRouteIndex {
+
+	private static final Comparator<Route> ROUTE_COMPARATOR = (route1, route2) -> {
+		int result = PathPattern.SPECIFICITY_COMPARATOR.compare(route1.pattern, route2.pattern);
+		if (result != 0) {
+			return result;
+		}
+		// a route with explicit methods is more specific than one matching any method
+		return (route1.methods.isEmpty() ? 1 : 0) - (route2.methods.isEmpty() ? 1 : 0);
+	};
+
+	private final Node root = new Node();
+
+	/**
+	 * Instantiates a new handler method route index.
+	 *
+	 * @param registry the registered mappings and their handler methods
+	 */
+	HandlerMethodRouteIndex(Map<CoapRequestMappingInfo, HandlerMethod> registry) {
+		registry.forEach((mapping, handlerMethod) -> {
+			Set<PathPattern> patterns = mapping.getPatternsCondition().getPatterns();
+			if (patterns.isEmpty()) {
+				root.patternRoutes.add(new Route(null, mapping, handlerMethod));
+			}
+			for (PathPattern pattern : patterns) {
+				add(new Route(pattern, mapping, handlerMethod));
+			}
+		});
+		root.sort();
+	}
+
+	/**
+	 * Find a best route matching a given path and method.
+	 *
+	 * @param lookupPath the lookup path
+	 * @param method the request method
+	 * @return the route match or {@code null} if nothing matched
+	 * @throws IllegalStateException if best match is ambiguous
+	 */
+	@Nullable
+	RouteMatch lookup(PathContainer lookupPath, @Nullable CoapMethod method) {
+		RouteMatch best = null;
+		Node node = root;
+		List<PathContainer.Element> elements = lookupPath.elements();
+		int index = 0;
+		while (true) {
+			best = best(lookupPath, best, match(node.patternRoutes, lookupPath, method));
+			while (index < elements.size() && !(elements.get(index) instanceof PathSegment)) {
+				index++;
+			}
+			if (index == elements.size()) {
+				return best(lookupPath, best, match(node.literalRoutes, lookupPath, method));
+			}
+			node = node.children.get(((PathSegment) elements.get(index++)).valueToMatch());
+			if (node == null) {
+				return best;
+			}
+		}
+	}
+
+	private void add(Route route) {
+		String patternString = route.pattern.getPatternString();
+		String[] segments = patternString.split("/", -1);
+		Node node = root;
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			if (segment.isEmpty() && (i == 0 || i == segments.length - 1)) {
+				continue;
+			}
+			if (!isLiteral(segment)) {
+				node.patternRoutes.add(route);
+				return;
+			}
+			node = node.children.computeIfAbsent(segment, key -> new Node());
+		}
+		node.literalRoutes.add(route);
+	}
+
+	private static boolean isLiteral(String segment) {
+		if (segment.isEmpty()) {
+			// empty segments are not part of a parsed request path
+			return false;
+		}
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c == '{' || c == '}' || c == '*' || c == '?' || c == ';' || c == '%') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Nullable
+	private static RouteMatch match(List<Route> routes, PathContainer lookupPath, @Nullable CoapMethod method) {
+		RouteMatch match = null;
+		for (Route route : routes) {
+			if (match != null && ROUTE_COMPARATOR.compare(match.route, route) != 0) {
+				// routes are ranked, rest are less specific
+				break;
+			}
+			if (!route.matchesMethod(method)) {
+				continue;
+			}
+			Map<String, String> uriVariables;
+			if (route.pattern == null) {
+				uriVariables = Collections.emptyMap();
+			}
+			else {
+				PathPattern.PathMatchInfo info = route.pattern.matchAndExtract(lookupPath);
+				if (info == null) {
+					continue;
+				}
+				uriVariables = info.getUriVariables();
+			}
+			if (match != null) {
+				if (match.route.handlerMethod != route.handlerMethod) {
+					throw ambiguous(lookupPath, match.route, route);
+				}
+				continue;
+			}
+			match = new RouteMatch(route, uriVariables);
+		}
+		return match;
+	}
+
+	@Nullable
+	private static RouteMatch best(PathContainer lookupPath, @Nullable RouteMatch match1, @Nullable RouteMatch match2) {
+		if (match1 == null) {
+			return match2;
+		}
+		if (match2 == null) {
+			return match1;
+		}
+		int result = ROUTE_COMPARATOR.compare(match1.route, match2.route);
+		if (result == 0 && match1.route.handlerMethod != match2.route.handlerMethod) {
+			throw ambiguous(lookupPath, match1.route, match2.route);
+		}
+		return result <= 0 ? match1 : match2;
+	}
+
+	private static IllegalStateException ambiguous(PathContainer lookupPath, Route route1, Route route2) {
+		return new IllegalStateException("Ambiguous handler methods mapped for COAP path '"
+				+ lookupPath.value() + "': {"
+				+ route1.handlerMethod.getMethod() + ", " + route2.handlerMethod.getMethod() + "}");
+	}
+
+	/**
+	 * Result of a lookup having a matched handler method together with
+	 * its extracted uri variables.
+	 */
+	static class RouteMatch {
+
+		private final Route route;
+		private final Map<String, String> uriVariables;
+
+		RouteMatch(Route route, Map<String, String> uriVariables) {
+			this.route = route;
+			this.uriVariables = uriVariables;
+		}
+
+		CoapRequestMappingInfo getMapping() {
+			return route.mapping;
+		}
+
+		HandlerMethod getHandlerMethod() {
+			return route.handlerMethod;
+		}
+
+		@Nullable
+		PathPattern getPattern() {
+			return route.pattern;
+		}
+
+		Map<String, String> getUriVariables() {
+			return uriVariables;
+		}
+
+		@Override
+		public String toString() {
+			return route.mapping.toString();
+		}
+	}
+
+	private static class Route {
+
+		private final PathPattern pattern;
+		private final CoapRequestMappingInfo mapping;
+		private final HandlerMethod handlerMethod;
+		private final Set<CoapMethod> methods;
+
+		Route(@Nullable PathPattern pattern, CoapRequestMappingInfo mapping, HandlerMethod handlerMethod) {
+			this.pattern = pattern;
+			this.mapping = mapping;
+			this.handlerMethod = handlerMethod;
+			this.methods = mapping.getMethodsCondition().getMethods();
+		}
+
+		boolean matchesMethod(@Nullable CoapMethod method) {
+			return methods.isEmpty() || (method != null && methods.contains(method));
+		}
+	}
+
+	private static class Node {
+
+		private final Map<String, Node> children = new HashMap<>();
+		private final List<Route> literalRoutes = new ArrayList<>(1);
+		private final List<Route> patternRoutes = new ArrayList<>(1);
+
+		void sort() {
+			literalRoutes.sort(ROUTE_COMPARATOR);
+			patternRoutes.sort(ROUTE_COMPARATOR);
+			for (Node child : children.values()) {
+				child.sort();
+			}
+		}
+	}
+}
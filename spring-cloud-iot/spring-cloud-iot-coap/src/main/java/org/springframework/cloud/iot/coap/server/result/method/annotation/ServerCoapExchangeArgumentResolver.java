@@ -16,12 +16,10 @@
 package org.springframework.cloud.iot.coap.server.result.method.annotation;
 
 import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
-import org.springframework.cloud.iot.coap.server.result.method.CoapHandlerMethodArgumentResolver;
+import org.springframework.cloud.iot.coap.server.result.method.SyncCoapHandlerMethodArgumentResolver;
 import org.springframework.core.MethodParameter;
 
-import reactor.core.publisher.Mono;
-
-public class ServerCoapExchangeArgumentResolver implements CoapHandlerMethodArgumentResolver {
+public class ServerCoapExchangeArgumentResolver implements SyncCoapHandlerMethodArgumentResolver {
 
 	@Override
 	public boolean supportsParameter(MethodParameter parameter) {
@@ -30,10 +28,10 @@ public class ServerCoapExchangeArgumentResolver implements CoapHandlerMethodArgu
 	}
 
 	@Override
-	public Mono<Object> resolveArgument(MethodParameter parameter, ServerCoapExchange exchange) {
+	public Object resolveArgumentValue(MethodParameter parameter, ServerCoapExchange exchange) {
 		Class<?> paramType = parameter.getParameterType();
 		if (ServerCoapExchange.class.isAssignableFrom(paramType)) {
-			return Mono.just(exchange);
+			return exchange;
 		} else {
 			// should never happen...
 			throw new IllegalArgumentException(
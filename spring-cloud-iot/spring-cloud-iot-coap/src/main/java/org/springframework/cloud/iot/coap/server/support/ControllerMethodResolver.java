@@ -15,7 +15,10 @@
  */
 package org.springframework.cloud.iot.coap.server.support;
 
+import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.cloud.iot.coap.server.HandlerMethod;
 import org.springframework.cloud.iot.coap.server.result.method.CoapHandlerMethodArgumentResolver;
@@ -25,14 +28,31 @@ public class ControllerMethodResolver {
 
 	private final List<CoapHandlerMethodArgumentResolver> requestMappingResolvers;
 
+	private final Map<Method, InvocableHandlerMethod> requestMappingMethodCache = new ConcurrentHashMap<>();
+
 	public ControllerMethodResolver(List<CoapHandlerMethodArgumentResolver> requestMappingResolvers) {
 		this.requestMappingResolvers = requestMappingResolvers;
 	}
 
+	/**
+	 * Gets an {@link InvocableHandlerMethod} for a handler method. Invocables are
+	 * cached per method so that their invocation plan is computed only once and
+	 * reused as is for a same bean instance.
+	 *
+	 * @param handlerMethod the handler method
+	 * @return the invocable handler method
+	 */
 	public InvocableHandlerMethod getRequestMappingMethod(HandlerMethod handlerMethod) {
-		InvocableHandlerMethod invocable = new InvocableHandlerMethod(handlerMethod);
-		invocable.setArgumentResolvers(this.requestMappingResolvers);
-		return invocable;
+		Method method = handlerMethod.getMethod();
+		InvocableHandlerMethod invocable = this.requestMappingMethodCache.computeIfAbsent(method, key -> {
+			InvocableHandlerMethod created = new InvocableHandlerMethod(handlerMethod);
+			created.setArgumentResolvers(this.requestMappingResolvers);
+			return created;
+		});
+		if (invocable.getBean() == handlerMethod.getBean()) {
+			return invocable;
+		}
+		return new InvocableHandlerMethod(handlerMethod, invocable);
 	}
 
 }
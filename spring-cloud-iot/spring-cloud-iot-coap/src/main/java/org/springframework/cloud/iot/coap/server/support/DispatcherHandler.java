@@ -18,6 +18,7 @@ package org.springframework.cloud.iot.coap.server.support;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactoryUtils;
@@ -25,19 +26,28 @@ import org.springframework.cloud.iot.coap.server.CoapHandler;
 import org.springframework.cloud.iot.coap.server.CoapServerException;
 import org.springframework.cloud.iot.coap.server.HandlerAdapter;
 import org.springframework.cloud.iot.coap.server.HandlerMapping;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
 import org.springframework.cloud.iot.coap.server.HandlerResult;
 import org.springframework.cloud.iot.coap.server.HandlerResultHandler;
 import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.MethodParameter;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 
+import reactor.core.Fuseable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
  * Central dispatcher for COAP request handlers/controllers. Dispatches to registered
  * handlers for processing a coap request, providing convenient mapping facilities.
+ * <p>
+ * Handler adapters and result handlers are looked up once per handler method.
+ * When mappings, adapters and result handlers return plain value {@link Mono}s,
+ * like with synchronous handler methods, request is dispatched inline without
+ * composing a reactive chain.
  *
  * @author Janne Valkealahti
  *
@@ -49,6 +59,8 @@ public class DispatcherHandler implements CoapHandler, ApplicationContextAware {
 	private List<HandlerMapping> handlerMappings;
 	private List<HandlerAdapter> handlerAdapters;
 	private List<HandlerResultHandler> resultHandlers;
+	private final Map<MethodClassKey, HandlerAdapter> handlerAdapterCache = new ConcurrentHashMap<>();
+	private final Map<MethodClassKey, HandlerResultHandler> resultHandlerCache = new ConcurrentHashMap<>();
 
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
@@ -57,9 +69,46 @@ public class DispatcherHandler implements CoapHandler, ApplicationContextAware {
 
 	@Override
 	public Mono<Void> handle(ServerCoapExchange exchange) {
-		return Flux.fromIterable(this.handlerMappings)
-				.concatMap(mapping -> mapping.getHandler(exchange))
-				.next()
+		Object handler = null;
+		for (int i = 0; i < this.handlerMappings.size() && handler == null; i++) {
+			Mono<Object> handlerMono = this.handlerMappings.get(i).getHandler(exchange);
+			if (!(handlerMono instanceof Fuseable.ScalarCallable)) {
+				return handleReactive(exchange, handlerMono, i + 1);
+			}
+			try {
+				handler = call(handlerMono);
+			}
+			catch (Exception ex) {
+				return handlerMono.then();
+			}
+		}
+		if (handler == null) {
+			return Mono.error(HANDLER_NOT_FOUND_EXCEPTION);
+		}
+		try {
+			Mono<HandlerResult> resultMono = invokeHandler(exchange, handler);
+			if (!(resultMono instanceof Fuseable.ScalarCallable)) {
+				return resultMono.flatMap(result -> handleResult(exchange, result));
+			}
+			HandlerResult result;
+			try {
+				result = call(resultMono);
+			}
+			catch (Exception ex) {
+				return resultMono.then();
+			}
+			return result != null ? handleResult(exchange, result) : Mono.empty();
+		}
+		catch (Throwable ex) {
+			return Mono.error(ex);
+		}
+	}
+
+	private Mono<Void> handleReactive(ServerCoapExchange exchange, Mono<Object> handlerMono, int nextMapping) {
+		return handlerMono
+				.switchIfEmpty(Flux.fromIterable(this.handlerMappings.subList(nextMapping, this.handlerMappings.size()))
+						.concatMap(mapping -> mapping.getHandler(exchange))
+						.next())
 				.switchIfEmpty(Mono.error(HANDLER_NOT_FOUND_EXCEPTION))
 				.flatMap(handler -> invokeHandler(exchange, handler))
 				.flatMap(result -> handleResult(exchange, result));
@@ -83,31 +132,80 @@ public class DispatcherHandler implements CoapHandler, ApplicationContextAware {
 
 		this.resultHandlers = new ArrayList<>(beans.values());
 		AnnotationAwareOrderComparator.sort(this.resultHandlers);
+
+		this.handlerAdapterCache.clear();
+		this.resultHandlerCache.clear();
 	}
 
 	private Mono<HandlerResult> invokeHandler(ServerCoapExchange exchange, Object handler) {
+		HandlerAdapter handlerAdapter = getHandlerAdapter(handler);
+		if (handlerAdapter != null) {
+			return handlerAdapter.handle(exchange, handler);
+		}
+		return Mono.error(new IllegalStateException("No HandlerAdapter: " + handler));
+	}
+
+	private HandlerAdapter getHandlerAdapter(Object handler) {
+		MethodClassKey key = null;
+		if (handler instanceof HandlerMethod) {
+			HandlerMethod handlerMethod = (HandlerMethod) handler;
+			key = new MethodClassKey(handlerMethod.getMethod(), handlerMethod.getBeanType());
+			HandlerAdapter handlerAdapter = this.handlerAdapterCache.get(key);
+			if (handlerAdapter != null) {
+				return handlerAdapter;
+			}
+		}
 		for (HandlerAdapter handlerAdapter : this.handlerAdapters) {
 			if (handlerAdapter.supports(handler)) {
-				return handlerAdapter.handle(exchange, handler);
+				if (key != null) {
+					this.handlerAdapterCache.put(key, handlerAdapter);
+				}
+				return handlerAdapter;
 			}
 		}
-		return Mono.error(new IllegalStateException("No HandlerAdapter: " + handler));
+		return null;
 	}
 
 	private Mono<Void> handleResult(ServerCoapExchange exchange, HandlerResult result) {
-		return getResultHandler(result)
-				.handleResult(exchange, result)
+		Mono<Void> handled = getResultHandler(result).handleResult(exchange, result);
+		if (handled instanceof Fuseable.ScalarCallable) {
+			try {
+				call(handled);
+				return Mono.empty();
+			}
+			catch (Exception ex) {
+				// pass error to an exception handler below
+			}
+		}
+		return handled
 				.onErrorResume(ex -> result.applyExceptionHandler(ex)
 				.flatMap(exceptionResult -> getResultHandler(exceptionResult)
 				.handleResult(exchange, exceptionResult)));
 	}
 
 	private HandlerResultHandler getResultHandler(HandlerResult handlerResult) {
+		MethodParameter returnType = handlerResult.getReturnTypeSource();
+		MethodClassKey key = null;
+		if (returnType.getMethod() != null) {
+			key = new MethodClassKey(returnType.getMethod(), returnType.getContainingClass());
+			HandlerResultHandler resultHandler = this.resultHandlerCache.get(key);
+			if (resultHandler != null) {
+				return resultHandler;
+			}
+		}
 		for (HandlerResultHandler resultHandler : this.resultHandlers) {
 			if (resultHandler.supports(handlerResult)) {
+				if (key != null) {
+					this.resultHandlerCache.put(key, resultHandler);
+				}
 				return resultHandler;
 			}
 		}
 		throw new IllegalStateException("No HandlerResultHandler for " + handlerResult.getReturnValue());
 	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T call(Mono<T> mono) throws Exception {
+		return ((Fuseable.ScalarCallable<T>) mono).call();
+	}
 }
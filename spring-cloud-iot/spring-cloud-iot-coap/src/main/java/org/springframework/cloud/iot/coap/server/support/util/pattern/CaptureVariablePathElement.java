@@ -18,7 +18,7 @@ package org.springframework.cloud.iot.coap.server.support.util.pattern;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.springframework.http.server.PathContainer.PathSegment;
+import org.springframework.cloud.iot.coap.server.support.PathContainer.PathSegment;
 import org.springframework.lang.Nullable;
 
 /**
@@ -20,7 +20,7 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.springframework.http.server.PathContainer.PathSegment;
+import org.springframework.cloud.iot.coap.server.support.PathContainer.PathSegment;
 import org.springframework.cloud.iot.coap.server.support.util.pattern.PathPattern.MatchingContext;
 
 /**
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.californium;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.observe.ObservingEndpoint;
+import org.junit.Test;
+import org.springframework.cloud.iot.coap.server.ServerCoapObservableContext;
+
+/**
+ * Unit tests for {@link ObserveRelationRegistry}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class ObserveRelationRegistryTests {
+
+	private final ObserveRelationRegistry registry = new ObserveRelationRegistry();
+
+	@Test
+	public void registerReturnsSameContextForSameToken() throws Exception {
+		ServerCoapObservableContext context1 = registry.register(exchange("temp", 1000, 1));
+		ServerCoapObservableContext context2 = registry.register(exchange("temp", 1000, 1));
+		ServerCoapObservableContext context3 = registry.register(exchange("temp", 1001, 1));
+
+		assertThat(context1).isNotNull().isSameAs(context2);
+		assertThat(context3).isNotNull().isNotSameAs(context1);
+		assertThat(registry.getObserverCount()).isEqualTo(2);
+		assertThat(registry.getObserverCount("temp")).isEqualTo(2);
+	}
+
+	@Test
+	public void rejectsOverResourceLimit() throws Exception {
+		registry.setMaxObserversPerResource(2);
+
+		assertThat(registry.register(exchange("temp", 1000, 1))).isNotNull();
+		assertThat(registry.register(exchange("temp", 1001, 1))).isNotNull();
+		assertThat(registry.register(exchange("temp", 1002, 1))).isNull();
+		assertThat(registry.register(exchange("humidity", 1002, 1))).isNotNull();
+		assertThat(registry.getRejectedCount()).isEqualTo(1);
+		assertThat(registry.getObserverCount("temp")).isEqualTo(2);
+	}
+
+	@Test
+	public void rejectsOverGlobalLimit() throws Exception {
+		registry.setMaxObservers(2);
+
+		assertThat(registry.register(exchange("temp", 1000, 1))).isNotNull();
+		assertThat(registry.register(exchange("humidity", 1000, 2))).isNotNull();
+		assertThat(registry.register(exchange("light", 1000, 3))).isNull();
+		assertThat(registry.getRejectedCount()).isEqualTo(1);
+
+		registry.remove(exchange("temp", 1000, 1));
+		assertThat(registry.register(exchange("light", 1000, 3))).isNotNull();
+		assertThat(registry.getObserverCount()).isEqualTo(2);
+		assertThat(registry.getObserverCount("temp")).isEqualTo(0);
+	}
+
+	@Test
+	public void removesOnlyAttachedRelation() throws Exception {
+		CoapResource resource = new CoapResource("temp");
+		ObserveRelation relation1 = relation(resource, exchange("temp", 1000, 1));
+		ServerCoapObservableContext context = registry.register(relation1.getExchange());
+		assertThat(registry.attach(relation1)).isSameAs(context);
+
+		// client re-registers with a same token
+		ObserveRelation relation2 = relation(resource, exchange("temp", 1000, 1));
+		assertThat(registry.register(relation2.getExchange())).isSameAs(context);
+		registry.attach(relation2);
+		registry.remove(relation1);
+		assertThat(registry.getObserverCount()).isEqualTo(1);
+
+		registry.remove(relation2);
+		assertThat(registry.getObserverCount()).isEqualTo(0);
+		assertThat(registry.get(relation2.getExchange())).isNull();
+	}
+
+	@Test
+	public void expiresIdleObservers() throws Exception {
+		registry.register(exchange("temp", 1000, 1));
+		registry.register(exchange("humidity", 1001, 1));
+		registry.setIdleTimeout(50);
+
+		Thread.sleep(100);
+		registry.get(exchange("humidity", 1001, 1));
+
+		assertThat(registry.evictExpired()).isEqualTo(1);
+		assertThat(registry.getExpiredCount()).isEqualTo(1);
+		assertThat(registry.getObserverCount("temp")).isEqualTo(0);
+		assertThat(registry.getObserverCount("humidity")).isEqualTo(1);
+	}
+
+	@Test
+	public void keepsIdleEstablishedObservers() throws Exception {
+		CoapResource resource = new CoapResource("temp");
+		ObserveRelation relation = relation(resource, exchange("temp", 1000, 1));
+		relation.setEstablished(true);
+		registry.register(relation.getExchange());
+		registry.attach(relation);
+		registry.setIdleTimeout(50);
+
+		Thread.sleep(100);
+
+		assertThat(registry.evictExpired()).isEqualTo(0);
+		assertThat(registry.getExpiredCount()).isEqualTo(0);
+		assertThat(registry.getObserverCount("temp")).isEqualTo(1);
+		assertThat(relation.isEstablished()).isTrue();
+	}
+
+	private static Exchange exchange(String path, int port, int token) throws Exception {
+		Request request = Request.newGet();
+		request.setSource(InetAddress.getLoopbackAddress());
+		request.setSourcePort(port);
+		request.setToken(new byte[] { (byte) token });
+		request.getOptions().setUriPath(path).setObserve(0);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		return exchange;
+	}
+
+	private static ObserveRelation relation(CoapResource resource, Exchange exchange) {
+		Request request = exchange.getRequest();
+		ObservingEndpoint endpoint = new ObservingEndpoint(
+				new InetSocketAddress(request.getSource(), request.getSourcePort()));
+		ObserveRelation relation = new ObserveRelation(endpoint, resource, exchange);
+		endpoint.addObserveRelation(relation);
+		exchange.setRelation(relation);
+		return relation;
+	}
+}
@@ -25,15 +25,31 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
 
 import org.junit.Test;
 import org.springframework.cloud.iot.coap.AbstractCoapTests;
+import org.springframework.cloud.iot.coap.CoapStatus;
 import org.springframework.cloud.iot.coap.annotation.CoapController;
 import org.springframework.cloud.iot.coap.annotation.CoapObservable;
 import org.springframework.cloud.iot.coap.annotation.CoapRequestMapping;
 import org.springframework.cloud.iot.coap.annotation.CoapResponseBody;
 import org.springframework.cloud.iot.coap.californium.CaliforniumCoapServerFactory;
 import org.springframework.cloud.iot.coap.californium.CoapTemplate;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapObservableHandlerAdapter;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapObservableHandlerMapping;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapObservableResultHandler;
 import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapResponseBodyResultHandler;
 import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapRequestMappingHandlerAdapter;
 import org.springframework.cloud.iot.coap.server.result.method.annotation.CoapRequestMappingHandlerMapping;
@@ -42,6 +58,7 @@ import org.springframework.context.annotation.AnnotationConfigApplicationContext
 import org.springframework.context.annotation.Bean;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public class CaliforniumCoapServerTests extends AbstractCoapTests {
 
@@ -106,6 +123,89 @@ public class CaliforniumCoapServerTests extends AbstractCoapTests {
 		coapServer.stop();
 	}
 
+	@Test
+	public void testObserversShareUpstream() throws Exception {
+		context.register(ControllerConfig5.class, Config2.class);
+		context.refresh();
+		CaliforniumCoapServerFactory factory = new CaliforniumCoapServerFactory();
+
+		DispatcherHandler dispatcherHandler = new DispatcherHandler();
+		dispatcherHandler.setApplicationContext(context);
+
+		factory.setHandlerMappingRoot(dispatcherHandler);
+
+		CoapServer coapServer = factory.getCoapServer();
+		coapServer.start();
+
+		URI uri = new URI("coap", null, "localhost", 5683, "/obs2", null, null);
+		CoapClient client1 = new CoapClient(uri).setEndpoint(new CoapEndpoint());
+		CoapClient client2 = new CoapClient(uri).setEndpoint(new CoapEndpoint());
+		CountDownLatch latch1 = new CountDownLatch(3);
+		CountDownLatch latch2 = new CountDownLatch(3);
+
+		CoapObserveRelation relation1 = client1.observe(new CountingHandler(latch1));
+		assertThat(latch1.await(5, TimeUnit.SECONDS), is(true));
+		CoapObserveRelation relation2 = client2.observe(new CountingHandler(latch2));
+		assertThat(latch2.await(5, TimeUnit.SECONDS), is(true));
+
+		// one take(1) for a first observe response and one shared upstream
+		assertThat(ControllerConfig5.subscriptions.get(), is(2));
+
+		relation1.proactiveCancel();
+		relation2.proactiveCancel();
+		for (int i = 0; i < 50 && ControllerConfig5.cancels.get() < 2; i++) {
+			Thread.sleep(100);
+		}
+		assertThat(ControllerConfig5.cancels.get(), is(2));
+
+		client1.shutdown();
+		client2.shutdown();
+		coapServer.stop();
+	}
+
+	@Test
+	public void testObserverNotificationsUseResultHandler() throws Exception {
+		context.register(ControllerConfig6.class, Config3.class);
+		context.refresh();
+		CaliforniumCoapServerFactory factory = new CaliforniumCoapServerFactory();
+
+		DispatcherHandler dispatcherHandler = new DispatcherHandler();
+		dispatcherHandler.setApplicationContext(context);
+
+		factory.setHandlerMappingRoot(dispatcherHandler);
+
+		CoapServer coapServer = factory.getCoapServer();
+		coapServer.start();
+
+		URI uri = new URI("coap", null, "localhost", 5683, "/obs3", null, null);
+		CoapClient client1 = new CoapClient(uri).setEndpoint(new CoapEndpoint());
+		CoapClient client2 = new CoapClient(uri).setEndpoint(new CoapEndpoint());
+		List<CoapResponse> responses1 = new CopyOnWriteArrayList<>();
+		List<CoapResponse> responses2 = new CopyOnWriteArrayList<>();
+		CountDownLatch latch1 = new CountDownLatch(4);
+		CountDownLatch latch2 = new CountDownLatch(3);
+
+		CoapObserveRelation relation1 = client1.observe(new CollectingHandler(latch1, responses1));
+		CoapObserveRelation relation2 = client2.observe(new CollectingHandler(latch2, responses2));
+		assertThat(latch1.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(latch2.await(5, TimeUnit.SECONDS), is(true));
+
+		for (CoapResponse response : responses1) {
+			assertThat(response.getCode(), is(ResponseCode.CONTENT));
+			assertThat(response.getOptions().getContentFormat(), is(MediaTypeRegistry.TEXT_PLAIN));
+		}
+		for (CoapResponse response : responses2) {
+			assertThat(response.getCode(), is(ResponseCode.CONTENT));
+			assertThat(response.getOptions().getContentFormat(), is(MediaTypeRegistry.TEXT_PLAIN));
+		}
+
+		relation1.proactiveCancel();
+		relation2.proactiveCancel();
+		client1.shutdown();
+		client2.shutdown();
+		coapServer.stop();
+	}
+
 	@Override
 	protected AnnotationConfigApplicationContext buildContext() {
 		return new AnnotationConfigApplicationContext();
@@ -130,6 +230,91 @@ public class CaliforniumCoapServerTests extends AbstractCoapTests {
 
 	}
 
+	private static class Config2 {
+
+		@Bean
+		public CoapObservableResultHandler coapObservableResultHandler() {
+			return new CoapObservableResultHandler();
+		}
+
+		@Bean
+		public CoapObservableHandlerMapping coapObservableHandlerMapping() {
+			return new CoapObservableHandlerMapping();
+		}
+
+		@Bean
+		public CoapObservableHandlerAdapter coapObservableHandlerAdapter() {
+			return new CoapObservableHandlerAdapter();
+		}
+	}
+
+	private static class Config3 {
+
+		@Bean
+		public ContentResultHandler contentResultHandler() {
+			return new ContentResultHandler();
+		}
+
+		@Bean
+		public CoapObservableHandlerMapping coapObservableHandlerMapping() {
+			return new CoapObservableHandlerMapping();
+		}
+
+		@Bean
+		public CoapObservableHandlerAdapter coapObservableHandlerAdapter() {
+			return new CoapObservableHandlerAdapter();
+		}
+	}
+
+	private static class ContentResultHandler extends CoapObservableResultHandler {
+
+		@Override
+		public Mono<Void> handleResult(ServerCoapExchange exchange, HandlerResult result) {
+			exchange.getResponse().setStatus(CoapStatus.CONTENT);
+			exchange.getResponse().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+			return super.handleResult(exchange, result);
+		}
+	}
+
+	private static class CollectingHandler implements org.eclipse.californium.core.CoapHandler {
+
+		private final CountDownLatch latch;
+		private final List<CoapResponse> responses;
+
+		CollectingHandler(CountDownLatch latch, List<CoapResponse> responses) {
+			this.latch = latch;
+			this.responses = responses;
+		}
+
+		@Override
+		public void onLoad(CoapResponse response) {
+			responses.add(response);
+			latch.countDown();
+		}
+
+		@Override
+		public void onError() {
+		}
+	}
+
+	private static class CountingHandler implements org.eclipse.californium.core.CoapHandler {
+
+		private final CountDownLatch latch;
+
+		CountingHandler(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void onLoad(CoapResponse response) {
+			latch.countDown();
+		}
+
+		@Override
+		public void onError() {
+		}
+	}
+
 	@CoapController
 	@CoapRequestMapping(path = "/testresource1")
 	public static class ControllerConfig1 {
@@ -186,4 +371,33 @@ public class CaliforniumCoapServerTests extends AbstractCoapTests {
 			});
 		}
 	}
+
+	@CoapController
+	public static class ControllerConfig5 {
+
+		static final AtomicInteger subscriptions = new AtomicInteger();
+		static final AtomicInteger cancels = new AtomicInteger();
+
+		private final Flux<String> ticks = Flux.interval(Duration.ofMillis(200))
+				.map(i -> Long.toString(i))
+				.doOnSubscribe(s -> subscriptions.incrementAndGet())
+				.doOnCancel(() -> cancels.incrementAndGet());
+
+		@CoapObservable(path = "/obs2")
+		public Flux<String> obs2() {
+			return ticks;
+		}
+	}
+
+	@CoapController
+	public static class ControllerConfig6 {
+
+		private final Flux<String> ticks = Flux.interval(Duration.ofMillis(200))
+				.map(i -> Long.toString(i));
+
+		@CoapObservable(path = "/obs3")
+		public Flux<String> obs3() {
+			return ticks;
+		}
+	}
 }
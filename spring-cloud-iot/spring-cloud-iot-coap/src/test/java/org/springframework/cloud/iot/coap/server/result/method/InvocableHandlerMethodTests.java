@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.server.result.method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
+import org.springframework.cloud.iot.coap.server.MockServerCoapExchange;
+import org.springframework.cloud.iot.coap.server.MockServerCoapRequest;
+import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.ServerCoapExchangeArgumentResolver;
+import org.springframework.core.MethodParameter;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Unit tests for {@link InvocableHandlerMethod}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class InvocableHandlerMethodTests {
+
+	private final MockServerCoapExchange exchange = MockServerCoapExchange.from(
+			MockServerCoapRequest.get("/path").build());
+
+	@Test
+	public void invokeWithSyncResolvers() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "exchange", ServerCoapExchange.class);
+		invocable.setArgumentResolvers(Collections.singletonList(new ServerCoapExchangeArgumentResolver()));
+
+		assertThat(invocable.invoke(exchange).block().getReturnValue()).isEqualTo("c1:true");
+		assertThat(invocable.invoke(exchange).block().getReturnValue()).isEqualTo("c1:true");
+	}
+
+	@Test
+	public void invokeWithAsyncResolvers() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "mixed", ServerCoapExchange.class,
+				String.class);
+		invocable.setArgumentResolvers(Arrays.asList(new ServerCoapExchangeArgumentResolver(), new StringResolver()));
+
+		assertThat(invocable.invoke(exchange).block().getReturnValue()).isEqualTo("c1:true:hello");
+	}
+
+	@Test
+	public void invokeWithProvidedArgument() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "mixed", ServerCoapExchange.class,
+				String.class);
+		invocable.setArgumentResolvers(Collections.singletonList(new ServerCoapExchangeArgumentResolver()));
+
+		assertThat(invocable.invoke(exchange, "provided").block().getReturnValue()).isEqualTo("c1:true:provided");
+	}
+
+	@Test
+	public void sharedPlanUsesOwnBean() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "exchange", ServerCoapExchange.class);
+		invocable.setArgumentResolvers(Collections.singletonList(new ServerCoapExchangeArgumentResolver()));
+		invocable.invoke(exchange).block();
+		HandlerMethod other = new HandlerMethod(new TestController("c2"), invocable.getMethod());
+
+		InvocableHandlerMethod shared = new InvocableHandlerMethod(other, invocable);
+
+		assertThat(shared.getResolvers()).isSameAs(invocable.getResolvers());
+		assertThat(shared.invoke(exchange).block().getReturnValue()).isEqualTo("c2:true");
+	}
+
+	@Test
+	public void handlerExceptionIsPassedAsIs() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "fail");
+
+		assertThatThrownBy(() -> invocable.invoke(exchange).block())
+				.isInstanceOf(UnsupportedOperationException.class)
+				.hasMessage("c1");
+	}
+
+	@Test
+	public void handlerIllegalArgumentExceptionIsPassedAsIs() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "reject", String.class);
+		invocable.setArgumentResolvers(Collections.singletonList(new StringResolver()));
+
+		assertThatThrownBy(() -> invocable.invoke(exchange).block())
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("c1:hello");
+	}
+
+	@Test
+	public void resolvedArgumentOfWrongType() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "count", int.class);
+		invocable.setArgumentResolvers(Collections.singletonList(new IntResolver("1")));
+
+		assertThatThrownBy(() -> invocable.invoke(exchange).block())
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageStartingWith("Failed to invoke handler method")
+				.hasNoCause();
+	}
+
+	@Test
+	public void noSuitableResolver() throws Exception {
+		InvocableHandlerMethod invocable = invocable(new TestController("c1"), "exchange", ServerCoapExchange.class);
+
+		assertThatThrownBy(() -> invocable.invoke(exchange).block())
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageStartingWith("No suitable resolver for argument 0");
+	}
+
+	private static InvocableHandlerMethod invocable(Object bean, String name, Class<?>... parameterTypes)
+			throws Exception {
+		return new InvocableHandlerMethod(new HandlerMethod(bean, bean.getClass().getMethod(name, parameterTypes)));
+	}
+
+	private static class StringResolver implements CoapHandlerMethodArgumentResolver {
+
+		@Override
+		public boolean supportsParameter(MethodParameter parameter) {
+			return String.class.equals(parameter.getParameterType());
+		}
+
+		@Override
+		public Mono<Object> resolveArgument(MethodParameter parameter, ServerCoapExchange exchange) {
+			return Mono.just("hello");
+		}
+	}
+
+	private static class IntResolver implements CoapHandlerMethodArgumentResolver {
+
+		private final Object value;
+
+		IntResolver(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean supportsParameter(MethodParameter parameter) {
+			return int.class.equals(parameter.getParameterType());
+		}
+
+		@Override
+		public Mono<Object> resolveArgument(MethodParameter parameter, ServerCoapExchange exchange) {
+			return Mono.just(value);
+		}
+	}
+
+	static class TestController {
+
+		private final String name;
+
+		TestController(String name) {
+			this.name = name;
+		}
+
+		public String exchange(ServerCoapExchange exchange) {
+			return name + ":" + (exchange != null);
+		}
+
+		public String mixed(ServerCoapExchange exchange, String value) {
+			return name + ":" + (exchange != null) + ":" + value;
+		}
+
+		public void fail() {
+			throw new UnsupportedOperationException(name);
+		}
+
+		public void reject(String value) {
+			throw new IllegalArgumentException(name + ":" + value);
+		}
+
+		public int count(int count) {
+			return count;
+		}
+	}
+}
@@ -28,8 +28,10 @@ import org.springframework.cloud.iot.coap.annotation.CoapGetMapping;
 import org.springframework.cloud.iot.coap.annotation.CoapPostMapping;
 import org.springframework.cloud.iot.coap.annotation.CoapPutMapping;
 import org.springframework.cloud.iot.coap.annotation.CoapRequestMapping;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
 import org.springframework.cloud.iot.coap.server.result.method.CoapRequestMappingInfo;
 import org.springframework.cloud.iot.coap.server.support.util.pattern.PathPattern;
+import org.springframework.context.support.StaticApplicationContext;
 
 /**
  * Unit tests for {@link CoapRequestMappingHandlerMappingTests}.
@@ -73,6 +75,33 @@ public class CoapRequestMappingHandlerMappingTests {
 		assertComposedAnnotationMapping(CoapMethod.DELETE);
 	}
 
+	@Test
+	public void singletonHandlerResolvedAtRegistration() throws Exception {
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.registerSingleton("controller", ComposedAnnotationController.class);
+		this.handlerMapping.setApplicationContext(context);
+
+		Method method = ComposedAnnotationController.class.getMethod("get");
+		HandlerMethod handlerMethod = this.handlerMapping.createHandlerMethod("controller", method);
+
+		assertThat(handlerMethod.getBean()).isSameAs(context.getBean("controller"));
+		assertThat(handlerMethod.createWithResolvedBean()).isSameAs(handlerMethod);
+	}
+
+	@Test
+	public void prototypeHandlerResolvedPerRequest() throws Exception {
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.registerPrototype("controller", ComposedAnnotationController.class);
+		this.handlerMapping.setApplicationContext(context);
+
+		Method method = ComposedAnnotationController.class.getMethod("get");
+		HandlerMethod handlerMethod = this.handlerMapping.createHandlerMethod("controller", method);
+
+		assertThat(handlerMethod.getBean()).isEqualTo("controller");
+		assertThat(handlerMethod.createWithResolvedBean().getBean())
+				.isInstanceOf(ComposedAnnotationController.class);
+	}
+
 	private CoapRequestMappingInfo assertComposedAnnotationMapping(CoapMethod requestMethod) throws Exception {
 		String methodName = requestMethod.name().toLowerCase();
 		String path = "/" + methodName;
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.server.result.method.annotation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.coap.CoapMethod;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
+import org.springframework.cloud.iot.coap.server.result.method.CoapRequestMappingInfo;
+import org.springframework.cloud.iot.coap.server.result.method.annotation.HandlerMethodRouteIndex.RouteMatch;
+import org.springframework.cloud.iot.coap.server.support.PathContainer;
+
+/**
+ * Unit tests for {@link HandlerMethodRouteIndex}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class HandlerMethodRouteIndexTests {
+
+	private final Map<CoapRequestMappingInfo, HandlerMethod> registry = new LinkedHashMap<>();
+
+	@Test
+	public void literalBeatsCapture() throws Exception {
+		register("capture", CoapRequestMappingInfo.paths("/devices/{id}").build());
+		register("literal", CoapRequestMappingInfo.paths("/devices/all").build());
+		register("catchAll", CoapRequestMappingInfo.paths("/devices/**").build());
+		HandlerMethodRouteIndex index = new HandlerMethodRouteIndex(registry);
+
+		assertThat(lookup(index, "/devices/all", CoapMethod.GET).getHandlerMethod().getMethod().getName())
+				.isEqualTo("literal");
+		RouteMatch match = lookup(index, "/devices/sensor1", CoapMethod.GET);
+		assertThat(match.getHandlerMethod().getMethod().getName()).isEqualTo("capture");
+		assertThat(match.getUriVariables()).containsEntry("id", "sensor1");
+		assertThat(lookup(index, "/devices/sensor1/temp", CoapMethod.GET).getHandlerMethod().getMethod().getName())
+				.isEqualTo("catchAll");
+		assertThat(lookup(index, "/other", CoapMethod.GET)).isNull();
+	}
+
+	@Test
+	public void captureBeforeLiteralSegments() throws Exception {
+		register("capture", CoapRequestMappingInfo.paths("/{device}/temp").build());
+		register("literal", CoapRequestMappingInfo.paths("/sensor/humidity").build());
+		HandlerMethodRouteIndex index = new HandlerMethodRouteIndex(registry);
+
+		RouteMatch match = lookup(index, "/sensor/temp", CoapMethod.GET);
+		assertThat(match.getHandlerMethod().getMethod().getName()).isEqualTo("capture");
+		assertThat(match.getUriVariables()).containsEntry("device", "sensor");
+		assertThat(lookup(index, "/sensor/humidity", CoapMethod.GET).getHandlerMethod().getMethod().getName())
+				.isEqualTo("literal");
+		assertThat(lookup(index, "/sensor/other", CoapMethod.GET)).isNull();
+	}
+
+	@Test
+	public void matchesMethods() throws Exception {
+		register("get", CoapRequestMappingInfo.paths("/led").methods(CoapMethod.GET).build());
+		register("put", CoapRequestMappingInfo.paths("/led").methods(CoapMethod.PUT).build());
+		register("any", CoapRequestMappingInfo.paths("/led").build());
+		HandlerMethodRouteIndex index = new HandlerMethodRouteIndex(registry);
+
+		assertThat(lookup(index, "/led", CoapMethod.GET).getHandlerMethod().getMethod().getName()).isEqualTo("get");
+		assertThat(lookup(index, "/led/", CoapMethod.PUT).getHandlerMethod().getMethod().getName()).isEqualTo("put");
+		assertThat(lookup(index, "/led", CoapMethod.DELETE).getHandlerMethod().getMethod().getName()).isEqualTo("any");
+	}
+
+	@Test
+	public void ambiguousMatch() throws Exception {
+		register("get", CoapRequestMappingInfo.paths("/{a}/temp").build());
+		register("put", CoapRequestMappingInfo.paths("/{b}/temp").build());
+		HandlerMethodRouteIndex index = new HandlerMethodRouteIndex(registry);
+
+		assertThatThrownBy(() -> lookup(index, "/sensor/temp", CoapMethod.GET))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	private RouteMatch lookup(HandlerMethodRouteIndex index, String path, CoapMethod method) {
+		return index.lookup(PathContainer.parsePath(path), method);
+	}
+
+	private void register(String methodName, CoapRequestMappingInfo info) throws Exception {
+		registry.put(info, new HandlerMethod(new Handlers(), Handlers.class.getMethod(methodName)));
+	}
+
+	static class Handlers {
+
+		public void capture() {
+		}
+
+		public void literal() {
+		}
+
+		public void catchAll() {
+		}
+
+		public void get() {
+		}
+
+		public void put() {
+		}
+
+		public void any() {
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.coap.server.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.coap.server.CoapServerException;
+import org.springframework.cloud.iot.coap.server.HandlerAdapter;
+import org.springframework.cloud.iot.coap.server.HandlerMapping;
+import org.springframework.cloud.iot.coap.server.HandlerMethod;
+import org.springframework.cloud.iot.coap.server.HandlerResult;
+import org.springframework.cloud.iot.coap.server.HandlerResultHandler;
+import org.springframework.cloud.iot.coap.server.MockServerCoapExchange;
+import org.springframework.cloud.iot.coap.server.MockServerCoapRequest;
+import org.springframework.cloud.iot.coap.server.ServerCoapExchange;
+import org.springframework.context.support.StaticApplicationContext;
+
+import reactor.core.Fuseable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Unit tests for {@link DispatcherHandler}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class DispatcherHandlerTests {
+
+	private final MockServerCoapExchange exchange = MockServerCoapExchange.from(
+			MockServerCoapRequest.get("/path").build());
+
+	@Test
+	public void syncHandlerCompletesInline() throws Exception {
+		TestResultHandler resultHandler = new TestResultHandler();
+		DispatcherHandler dispatcher = dispatcher(exchange -> Mono.just(handlerMethod()), resultHandler);
+
+		Mono<Void> first = dispatcher.handle(exchange);
+		Mono<Void> second = dispatcher.handle(exchange);
+
+		assertThat(first).isInstanceOf(Fuseable.ScalarCallable.class);
+		assertThat(second).isInstanceOf(Fuseable.ScalarCallable.class);
+		assertThat(resultHandler.values).containsExactly("hello", "hello");
+		assertThat(resultHandler.supportsCount.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void asyncMappingUsesReactivePath() throws Exception {
+		TestResultHandler resultHandler = new TestResultHandler();
+		DispatcherHandler dispatcher = dispatcher(exchange -> Mono.fromSupplier(() -> handlerMethod()), resultHandler);
+
+		Mono<Void> handle = dispatcher.handle(exchange);
+
+		assertThat(resultHandler.values).isEmpty();
+		handle.block();
+		assertThat(resultHandler.values).containsExactly("hello");
+	}
+
+	@Test
+	public void noHandler() throws Exception {
+		DispatcherHandler dispatcher = dispatcher(exchange -> Mono.empty(), new TestResultHandler());
+
+		assertThatThrownBy(() -> dispatcher.handle(exchange).block())
+				.isInstanceOf(CoapServerException.class);
+	}
+
+	@Test
+	public void mappingError() throws Exception {
+		DispatcherHandler dispatcher = dispatcher(exchange -> Mono.error(new IllegalStateException("ambiguous")),
+				new TestResultHandler());
+
+		assertThatThrownBy(() -> dispatcher.handle(exchange).block())
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("ambiguous");
+	}
+
+	private static DispatcherHandler dispatcher(HandlerMapping mapping, HandlerResultHandler resultHandler) {
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.getBeanFactory().registerSingleton("mapping", mapping);
+		context.getBeanFactory().registerSingleton("adapter", new TestHandlerAdapter());
+		context.getBeanFactory().registerSingleton("resultHandler", resultHandler);
+		context.refresh();
+		DispatcherHandler dispatcher = new DispatcherHandler();
+		dispatcher.setApplicationContext(context);
+		return dispatcher;
+	}
+
+	private static HandlerMethod handlerMethod() {
+		try {
+			return new HandlerMethod(new TestController(), TestController.class.getMethod("hello"));
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class TestHandlerAdapter implements HandlerAdapter {
+
+		@Override
+		public boolean supports(Object handler) {
+			return handler instanceof HandlerMethod;
+		}
+
+		@Override
+		public Mono<HandlerResult> handle(ServerCoapExchange exchange, Object handler) {
+			HandlerMethod handlerMethod = (HandlerMethod) handler;
+			return Mono.just(new HandlerResult(handler, "hello", handlerMethod.getReturnType()));
+		}
+	}
+
+	private static class TestResultHandler implements HandlerResultHandler {
+
+		private final AtomicInteger supportsCount = new AtomicInteger();
+		private final List<Object> values = new CopyOnWriteArrayList<>();
+
+		@Override
+		public boolean supports(HandlerResult result) {
+			supportsCount.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public Mono<Void> handleResult(ServerCoapExchange exchange, HandlerResult result) {
+			values.add(result.getReturnValue());
+			return Mono.empty();
+		}
+	}
+
+	public static class TestController {
+
+		public String hello() {
+			return "hello";
+		}
+	}
+}
@@ -144,7 +144,7 @@ public class HexUtils {
 	}
 
 	private static void appendPrettyHexDump(StringBuilder dump, byte[] array, int offset, int length) {
-		if (array.length > (offset + length)) {
+		if (offset + length > array.length) {
 			throw new IndexOutOfBoundsException(
 					"Array length " + array.length + " but requested offset " + offset + " and length " + length);
 		}
@@ -169,13 +169,13 @@ public class HexUtils {
 			// Hex dump
 			int rowEndIndex = rowStartIndex + 16;
 			for (int j = rowStartIndex; j < rowEndIndex; j++) {
-				dump.append(BYTE2HEX[(int) array[j]]);
+				dump.append(BYTE2HEX[array[j] & 0xFF]);
 			}
 			dump.append(" |");
 
 			// ASCII dump
 			for (int j = rowStartIndex; j < rowEndIndex; j++) {
-				dump.append(BYTE2CHAR[(int) array[j]]);
+				dump.append(BYTE2CHAR[array[j] & 0xFF]);
 			}
 			dump.append('|');
 		}
@@ -188,7 +188,7 @@ public class HexUtils {
 			// Hex dump
 			int rowEndIndex = rowStartIndex + remainder;
 			for (int j = rowStartIndex; j < rowEndIndex; j++) {
-				dump.append(BYTE2HEX[(int) array[j]]);
+				dump.append(BYTE2HEX[array[j] & 0xFF]);
 
 			}
 			dump.append(HEXPADDING[remainder]);
@@ -196,7 +196,7 @@ public class HexUtils {
 
 			// Ascii dump
 			for (int j = rowStartIndex; j < rowEndIndex; j++) {
-				dump.append(BYTE2CHAR[(int) array[j]]);
+				dump.append(BYTE2CHAR[array[j] & 0xFF]);
 
 			}
 			dump.append(BYTEPADDING[remainder]);
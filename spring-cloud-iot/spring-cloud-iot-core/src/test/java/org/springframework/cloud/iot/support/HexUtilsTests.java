@@ -15,6 +15,9 @@
  */
 package org.springframework.cloud.iot.support;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
 import org.junit.Test;
 
 public class HexUtilsTests {
@@ -33,4 +36,13 @@ public class HexUtilsTests {
 		pretty = HexUtils.prettyHexDump("abcdefghijklmnopqrstuvwyz".getBytes());
 		System.out.println(pretty);
 	}
+
+	@Test
+	public void testNegativeBytes() {
+		String pretty = HexUtils.prettyHexDump(new byte[] { (byte) 0xff, (byte) 0x80, 0x7f, 0x00 });
+		assertThat(pretty.contains("ff 80 7f 00"), is(true));
+
+		pretty = HexUtils.prettyHexDump("0123".getBytes(), 1, 2);
+		assertThat(pretty.contains("31 32"), is(true));
+	}
 }
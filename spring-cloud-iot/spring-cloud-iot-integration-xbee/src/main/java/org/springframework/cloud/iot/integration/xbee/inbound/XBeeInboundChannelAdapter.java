@@ -22,7 +22,9 @@ import org.springframework.messaging.Message;
 import org.springframework.util.Assert;
 
 /**
- * Inbound channel adapter using XBee mesh network.
+ * Inbound channel adapter using XBee mesh network. Adapter either listens
+ * all messages from a {@link XBeeReceiver} or only messages routed to it by
+ * a {@link XBeeInboundDemultiplexer}.
  *
  * @author Janne Valkealahti
  *
@@ -30,6 +32,8 @@ import org.springframework.util.Assert;
 public class XBeeInboundChannelAdapter extends MessageProducerSupport {
 
 	private final XBeeReceiver xbeeReceiver;
+	private final XBeeInboundDemultiplexer demultiplexer;
+	private final Integer routingId;
 
 	/**
 	 * Instantiates a new xbee inbound channel adapter.
@@ -40,12 +44,62 @@ public class XBeeInboundChannelAdapter extends MessageProducerSupport {
 		super();
 		Assert.notNull(xbeeReceiver, "'xbeeReceiver' must be set");
 		this.xbeeReceiver = xbeeReceiver;
+		this.demultiplexer = null;
+		this.routingId = null;
+	}
+
+	/**
+	 * Instantiates a new xbee inbound channel adapter receiving messages
+	 * having a given routing id. Adapter is registered into a demultiplexer
+	 * when started and unregistered when stopped.
+	 *
+	 * @param demultiplexer the demultiplexer
+	 * @param routingId the routing id between 0 and 65535
+	 */
+	public XBeeInboundChannelAdapter(XBeeInboundDemultiplexer demultiplexer, int routingId) {
+		super();
+		Assert.notNull(demultiplexer, "'demultiplexer' must be set");
+		Assert.isTrue(routingId >= 0 && routingId <= 0xFFFF, "'routingId' must be between 0 and 65535");
+		this.xbeeReceiver = null;
+		this.demultiplexer = demultiplexer;
+		this.routingId = routingId;
 	}
 
 	@Override
 	protected void onInit() {
 		super.onInit();
-		setupListener();
+		if (xbeeReceiver != null) {
+			setupListener();
+		}
+	}
+
+	@Override
+	protected void doStart() {
+		super.doStart();
+		if (demultiplexer != null) {
+			demultiplexer.addRoute(routingId, this);
+		}
+	}
+
+	@Override
+	protected void doStop() {
+		if (demultiplexer != null) {
+			demultiplexer.removeRoute(routingId, this);
+		}
+		super.doStop();
+	}
+
+	/**
+	 * Gets the routing id.
+	 *
+	 * @return the routing id, {@code null} if not receiving through a demultiplexer
+	 */
+	public Integer getRoutingId() {
+		return routingId;
+	}
+
+	void dispatch(Message<byte[]> message) {
+		sendMessage(message);
 	}
 
 	@Override
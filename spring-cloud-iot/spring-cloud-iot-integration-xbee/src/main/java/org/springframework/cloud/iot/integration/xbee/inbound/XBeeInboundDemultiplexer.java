@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.integration.xbee.inbound;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.XBeeReceiver;
+import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.util.Assert;
+
+/**
+ * Demultiplexer dispatching received messages to
+ * {@link XBeeInboundChannelAdapter}s indexed by their
+ * {@link XBeeHeaders#ROUTING_ID}, thus many independent streams can share a
+ * same radio while a message is looked up and passed to its adapter without
+ * every adapter filtering every message.
+ * <p>
+ * Messages without a routing id or with an unknown one go to a default
+ * adapter if set, otherwise to an error channel if set, otherwise they are
+ * dropped.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeInboundDemultiplexer implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(XBeeInboundDemultiplexer.class);
+	private final XBeeReceiver xbeeReceiver;
+	private final XBeeReceiverListener listener = this::dispatch;
+	private final Map<Integer, XBeeInboundChannelAdapter> routes = new ConcurrentHashMap<>();
+	private final AtomicLong unroutedCount = new AtomicLong();
+	private volatile XBeeInboundChannelAdapter defaultAdapter;
+	private volatile MessageChannel errorChannel;
+
+	/**
+	 * Instantiates a new xbee inbound demultiplexer.
+	 *
+	 * @param xbeeReceiver the xbee receiver
+	 */
+	public XBeeInboundDemultiplexer(XBeeReceiver xbeeReceiver) {
+		Assert.notNull(xbeeReceiver, "'xbeeReceiver' must be set");
+		this.xbeeReceiver = xbeeReceiver;
+		this.xbeeReceiver.addXBeeReceiverListener(listener);
+	}
+
+	@Override
+	public void destroy() {
+		xbeeReceiver.removeXBeeReceiverListener(listener);
+	}
+
+	/**
+	 * Adds a route for messages having a given routing id.
+	 *
+	 * @param routingId the routing id
+	 * @param adapter the adapter
+	 */
+	public void addRoute(int routingId, XBeeInboundChannelAdapter adapter) {
+		Assert.notNull(adapter, "'adapter' must be set");
+		XBeeInboundChannelAdapter existing = routes.putIfAbsent(routingId, adapter);
+		Assert.state(existing == null || existing == adapter, "Routing id " + routingId + " already in use");
+	}
+
+	/**
+	 * Removes a route if it still points to a given adapter.
+	 *
+	 * @param routingId the routing id
+	 * @param adapter the adapter
+	 */
+	public void removeRoute(int routingId, XBeeInboundChannelAdapter adapter) {
+		routes.remove(routingId, adapter);
+	}
+
+	/**
+	 * Sets the adapter receiving messages not matching any route.
+	 *
+	 * @param defaultAdapter the new default adapter
+	 */
+	public void setDefaultAdapter(XBeeInboundChannelAdapter defaultAdapter) {
+		this.defaultAdapter = defaultAdapter;
+	}
+
+	/**
+	 * Sets the channel receiving an {@link ErrorMessage} for every message
+	 * not matching any route if there is no default adapter.
+	 *
+	 * @param errorChannel the new error channel
+	 */
+	public void setErrorChannel(MessageChannel errorChannel) {
+		this.errorChannel = errorChannel;
+	}
+
+	/**
+	 * Gets the number of messages not matching any route which were either
+	 * dropped or sent to an error channel.
+	 *
+	 * @return the unrouted count
+	 */
+	public long getUnroutedCount() {
+		return unroutedCount.get();
+	}
+
+	private void dispatch(Message<byte[]> message) {
+		Object routingId = message.getHeaders().get(XBeeHeaders.ROUTING_ID);
+		XBeeInboundChannelAdapter adapter = routingId instanceof Integer ? routes.get(routingId) : null;
+		if (adapter == null) {
+			adapter = defaultAdapter;
+		}
+		if (adapter != null) {
+			adapter.dispatch(message);
+			return;
+		}
+		unroutedCount.incrementAndGet();
+		MessageChannel channel = errorChannel;
+		if (channel != null) {
+			log.warn("No route for message with routing id {}, sending it to error channel", routingId);
+			channel.send(new ErrorMessage(
+					new MessageDeliveryException(message, "No route for message with routing id " + routingId)));
+		} else {
+			log.warn("No route for message with routing id {}, dropping it", routingId);
+		}
+	}
+}
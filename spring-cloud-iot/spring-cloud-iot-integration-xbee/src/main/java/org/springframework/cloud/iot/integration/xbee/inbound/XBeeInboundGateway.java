@@ -15,20 +15,40 @@
  */
 package org.springframework.cloud.iot.integration.xbee.inbound;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
 import org.springframework.cloud.iot.xbee.XBeeReceiver;
 import org.springframework.cloud.iot.xbee.XBeeSender;
 import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
 import org.springframework.integration.gateway.MessagingGatewaySupport;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ErrorMessage;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
 /**
- * Inbound gateway using XBee mesh network.
+ * Inbound gateway using XBee mesh network. Replies are sent as unicast to a
+ * device which originated the request.
+ * <p>
+ * By default a request is sent into a flow and its reply waited for on a
+ * thread which delivered the request. In async mode a request is sent with
+ * a reply channel and the gateway returns immediately, replies are then
+ * matched to in-flight requests either by that reply channel or, if a flow
+ * sends replies into a configured reply channel, by a source address and
+ * {@link XBeeHeaders#CORRELATION_ID}. Number of in-flight requests is
+ * limited and requests exceeding it are dropped.
  *
  * @author Janne Valkealahti
  *
@@ -36,8 +56,19 @@ import org.springframework.util.ClassUtils;
 public class XBeeInboundGateway extends MessagingGatewaySupport {
 
 	private static final Logger log = LoggerFactory.getLogger(XBeeInboundGateway.class);
+	public final static int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 100;
+	public final static long DEFAULT_ASYNC_REPLY_TIMEOUT = 60000;
 	private final XBeeReceiver xbeeReceiver;
 	private final XBeeSender xbeeSender;
+	private final Map<Object, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+	private final AtomicBoolean replyChannelSubscribed = new AtomicBoolean();
+	private final AtomicLong rejectedRequestCount = new AtomicLong();
+	private final AtomicLong expiredRequestCount = new AtomicLong();
+	private final AtomicLong unmatchedReplyCount = new AtomicLong();
+	private boolean async;
+	private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+	private long asyncReplyTimeout = DEFAULT_ASYNC_REPLY_TIMEOUT;
+	private Semaphore inFlightPermits;
 
 	/**
 	 * Instantiates a new xbee inbound gateway.
@@ -64,15 +95,85 @@ public class XBeeInboundGateway extends MessagingGatewaySupport {
 	@Override
 	protected void onInit() throws Exception {
 		super.onInit();
+		inFlightPermits = new Semaphore(maxInFlightRequests);
 		setupListener();
 	}
 
+	/**
+	 * Sets if requests are processed asynchronously without blocking
+	 * a thread which delivered a request. Defaults to {@code false}.
+	 *
+	 * @param async the new async
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	/**
+	 * Sets the max number of in-flight requests in async mode. Needs to be set
+	 * before this gateway is initialized.
+	 *
+	 * @param maxInFlightRequests the new max in-flight requests
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		Assert.isTrue(maxInFlightRequests > 0, "'maxInFlightRequests' must be positive");
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	/**
+	 * Sets the timeout in milliseconds after which an in-flight request
+	 * without a reply is forgotten in async mode.
+	 *
+	 * @param asyncReplyTimeout the new async reply timeout
+	 */
+	public void setAsyncReplyTimeout(long asyncReplyTimeout) {
+		Assert.isTrue(asyncReplyTimeout > 0, "'asyncReplyTimeout' must be positive");
+		this.asyncReplyTimeout = asyncReplyTimeout;
+	}
+
+	/**
+	 * Gets the number of requests waiting for a reply in async mode.
+	 *
+	 * @return the in-flight request count
+	 */
+	public int getInFlightRequestCount() {
+		return inFlightRequests.size();
+	}
+
+	/**
+	 * Gets the number of requests dropped because too many requests were
+	 * in-flight.
+	 *
+	 * @return the rejected request count
+	 */
+	public long getRejectedRequestCount() {
+		return rejectedRequestCount.get();
+	}
+
+	/**
+	 * Gets the number of in-flight requests forgotten without a reply.
+	 *
+	 * @return the expired request count
+	 */
+	public long getExpiredRequestCount() {
+		return expiredRequestCount.get();
+	}
+
+	/**
+	 * Gets the number of replies not matching any in-flight request.
+	 *
+	 * @return the unmatched reply count
+	 */
+	public long getUnmatchedReplyCount() {
+		return unmatchedReplyCount.get();
+	}
+
 	@Override
 	public String getComponentType() {
 		return xbeeSender != null ? "xbee:inbound-gateway" : "xbee:inbound-channel-adapter";
 	}
 
-	private void sendReplyMessage(Message<?> replyMessage) {
+	private void sendReplyMessage(Message<?> replyMessage, Message<byte[]> requestMessage) {
 		log.debug("sendReplyMessage {}", replyMessage);
 		byte[] data = null;
 
@@ -86,22 +187,158 @@ public class XBeeInboundGateway extends MessagingGatewaySupport {
 		}
 
 		if (data != null && data.length > 0) {
-			Message<byte[]> message = MessageBuilder.withPayload(data).build();
+			// reply to originating device unless reply is explicitly addressed,
+			// and echo correlation id so that requester can match this reply
+			Object sourceAddress = requestMessage.getHeaders().get(XBeeHeaders.SOURCE_ADDRESS);
+			Object correlationId = requestMessage.getHeaders().get(XBeeHeaders.CORRELATION_ID);
+			Message<byte[]> message = MessageBuilder.withPayload(data)
+					.copyHeaders(replyMessage.getHeaders())
+					.setHeaderIfAbsent(XBeeHeaders.DESTINATION_ADDRESS, sourceAddress)
+					.setHeaderIfAbsent(XBeeHeaders.CORRELATION_ID, correlationId)
+					.build();
 			log.debug("Sending message {}", message);
-			xbeeSender.sendMessage(message);
+			// don't block a thread which delivered a request
+			xbeeSender.sendMessageAsync(message).whenComplete((result, e) -> {
+				if (e != null) {
+					log.error("Failed to send reply message " + message, e);
+				}
+			});
+		}
+	}
+
+	private void sendAsync(Message<byte[]> message) {
+		subscribeReplyChannelIfNeeded();
+		expireInFlightRequests();
+		if (!inFlightPermits.tryAcquire()) {
+			rejectedRequestCount.incrementAndGet();
+			log.warn("Dropping request from {} as {} requests are in-flight",
+					message.getHeaders().get(XBeeHeaders.SOURCE_ADDRESS), maxInFlightRequests);
+			return;
+		}
+		InFlightRequest inFlight = new InFlightRequest(correlationKey(message), message);
+		InFlightRequest previous = inFlightRequests.put(inFlight.key, inFlight);
+		if (previous != null) {
+			// same request retried by a device, only latest gets a reply
+			inFlightPermits.release();
+		}
+		Message<byte[]> request = MessageBuilder.fromMessage(message)
+				.setReplyChannel(inFlight)
+				.setErrorChannel(inFlight)
+				.build();
+		try {
+			messagingTemplate.send(getRequestChannel(), request);
+		} catch (RuntimeException e) {
+			inFlight.complete();
+			log.error("Failed to send request " + message, e);
+		}
+	}
+
+	private void handleReply(Message<?> reply) {
+		Object replyChannel = reply.getHeaders().getReplyChannel();
+		InFlightRequest inFlight = null;
+		if (replyChannel instanceof InFlightRequest) {
+			inFlight = (InFlightRequest) replyChannel;
+		} else {
+			Object key = correlationKey(reply);
+			if (key != null) {
+				inFlight = inFlightRequests.get(key);
+			}
+		}
+		if (inFlight == null || !inFlight.send(reply)) {
+			unmatchedReplyCount.incrementAndGet();
+			log.debug("No in-flight request for reply {}", reply);
 		}
 	}
 
+	private void subscribeReplyChannelIfNeeded() {
+		if (replyChannelSubscribed.compareAndSet(false, true)) {
+			MessageChannel replyChannel = getReplyChannel();
+			if (replyChannel instanceof SubscribableChannel) {
+				((SubscribableChannel) replyChannel).subscribe(this::handleReply);
+			} else if (replyChannel != null) {
+				log.warn("Reply channel {} is not subscribable, only replies to reply channel header are handled",
+						replyChannel);
+			}
+		}
+	}
+
+	private void expireInFlightRequests() {
+		long expireBefore = System.currentTimeMillis() - asyncReplyTimeout;
+		Iterator<InFlightRequest> iterator = inFlightRequests.values().iterator();
+		while (iterator.hasNext()) {
+			InFlightRequest inFlight = iterator.next();
+			if (inFlight.timestamp < expireBefore && inFlight.complete()) {
+				expiredRequestCount.incrementAndGet();
+				log.debug("No reply within {}ms for request {}", asyncReplyTimeout, inFlight.request);
+			}
+		}
+	}
+
+	private static Object correlationKey(Message<?> message) {
+		Object correlationId = message.getHeaders().get(XBeeHeaders.CORRELATION_ID);
+		if (correlationId == null) {
+			return message.getHeaders().getId();
+		}
+		return message.getHeaders().get(XBeeHeaders.SOURCE_ADDRESS) + ":" + correlationId;
+	}
+
 	private void setupListener() {
 		xbeeReceiver.addXBeeReceiverListener(new XBeeReceiverListener() {
 
 			@Override
 			public void onMessage(Message<byte[]> message) {
 				log.debug("onMessage {}", message);
-//				send(message);
+				if (async) {
+					sendAsync(message);
+					return;
+				}
 				Message<?> response = sendAndReceiveMessage(message);
-				sendReplyMessage(response);
+				if (response != null) {
+					sendReplyMessage(response, message);
+				}
 			}
 		});
 	}
+
+	/**
+	 * Request waiting for a reply in async mode, acting also as its reply and
+	 * error channel.
+	 */
+	private class InFlightRequest implements MessageChannel {
+
+		final Object key;
+		final Message<byte[]> request;
+		final long timestamp = System.currentTimeMillis();
+
+		InFlightRequest(Object key, Message<byte[]> request) {
+			this.key = key;
+			this.request = request;
+		}
+
+		@Override
+		public boolean send(Message<?> message, long timeout) {
+			if (!complete()) {
+				return false;
+			}
+			if (message instanceof ErrorMessage) {
+				log.error("Failed to handle request " + request, ((ErrorMessage) message).getPayload());
+			} else if (xbeeSender != null) {
+				sendReplyMessage(message, request);
+			}
+			return true;
+		}
+
+		boolean complete() {
+			if (inFlightRequests.remove(key, this)) {
+				inFlightPermits.release();
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return "InFlightRequest [key=" + key + "]";
+		}
+	}
 }
@@ -15,6 +15,9 @@
  */
 package org.springframework.cloud.iot.integration.xbee.outbound;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
 import org.springframework.cloud.iot.xbee.XBeeSender;
 import org.springframework.integration.handler.AbstractMessageProducingHandler;
 import org.springframework.messaging.Message;
@@ -22,14 +25,18 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.Assert;
 
 /**
- * Outbound channel adapter using XBee mesh network.
+ * Outbound channel adapter using XBee mesh network. Messages are sent
+ * asynchronously via {@link XBeeSender#sendMessageAsync(Message)} thus not
+ * blocking a calling thread while radio sends frames, failures are logged.
  *
  * @author Janne Valkealahti
  *
  */
 public class XBeeOutboundChannelAdapter extends AbstractMessageProducingHandler {
 
+	private static final Logger log = LoggerFactory.getLogger(XBeeOutboundChannelAdapter.class);
 	private final XBeeSender xbeeSender;
+	private Integer routingId;
 
 	/**
 	 * Instantiates a new xbee inbound channel adapter.
@@ -42,6 +49,18 @@ public class XBeeOutboundChannelAdapter extends AbstractMessageProducingHandler
 		this.xbeeSender = xbeeSender;
 	}
 
+	/**
+	 * Sets the routing id added to every sent message as
+	 * {@link XBeeHeaders#ROUTING_ID} header, carried as a start frame field.
+	 *
+	 * @param routingId the new routing id between 0 and 65535
+	 */
+	public void setRoutingId(Integer routingId) {
+		Assert.isTrue(routingId == null || (routingId >= 0 && routingId <= 0xFFFF),
+				"'routingId' must be between 0 and 65535");
+		this.routingId = routingId;
+	}
+
 	@Override
 	protected void onInit() throws Exception {
 		super.onInit();
@@ -62,7 +81,16 @@ public class XBeeOutboundChannelAdapter extends AbstractMessageProducingHandler
 			data = (byte[])payload;
 		}
 		if (data != null && data.length > 0) {
-			xbeeSender.sendMessage(MessageBuilder.withPayload(data).build());
+			MessageBuilder<byte[]> builder = MessageBuilder.withPayload(data).copyHeaders(message.getHeaders());
+			if (routingId != null) {
+				builder.setHeader(XBeeHeaders.ROUTING_ID, routingId);
+			}
+			xbeeSender.sendMessageAsync(builder.build())
+					.whenComplete((result, e) -> {
+						if (e != null) {
+							log.error("Failed to send message " + message, e);
+						}
+					});
 		}
 	}
 }
@@ -15,34 +15,68 @@
  */
 package org.springframework.cloud.iot.integration.xbee.outbound;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
 import org.springframework.cloud.iot.xbee.XBeeReceiver;
 import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
 import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.cloud.iot.xbee.support.XBeeUtils;
+import org.springframework.integration.MessageTimeoutException;
 import org.springframework.integration.handler.AbstractReplyProducingMessageHandler;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
-import org.springframework.util.concurrent.SettableListenableFuture;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
 
 /**
  * Outbound gateway using XBee mesh network.
+ * <p>
+ * Every request gets a {@link XBeeHeaders#CORRELATION_ID} header which a
+ * replying side echoes back, and replies are matched to pending requests by
+ * it, thus many requests can be in-flight concurrently. Replies without a
+ * correlation id are dropped, and a reply to a request sent to a
+ * {@link XBeeHeaders#DESTINATION_ADDRESS} is only accepted from that device.
+ * <p>
+ * Reply listener is registered with a receiver when this gateway is
+ * initialized and removed when it is destroyed.
  *
  * @author Janne Valkealahti
  *
  */
-public class XBeeOutboundGateway extends AbstractReplyProducingMessageHandler {
+public class XBeeOutboundGateway extends AbstractReplyProducingMessageHandler implements DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(XBeeOutboundGateway.class);
+	public final static long DEFAULT_REPLY_TIMEOUT = 60000;
+	public final static int DEFAULT_MAX_PENDING_REQUESTS = 100;
 	private final XBeeSender xbeeSender;
 	private final XBeeReceiver xbeeReceiver;
+	private final XBeeReceiverListener replyListener = new ReplyListener();
+	private final AtomicBoolean listening = new AtomicBoolean();
+	private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final String correlationPrefix = Long.toHexString(System.nanoTime() & 0xFFFFFF) + "-";
+	private final AtomicLong correlationSequence = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong unmatchedReplyCount = new AtomicLong();
+	private volatile long replyTimeout = DEFAULT_REPLY_TIMEOUT;
+	private volatile int maxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+	private volatile XBeeMetricsListener metricsListener = XBeeMetricsListener.NONE;
 
 	/**
 	 * Instantiates a new xbee outbound gateway.
@@ -66,6 +100,83 @@ public class XBeeOutboundGateway extends AbstractReplyProducingMessageHandler {
 		this.xbeeReceiver = xbeeReceiver;
 	}
 
+	@Override
+	protected void doInit() {
+		super.doInit();
+		// binders initialize a gateway both as a handler and as a producer
+		if (xbeeReceiver != null && listening.compareAndSet(false, true)) {
+			xbeeReceiver.addXBeeReceiverListener(replyListener);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (xbeeReceiver != null && listening.compareAndSet(true, false)) {
+			xbeeReceiver.removeXBeeReceiverListener(replyListener);
+		}
+		for (PendingRequest pending : pendingRequests.values()) {
+			pending.future.cancel(false);
+		}
+	}
+
+	/**
+	 * Sets the timeout in milliseconds to wait for a reply.
+	 *
+	 * @param replyTimeout the new reply timeout
+	 */
+	public void setReplyTimeout(long replyTimeout) {
+		Assert.isTrue(replyTimeout > 0, "'replyTimeout' must be positive");
+		this.replyTimeout = replyTimeout;
+	}
+
+	/**
+	 * Sets the max number of concurrent requests waiting for a reply.
+	 *
+	 * @param maxPendingRequests the new max pending requests
+	 */
+	public void setMaxPendingRequests(int maxPendingRequests) {
+		Assert.isTrue(maxPendingRequests > 0, "'maxPendingRequests' must be positive");
+		this.maxPendingRequests = maxPendingRequests;
+	}
+
+	/**
+	 * Sets the metrics listener notified about pending requests, timeouts
+	 * and unmatched replies.
+	 *
+	 * @param metricsListener the new metrics listener
+	 */
+	public void setMetricsListener(XBeeMetricsListener metricsListener) {
+		Assert.notNull(metricsListener, "'metricsListener' must be set");
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Gets the number of requests waiting for a reply.
+	 *
+	 * @return the number of pending requests
+	 */
+	public int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Gets the number of requests which timed out waiting for a reply.
+	 *
+	 * @return the number of timeouts
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * Gets the number of received replies not matching any pending request.
+	 *
+	 * @return the number of unmatched replies
+	 */
+	public long getUnmatchedReplyCount() {
+		return unmatchedReplyCount.get();
+	}
+
 	@Override
 	protected Object handleRequestMessage(Message<?> requestMessage) {
 		log.debug("handleRequestMessage {}", requestMessage);
@@ -80,20 +191,50 @@ public class XBeeOutboundGateway extends AbstractReplyProducingMessageHandler {
 			throw new MessagingException("Request payload not String or byte[], was " + ClassUtils.getUserClass(payload));
 		}
 
-		if (data != null && data.length > 0) {
-			Message<byte[]> message = MessageBuilder.withPayload(data).build();
-			log.debug("Sending message {}", message);
-			xbeeSender.sendMessage(message);
+		if (xbeeReceiver == null) {
+			if (data.length > 0) {
+				xbeeSender.sendMessage(MessageBuilder.withPayload(data).copyHeaders(requestMessage.getHeaders()).build());
+			}
+			return null;
+		}
+
+		// reserve a slot before registering so that concurrent requests can't overshoot
+		if (pendingCount.incrementAndGet() > maxPendingRequests) {
+			pendingCount.decrementAndGet();
+			throw new MessagingException(requestMessage, "Too many pending requests, max is " + maxPendingRequests);
 		}
-		MessageListenableFuture future = new MessageListenableFuture(xbeeReceiver);
+		metricsListener.onRequestPending();
+		String correlationId = correlationPrefix + Long.toHexString(correlationSequence.incrementAndGet());
+		CompletableFuture<Message<byte[]>> future = new CompletableFuture<>();
 		try {
-			return future.get(1, TimeUnit.MINUTES);
+			pendingRequests.put(correlationId, new PendingRequest(future,
+					toAddress(requestMessage.getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS))));
+			if (data.length > 0) {
+				Message<byte[]> message = MessageBuilder.withPayload(data)
+						.copyHeaders(requestMessage.getHeaders())
+						.setHeader(XBeeHeaders.CORRELATION_ID, correlationId)
+						.build();
+				log.debug("Sending message {}", message);
+				xbeeSender.sendMessageAsync(message).whenComplete((result, e) -> {
+					if (e != null) {
+						future.completeExceptionally(e);
+					}
+				});
+			}
+			return future.get(replyTimeout, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new MessagingException(requestMessage, e);
 		} catch (ExecutionException e) {
-			throw new MessagingException(requestMessage, e);
+			throw new MessagingException(requestMessage, e.getCause());
 		} catch (TimeoutException e) {
-			throw new MessagingException(requestMessage, e);
+			timeoutCount.incrementAndGet();
+			metricsListener.onRequestTimeout();
+			throw new MessageTimeoutException(requestMessage, "No reply within " + replyTimeout + "ms", e);
+		} finally {
+			pendingRequests.remove(correlationId);
+			pendingCount.decrementAndGet();
+			metricsListener.onRequestCompleted();
 		}
 	}
 
@@ -102,16 +243,53 @@ public class XBeeOutboundGateway extends AbstractReplyProducingMessageHandler {
 		return xbeeReceiver != null ? "xbee:outbound-gateway" : "xbee:outbound-channel-adapter";
 	}
 
-	private static class MessageListenableFuture extends SettableListenableFuture<Message<byte[]>> {
+	private static XBee64BitAddress toAddress(Object value) {
+		XBee64BitAddress address = null;
+		if (value instanceof XBee64BitAddress) {
+			address = (XBee64BitAddress) value;
+		} else if (value instanceof Long) {
+			address = XBeeUtils.toAddress((Long) value);
+		} else if (value instanceof String) {
+			try {
+				address = new XBee64BitAddress((String) value);
+			} catch (IllegalArgumentException e) {
+				// sender rejects it, nothing to match against
+			}
+		}
+		return XBee64BitAddress.BROADCAST_ADDRESS.equals(address) ? null : address;
+	}
 
-		public MessageListenableFuture(XBeeReceiver xbeeReceiver) {
-			xbeeReceiver.addXBeeReceiverListener(new XBeeReceiverListener() {
+	private class ReplyListener implements XBeeReceiverListener {
+
+		@Override
+		public void onMessage(Message<byte[]> message) {
+			Object correlationId = message.getHeaders().get(XBeeHeaders.CORRELATION_ID);
+			PendingRequest pending = correlationId != null ? pendingRequests.get(correlationId) : null;
+			if (pending == null || !pending.matches(message) || !pending.future.complete(message)) {
+				unmatchedReplyCount.incrementAndGet();
+				metricsListener.onUnmatchedReply();
+				log.debug("No pending request for reply {}", message);
+			}
+		}
+	}
+
+	/**
+	 * Request waiting for a reply, a reply to a unicast request needs to
+	 * come from its destination.
+	 */
+	private static class PendingRequest {
+
+		final CompletableFuture<Message<byte[]>> future;
+		final XBee64BitAddress destination;
+
+		PendingRequest(CompletableFuture<Message<byte[]>> future, XBee64BitAddress destination) {
+			this.future = future;
+			this.destination = destination;
+		}
 
-				@Override
-				public void onMessage(Message<byte[]> message) {
-					set(message);
-				}
-			});
+		boolean matches(Message<byte[]> reply) {
+			return destination == null
+					|| destination.equals(toAddress(reply.getHeaders().get(XBeeHeaders.SOURCE_ADDRESS)));
 		}
 	}
 }
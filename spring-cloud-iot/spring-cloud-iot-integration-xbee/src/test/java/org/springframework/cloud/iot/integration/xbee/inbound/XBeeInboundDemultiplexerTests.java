@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.integration.xbee.inbound;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.iot.integration.xbee.outbound.XBeeOutboundChannelAdapter;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.XBeeReceiver;
+import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Tests for {@link XBeeInboundDemultiplexer}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeInboundDemultiplexerTests {
+
+	@Test
+	public void testRoutesByRoutingId() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		XBeeInboundDemultiplexer demultiplexer = new XBeeInboundDemultiplexer(xbee);
+		QueueChannel temperature = new QueueChannel();
+		QueueChannel humidity = new QueueChannel();
+		createAdapter(demultiplexer, 1, temperature);
+		createAdapter(demultiplexer, 2, humidity);
+		assertThat(xbee.listeners.size(), is(1));
+
+		createOutboundAdapter(xbee, 2).handleMessage(MessageBuilder.withPayload("h1").build());
+		createOutboundAdapter(xbee, 1).handleMessage(MessageBuilder.withPayload("t1").build());
+		createOutboundAdapter(xbee, 3).handleMessage(MessageBuilder.withPayload("x1").build());
+		createOutboundAdapter(xbee, null).handleMessage(MessageBuilder.withPayload("x2").build());
+
+		assertThat(new String((byte[]) temperature.receive(0).getPayload()), is("t1"));
+		assertThat(new String((byte[]) humidity.receive(0).getPayload()), is("h1"));
+		assertThat(temperature.receive(0), nullValue());
+		assertThat(humidity.receive(0), nullValue());
+		assertThat(demultiplexer.getUnroutedCount(), is(2L));
+	}
+
+	@Test
+	public void testDefaultAdapterAndStop() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		XBeeInboundDemultiplexer demultiplexer = new XBeeInboundDemultiplexer(xbee);
+		QueueChannel routed = new QueueChannel();
+		QueueChannel fallback = new QueueChannel();
+		XBeeInboundChannelAdapter adapter = createAdapter(demultiplexer, 1, routed);
+		demultiplexer.setDefaultAdapter(createAdapter(demultiplexer, 2, fallback));
+
+		adapter.stop();
+		createOutboundAdapter(xbee, 1).handleMessage(MessageBuilder.withPayload("t1").build());
+		assertThat(routed.receive(0), nullValue());
+		assertThat(new String((byte[]) fallback.receive(0).getPayload()), is("t1"));
+		assertThat(demultiplexer.getUnroutedCount(), is(0L));
+
+		demultiplexer.destroy();
+		assertThat(xbee.listeners.size(), is(0));
+	}
+
+	@Test
+	public void testUnroutedToErrorChannel() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		XBeeInboundDemultiplexer demultiplexer = new XBeeInboundDemultiplexer(xbee);
+		QueueChannel errors = new QueueChannel();
+		demultiplexer.setErrorChannel(errors);
+		createAdapter(demultiplexer, 1, new QueueChannel());
+
+		createOutboundAdapter(xbee, 3).handleMessage(MessageBuilder.withPayload("x1").build());
+		createOutboundAdapter(xbee, null).handleMessage(MessageBuilder.withPayload("x2").build());
+
+		Message<?> error = errors.receive(0);
+		assertThat(error.getPayload(), instanceOf(MessageDeliveryException.class));
+		Message<?> failed = ((MessageDeliveryException) error.getPayload()).getFailedMessage();
+		assertThat(new String((byte[]) failed.getPayload()), is("x1"));
+		assertThat(errors.receive(0), notNullValue());
+		assertThat(demultiplexer.getUnroutedCount(), is(2L));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testDuplicateRoutingId() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		XBeeInboundDemultiplexer demultiplexer = new XBeeInboundDemultiplexer(xbee);
+		createAdapter(demultiplexer, 1, new QueueChannel());
+		createAdapter(demultiplexer, 1, new QueueChannel());
+	}
+
+	private static XBeeInboundChannelAdapter createAdapter(XBeeInboundDemultiplexer demultiplexer, int routingId,
+			QueueChannel channel) {
+		XBeeInboundChannelAdapter adapter = new XBeeInboundChannelAdapter(demultiplexer, routingId);
+		adapter.setOutputChannel(channel);
+		adapter.setBeanFactory(new DefaultListableBeanFactory());
+		adapter.afterPropertiesSet();
+		adapter.start();
+		return adapter;
+	}
+
+	private static XBeeOutboundChannelAdapter createOutboundAdapter(FakeXBee xbee, Integer routingId) throws Exception {
+		XBeeOutboundChannelAdapter adapter = new XBeeOutboundChannelAdapter(xbee);
+		adapter.setRoutingId(routingId);
+		adapter.setBeanFactory(new DefaultListableBeanFactory());
+		adapter.afterPropertiesSet();
+		return adapter;
+	}
+
+	private static class FakeXBee implements XBeeSender, XBeeReceiver {
+
+		final List<XBeeReceiverListener> listeners = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void sendMessage(Message<byte[]> message) {
+			// loop back as if received from a remote device
+			Message<byte[]> received = MessageBuilder.fromMessage(message)
+					.setHeader(XBeeHeaders.SOURCE_ADDRESS, "0000000000000001")
+					.build();
+			for (XBeeReceiverListener listener : listeners) {
+				listener.onMessage(received);
+			}
+		}
+
+		@Override
+		public void addXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.remove(listener);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.integration.xbee.inbound;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.XBeeReceiver;
+import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
+
+/**
+ * Tests for {@link XBeeInboundGateway}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeInboundGatewayTests {
+
+	@Test
+	public void testSyncReplyToOriginator() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		DirectChannel requests = new DirectChannel();
+		requests.subscribe(m -> ((MessageChannel) m.getHeaders().getReplyChannel())
+				.send(MessageBuilder.withPayload("reply").build()));
+		XBeeInboundGateway gateway = new XBeeInboundGateway(xbee, xbee);
+		gateway.setRequestChannel(requests);
+		gateway.afterPropertiesSet();
+		XBee64BitAddress source = new XBee64BitAddress("0013A20040A1B2C3");
+
+		xbee.receive("request", source, "c1");
+
+		assertThat(xbee.sent.size(), is(1));
+		assertThat(new String(xbee.sent.get(0).getPayload()), is("reply"));
+		assertThat(xbee.sent.get(0).getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), is(source));
+		assertThat(xbee.sent.get(0).getHeaders().get(XBeeHeaders.CORRELATION_ID), is("c1"));
+	}
+
+	@Test
+	public void testSyncReplyExplicitlyAddressed() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		DirectChannel requests = new DirectChannel();
+		requests.subscribe(m -> ((MessageChannel) m.getHeaders().getReplyChannel())
+				.send(MessageBuilder.withPayload("reply")
+						.setHeader(XBeeHeaders.DESTINATION_ADDRESS, "0013A20040A1B2C4")
+						.build()));
+		XBeeInboundGateway gateway = new XBeeInboundGateway(xbee, xbee);
+		gateway.setRequestChannel(requests);
+		gateway.afterPropertiesSet();
+
+		xbee.receive("request", new XBee64BitAddress("0013A20040A1B2C3"), "c1");
+
+		assertThat(xbee.sent.size(), is(1));
+		assertThat(xbee.sent.get(0).getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), is("0013A20040A1B2C4"));
+	}
+
+	@Test
+	public void testAsyncRepliesOutOfOrder() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		QueueChannel requests = new QueueChannel();
+		XBeeInboundGateway gateway = createGateway(xbee, requests, 10);
+
+		for (int i = 0; i < 3; i++) {
+			xbee.receive("request" + i, "000000000000000" + i, "c" + i);
+		}
+		assertThat(gateway.getInFlightRequestCount(), is(3));
+
+		List<Message<?>> received = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			received.add(requests.receive(0));
+		}
+		for (int i = 2; i >= 0; i--) {
+			Message<?> request = received.get(i);
+			MessageChannel replyChannel = (MessageChannel) request.getHeaders().getReplyChannel();
+			replyChannel.send(MessageBuilder.withPayload("reply" + i).build());
+		}
+
+		assertThat(gateway.getInFlightRequestCount(), is(0));
+		assertThat(xbee.sent.size(), is(3));
+		for (int i = 0; i < 3; i++) {
+			Message<byte[]> reply = xbee.sent.get(i);
+			int index = 2 - i;
+			assertThat(new String(reply.getPayload()), is("reply" + index));
+			assertThat(reply.getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), is("000000000000000" + index));
+			assertThat(reply.getHeaders().get(XBeeHeaders.CORRELATION_ID), is("c" + index));
+		}
+	}
+
+	@Test
+	public void testAsyncMaxInFlightRequests() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		QueueChannel requests = new QueueChannel();
+		XBeeInboundGateway gateway = createGateway(xbee, requests, 2);
+
+		for (int i = 0; i < 3; i++) {
+			xbee.receive("request" + i, "000000000000000" + i, "c" + i);
+		}
+		assertThat(gateway.getInFlightRequestCount(), is(2));
+		assertThat(gateway.getRejectedRequestCount(), is(1L));
+		assertThat(requests.getQueueSize(), is(2));
+
+		Message<?> request = requests.receive(0);
+		((MessageChannel) request.getHeaders().getReplyChannel()).send(MessageBuilder.withPayload("reply").build());
+		xbee.receive("request3", "0000000000000003", "c3");
+		assertThat(gateway.getInFlightRequestCount(), is(2));
+		assertThat(gateway.getRejectedRequestCount(), is(1L));
+	}
+
+	@Test
+	public void testAsyncReplyMatchedByCorrelationId() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		QueueChannel requests = new QueueChannel();
+		DirectChannel replies = new DirectChannel();
+		XBeeInboundGateway gateway = createGateway(xbee, requests, 10);
+		gateway.setReplyChannel(replies);
+
+		xbee.receive("request", "0000000000000001", "c1");
+		xbee.receive("request", "0000000000000002", "c1");
+		assertThat(requests.getQueueSize(), is(2));
+
+		// reply without reply channel header sent into a configured reply channel
+		replies.send(MessageBuilder.withPayload("reply")
+				.setHeader(XBeeHeaders.SOURCE_ADDRESS, "0000000000000002")
+				.setHeader(XBeeHeaders.CORRELATION_ID, "c1")
+				.build());
+		replies.send(MessageBuilder.withPayload("reply")
+				.setHeader(XBeeHeaders.SOURCE_ADDRESS, "0000000000000003")
+				.setHeader(XBeeHeaders.CORRELATION_ID, "c1")
+				.build());
+
+		assertThat(xbee.sent.size(), is(1));
+		assertThat(xbee.sent.get(0).getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), is("0000000000000002"));
+		assertThat(gateway.getInFlightRequestCount(), is(1));
+		assertThat(gateway.getUnmatchedReplyCount(), is(1L));
+	}
+
+	@Test
+	public void testAsyncErrorReleasesRequest() throws Exception {
+		FakeXBee xbee = new FakeXBee();
+		DirectChannel requests = new DirectChannel();
+		requests.subscribe(m -> {
+			throw new IllegalStateException("backend down");
+		});
+		XBeeInboundGateway gateway = createGateway(xbee, requests, 10);
+
+		xbee.receive("request", "0000000000000001", "c1");
+		assertThat(gateway.getInFlightRequestCount(), is(0));
+		assertThat(xbee.sent.size(), is(0));
+	}
+
+	private static XBeeInboundGateway createGateway(FakeXBee xbee, MessageChannel requests, int maxInFlight)
+			throws Exception {
+		XBeeInboundGateway gateway = new XBeeInboundGateway(xbee, xbee);
+		gateway.setRequestChannel(requests);
+		gateway.setAsync(true);
+		gateway.setMaxInFlightRequests(maxInFlight);
+		gateway.afterPropertiesSet();
+		return gateway;
+	}
+
+	private static class FakeXBee implements XBeeSender, XBeeReceiver {
+
+		final List<XBeeReceiverListener> listeners = new CopyOnWriteArrayList<>();
+		final List<Message<byte[]>> sent = new CopyOnWriteArrayList<>();
+
+		void receive(String payload, Object sourceAddress, String correlationId) {
+			Message<byte[]> message = MessageBuilder.withPayload(payload.getBytes())
+					.setHeader(XBeeHeaders.SOURCE_ADDRESS, sourceAddress)
+					.setHeader(XBeeHeaders.CORRELATION_ID, correlationId)
+					.build();
+			for (XBeeReceiverListener listener : listeners) {
+				listener.onMessage(message);
+			}
+		}
+
+		@Override
+		public void sendMessage(Message<byte[]> message) {
+			sent.add(message);
+		}
+
+		@Override
+		public void addXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.remove(listener);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.integration.xbee.outbound;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
+
+/**
+ * Tests for {@link XBeeOutboundChannelAdapter}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeOutboundChannelAdapterTests {
+
+	@Test
+	public void testUnicastToDestinationAddress() throws Exception {
+		RecordingXBeeSender sender = new RecordingXBeeSender();
+		XBeeOutboundChannelAdapter adapter = new XBeeOutboundChannelAdapter(sender);
+		XBee64BitAddress address = new XBee64BitAddress("0013A20040A1B2C3");
+
+		adapter.handleMessage(MessageBuilder.withPayload("hello")
+				.setHeader(XBeeHeaders.DESTINATION_ADDRESS, address)
+				.build());
+
+		assertThat(sender.sent.size(), is(1));
+		assertThat(new String(sender.sent.get(0).getPayload()), is("hello"));
+		assertThat(sender.sent.get(0).getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), is(address));
+	}
+
+	@Test
+	public void testBroadcastWithoutDestinationAddress() throws Exception {
+		RecordingXBeeSender sender = new RecordingXBeeSender();
+		XBeeOutboundChannelAdapter adapter = new XBeeOutboundChannelAdapter(sender);
+
+		adapter.handleMessage(MessageBuilder.withPayload("hello").build());
+
+		assertThat(sender.sent.size(), is(1));
+		assertThat(sender.sent.get(0).getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS), nullValue());
+	}
+
+	private static class RecordingXBeeSender implements XBeeSender {
+
+		final List<Message<byte[]>> sent = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void sendMessage(Message<byte[]> message) {
+			sent.add(message);
+		}
+	}
+}
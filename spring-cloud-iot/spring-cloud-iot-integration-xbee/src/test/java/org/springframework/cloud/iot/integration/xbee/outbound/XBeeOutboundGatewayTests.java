@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.integration.xbee.outbound;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.XBeeReceiver;
+import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
+import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.integration.MessageTimeoutException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
+
+/**
+ * Tests for {@link XBeeOutboundGateway}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeOutboundGatewayTests {
+
+	@Test
+	public void testConcurrentRequestsGetOwnReplies() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, true);
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> results = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				String request = "request" + i;
+				results.add(executor.submit(() -> gateway.handleRequestMessage(MessageBuilder.withPayload(request).build())));
+			}
+			for (int i = 0; i < 32; i++) {
+				Message<?> reply = (Message<?>) results.get(i).get(10, TimeUnit.SECONDS);
+				assertThat(new String((byte[]) reply.getPayload()), is("reply-request" + i));
+			}
+			assertThat(gateway.getPendingRequestCount(), is(0));
+			assertThat(gateway.getUnmatchedReplyCount(), is(0L));
+		} finally {
+			executor.shutdownNow();
+			gateway.destroy();
+		}
+		assertThat(xbee.listeners.size(), is(0));
+	}
+
+	@Test
+	public void testReplyWithoutCorrelationIdDropped() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, false);
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		gateway.setReplyTimeout(200);
+		try {
+			gateway.handleRequestMessage(MessageBuilder.withPayload("hi").build());
+			throw new AssertionError("Expected timeout");
+		} catch (MessageTimeoutException e) {
+		}
+		assertThat(gateway.getUnmatchedReplyCount(), is(1L));
+		assertThat(gateway.getTimeoutCount(), is(1L));
+	}
+
+	@Test
+	public void testUnicastReplyFromDestination() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, true);
+		xbee.sourceAddress = "0013A20040A1B2C3";
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		Message<?> reply = (Message<?>) gateway.handleRequestMessage(MessageBuilder.withPayload("hi")
+				.setHeader(XBeeHeaders.DESTINATION_ADDRESS, new XBee64BitAddress("0013A20040A1B2C3"))
+				.build());
+		assertThat(new String((byte[]) reply.getPayload()), is("reply-hi"));
+		assertThat(gateway.getUnmatchedReplyCount(), is(0L));
+	}
+
+	@Test
+	public void testUnicastReplyFromOtherSourceDropped() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, true);
+		xbee.sourceAddress = "0013A20040A1B2C4";
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		gateway.setReplyTimeout(200);
+		try {
+			gateway.handleRequestMessage(MessageBuilder.withPayload("hi")
+					.setHeader(XBeeHeaders.DESTINATION_ADDRESS, "0013A20040A1B2C3")
+					.build());
+			throw new AssertionError("Expected timeout");
+		} catch (MessageTimeoutException e) {
+		}
+		assertThat(gateway.getUnmatchedReplyCount(), is(1L));
+	}
+
+	@Test
+	public void testMaxPendingRequests() throws Exception {
+		EchoXBee xbee = new EchoXBee(false, true);
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		gateway.setMaxPendingRequests(4);
+		gateway.setReplyTimeout(500);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger rejected = new AtomicInteger();
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					try {
+						gateway.handleRequestMessage(MessageBuilder.withPayload("hi").build());
+					} catch (MessageTimeoutException e) {
+					} catch (MessagingException e) {
+						rejected.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> result : results) {
+				result.get(10, TimeUnit.SECONDS);
+			}
+			assertThat(rejected.get(), is(12));
+			assertThat(gateway.getTimeoutCount(), is(4L));
+			assertThat(gateway.getPendingRequestCount(), is(0));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		EchoXBee xbee = new EchoXBee(false, true);
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		gateway.setReplyTimeout(50);
+		try {
+			gateway.handleRequestMessage(MessageBuilder.withPayload("hi").build());
+			throw new AssertionError("Expected timeout");
+		} catch (MessageTimeoutException e) {
+		}
+		assertThat(gateway.getTimeoutCount(), is(1L));
+		assertThat(gateway.getPendingRequestCount(), is(0));
+	}
+
+	@Test
+	public void testListenerRegisteredOnceWhenInitialized() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, true);
+		XBeeOutboundGateway gateway = new XBeeOutboundGateway(xbee, xbee);
+		gateway.setBeanFactory(new DefaultListableBeanFactory());
+		assertThat(xbee.listeners.size(), is(0));
+		gateway.afterPropertiesSet();
+		gateway.afterPropertiesSet();
+		assertThat(xbee.listeners.size(), is(1));
+		gateway.destroy();
+		assertThat(xbee.listeners.size(), is(0));
+	}
+
+	@Test
+	public void testMetricsListenerNotified() throws Exception {
+		EchoXBee xbee = new EchoXBee(true, false);
+		XBeeOutboundGateway gateway = createGateway(xbee);
+		AtomicInteger pending = new AtomicInteger();
+		AtomicInteger timeouts = new AtomicInteger();
+		AtomicInteger unmatched = new AtomicInteger();
+		gateway.setMetricsListener(new XBeeMetricsListener() {
+
+			@Override
+			public void onRequestPending() {
+				pending.incrementAndGet();
+			}
+
+			@Override
+			public void onRequestCompleted() {
+				pending.decrementAndGet();
+			}
+
+			@Override
+			public void onRequestTimeout() {
+				timeouts.incrementAndGet();
+			}
+
+			@Override
+			public void onUnmatchedReply() {
+				unmatched.incrementAndGet();
+			}
+		});
+		gateway.setReplyTimeout(200);
+		try {
+			gateway.handleRequestMessage(MessageBuilder.withPayload("hi").build());
+			throw new AssertionError("Expected timeout");
+		} catch (MessageTimeoutException e) {
+		}
+		assertThat(pending.get(), is(0));
+		assertThat(timeouts.get(), is(1));
+		assertThat(unmatched.get(), is(1));
+	}
+
+	private static XBeeOutboundGateway createGateway(EchoXBee xbee) {
+		XBeeOutboundGateway gateway = new XBeeOutboundGateway(xbee, xbee);
+		gateway.setBeanFactory(new DefaultListableBeanFactory());
+		gateway.afterPropertiesSet();
+		return gateway;
+	}
+
+	private static class EchoXBee implements XBeeSender, XBeeReceiver {
+
+		final List<XBeeReceiverListener> listeners = new CopyOnWriteArrayList<>();
+		final boolean reply;
+		final boolean echoCorrelationId;
+		volatile Object sourceAddress;
+
+		EchoXBee(boolean reply, boolean echoCorrelationId) {
+			this.reply = reply;
+			this.echoCorrelationId = echoCorrelationId;
+		}
+
+		@Override
+		public void sendMessage(Message<byte[]> message) {
+			sendMessageAsync(message);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendMessageAsync(Message<byte[]> message) {
+			if (reply) {
+				// reply from another thread like a radio would
+				CompletableFuture.runAsync(() -> {
+					MessageBuilder<byte[]> builder = MessageBuilder
+							.withPayload(("reply-" + new String(message.getPayload())).getBytes());
+					if (sourceAddress != null) {
+						builder.setHeader(XBeeHeaders.SOURCE_ADDRESS, sourceAddress);
+					}
+					if (echoCorrelationId) {
+						builder.setHeader(XBeeHeaders.CORRELATION_ID, message.getHeaders().get(XBeeHeaders.CORRELATION_ID));
+					}
+					Message<byte[]> replyMessage = builder.build();
+					for (XBeeReceiverListener listener : listeners) {
+						listener.onMessage(replyMessage);
+					}
+				});
+			}
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void addXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeXBeeReceiverListener(XBeeReceiverListener listener) {
+			listeners.remove(listener);
+		}
+	}
+}
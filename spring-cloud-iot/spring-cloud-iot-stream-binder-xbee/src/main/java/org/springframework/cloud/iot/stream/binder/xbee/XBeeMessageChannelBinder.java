@@ -18,7 +18,11 @@ package org.springframework.cloud.iot.stream.binder.xbee;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.iot.integration.xbee.inbound.XBeeInboundChannelAdapter;
+import org.springframework.cloud.iot.integration.xbee.inbound.XBeeInboundDemultiplexer;
 import org.springframework.cloud.iot.integration.xbee.inbound.XBeeInboundGateway;
+import org.springframework.cloud.iot.integration.xbee.outbound.XBeeOutboundChannelAdapter;
 import org.springframework.cloud.iot.integration.xbee.outbound.XBeeOutboundGateway;
 import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeBinderConfigurationProperties;
 import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeBinderConfigurationProperties.Mode;
@@ -27,6 +31,7 @@ import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeExtendedB
 import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeProducerProperties;
 import org.springframework.cloud.iot.xbee.XBeeReceiver;
 import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
 import org.springframework.cloud.stream.binder.AbstractMessageChannelBinder;
 import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
 import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
@@ -34,6 +39,7 @@ import org.springframework.cloud.stream.binder.ExtendedPropertiesBinder;
 import org.springframework.cloud.stream.provisioning.ConsumerDestination;
 import org.springframework.cloud.stream.provisioning.ProducerDestination;
 import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.core.MessageProducer;
 import org.springframework.integration.handler.BridgeHandler;
 import org.springframework.messaging.MessageChannel;
@@ -42,13 +48,19 @@ import org.springframework.util.Assert;
 
 /**
  * Binder implementation for XBee.
+ * <p>
+ * Without a gateway mode every destination gets its own routing id carried in
+ * a start frame, and received messages are demultiplexed to consumer
+ * bindings by it. Gateway modes don't route by destination, one gateway is
+ * shared by all bindings and it uses fixed {@code iotGatewayServer},
+ * {@code iotGatewayServerReply} and {@code iotGatewayClientReply} channels.
  *
  * @author Janne Valkealahti
  *
  */
 public class XBeeMessageChannelBinder extends
 		AbstractMessageChannelBinder<ExtendedConsumerProperties<XBeeConsumerProperties>, ExtendedProducerProperties<XBeeProducerProperties>, ProvisioningProvider<ExtendedConsumerProperties<XBeeConsumerProperties>, ExtendedProducerProperties<XBeeProducerProperties>>>
-		implements BeanFactoryAware, ExtendedPropertiesBinder<MessageChannel, XBeeConsumerProperties, XBeeProducerProperties> {
+		implements BeanFactoryAware, DisposableBean, ExtendedPropertiesBinder<MessageChannel, XBeeConsumerProperties, XBeeProducerProperties> {
 
 	private final XBeeSender xbeeSender;
 	private final XBeeReceiver xbeeReceiver;
@@ -57,6 +69,8 @@ public class XBeeMessageChannelBinder extends
 	private MessageProducer messageProducer = null;
 	private XBeeExtendedBindingProperties extendedBindingProperties = new XBeeExtendedBindingProperties();
 	private XBeeBinderConfigurationProperties configurationProperties;
+	private XBeeInboundDemultiplexer demultiplexer;
+	private XBeeMetricsListener metricsListener;
 
 	/**
 	 * Instantiates a new XBee message channel binder.
@@ -81,6 +95,12 @@ public class XBeeMessageChannelBinder extends
 			ExtendedProducerProperties<XBeeProducerProperties> producerProperties, MessageChannel errorChannel)
 			throws Exception {
 		logger.info("Creating producer messagehandler for XBee");
+		if (configurationProperties.getMode() == null) {
+			XBeeOutboundChannelAdapter adapter = new XBeeOutboundChannelAdapter(xbeeSender);
+			adapter.setBeanFactory(beanFactory);
+			adapter.setRoutingId(resolveRoutingId(producerProperties.getExtension().getRoutingId(), destination.getName()));
+			return adapter;
+		}
 		getOrBuildGateway();
 		return messageHandler;
 	}
@@ -89,6 +109,12 @@ public class XBeeMessageChannelBinder extends
 	protected MessageProducer createConsumerEndpoint(ConsumerDestination destination, String group,
 			ExtendedConsumerProperties<XBeeConsumerProperties> consumerProperties) throws Exception {
 		logger.info("Creating consumer endpoint for XBee");
+		if (configurationProperties.getMode() == null) {
+			XBeeInboundChannelAdapter adapter = new XBeeInboundChannelAdapter(getOrBuildDemultiplexer(),
+					resolveRoutingId(consumerProperties.getExtension().getRoutingId(), destination.getName()));
+			adapter.setBeanFactory(beanFactory);
+			return adapter;
+		}
 		getOrBuildGateway();
 		return messageProducer;
 	}
@@ -116,16 +142,76 @@ public class XBeeMessageChannelBinder extends
 		this.extendedBindingProperties = XBeeExtendedBindingProperties;
 	}
 
-	private void getOrBuildGateway() {
+	/**
+	 * Sets the metrics listener given to an outbound gateway.
+	 *
+	 * @param metricsListener the new metrics listener
+	 */
+	public void setMetricsListener(XBeeMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		synchronized (this) {
+			if (demultiplexer != null) {
+				demultiplexer.destroy();
+				demultiplexer = null;
+			}
+			if (messageHandler instanceof DisposableBean) {
+				((DisposableBean) messageHandler).destroy();
+			}
+		}
+	}
+
+	private synchronized XBeeInboundDemultiplexer getOrBuildDemultiplexer() {
+		if (demultiplexer == null) {
+			demultiplexer = new XBeeInboundDemultiplexer(xbeeReceiver);
+			if (beanFactory != null && beanFactory.containsBean(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME)) {
+				// messages for destinations not bound here are surfaced instead of silently dropped
+				demultiplexer.setErrorChannel(
+						beanFactory.getBean(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME, MessageChannel.class));
+			}
+		}
+		return demultiplexer;
+	}
+
+	/**
+	 * Resolve a routing id either from a configured value or from a 16-bit
+	 * hash of a destination name, thus producers and consumers agree on it
+	 * without configuration while fitting into two bytes of a start frame.
+	 */
+	static int resolveRoutingId(Integer routingId, String destinationName) {
+		if (routingId != null) {
+			return routingId;
+		}
+		Assert.notNull(destinationName, "Either routing id or destination name must be set");
+		return destinationName.hashCode() & 0xFFFF;
+	}
+
+	private synchronized void getOrBuildGateway() {
+		// producer and consumer bindings share a same gateway
+		if (messageHandler != null) {
+			return;
+		}
 		if (configurationProperties.getMode() == Mode.OUTBOUND_GATEWAY) {
 			XBeeOutboundGateway gateway = new XBeeOutboundGateway(xbeeSender, xbeeReceiver);
 			gateway.setBeanFactory(beanFactory);
+			if (metricsListener != null) {
+				gateway.setMetricsListener(metricsListener);
+			}
 			gateway.setOutputChannelName("iotGatewayClientReply");
 			messageHandler = gateway;
 			messageProducer = gateway;
 		} else if (configurationProperties.getMode() == Mode.INBOUND_GATEWAY) {
 			XBeeInboundGateway xbeeInboundGateway = new XBeeInboundGateway(xbeeReceiver, xbeeSender);
 			xbeeInboundGateway.setBeanFactory(beanFactory);
+			if (Boolean.TRUE.equals(configurationProperties.getAsync())) {
+				xbeeInboundGateway.setAsync(true);
+			}
+			if (configurationProperties.getMaxInFlightRequests() != null) {
+				xbeeInboundGateway.setMaxInFlightRequests(configurationProperties.getMaxInFlightRequests());
+			}
 			xbeeInboundGateway.afterPropertiesSet();
 			xbeeInboundGateway.start();
 			BridgeHandler delegate = new BridgeHandler();
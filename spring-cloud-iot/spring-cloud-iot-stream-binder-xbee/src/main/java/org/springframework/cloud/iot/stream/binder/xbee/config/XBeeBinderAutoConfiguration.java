@@ -15,6 +15,7 @@
  */
 package org.springframework.cloud.iot.stream.binder.xbee.config;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -26,6 +27,7 @@ import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeExtendedB
 import org.springframework.cloud.iot.stream.binder.xbee.properties.XBeeProducerProperties;
 import org.springframework.cloud.iot.xbee.XBeeReceiver;
 import org.springframework.cloud.iot.xbee.XBeeSender;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
 import org.springframework.cloud.stream.binder.Binder;
 import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
 import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
@@ -53,10 +55,11 @@ public class XBeeBinderAutoConfiguration {
 	@Bean
 	public XBeeMessageChannelBinder xbeeMessageChannelBinder(
 			ProvisioningProvider<ExtendedConsumerProperties<XBeeConsumerProperties>, ExtendedProducerProperties<XBeeProducerProperties>> provisioningProvider,
-			XBeeSender xbeeSender, XBeeReceiver xbeeReceiver) {
+			XBeeSender xbeeSender, XBeeReceiver xbeeReceiver, ObjectProvider<XBeeMetricsListener> metricsListener) {
 		XBeeMessageChannelBinder xbeeMessageChannelBinder = new XBeeMessageChannelBinder(provisioningProvider, xbeeSender, xbeeReceiver);
 		xbeeMessageChannelBinder.setExtendedBindingProperties(xbeeExtendedBindingProperties);
 		xbeeMessageChannelBinder.setBinderProperties(configurationProperties);
+		xbeeMessageChannelBinder.setMetricsListener(metricsListener.getIfUnique());
 		return xbeeMessageChannelBinder;
 	}
 }
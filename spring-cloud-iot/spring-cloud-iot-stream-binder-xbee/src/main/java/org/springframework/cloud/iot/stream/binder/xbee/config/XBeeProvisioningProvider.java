@@ -43,33 +43,45 @@ public class XBeeProvisioningProvider implements
 	@Override
 	public ProducerDestination provisionProducerDestination(String name,
 			ExtendedProducerProperties<XBeeProducerProperties> properties) throws ProvisioningException {
-		return new XBeeProducerDestination();
+		return new XBeeProducerDestination(name);
 	}
 
 	@Override
 	public ConsumerDestination provisionConsumerDestination(String name, String group,
 			ExtendedConsumerProperties<XBeeConsumerProperties> properties) throws ProvisioningException {
-		return new XBeeConsumerDestination();
+		return new XBeeConsumerDestination(name);
 	}
 
 	private final static class XBeeProducerDestination implements ProducerDestination {
 
+		private final String name;
+
+		XBeeProducerDestination(String name) {
+			this.name = name;
+		}
+
 		@Override
 		public String getName() {
-			return null;
+			return name;
 		}
 
 		@Override
 		public String getNameForPartition(int partition) {
-			return null;
+			return name;
 		}
 	}
 
 	private final static class XBeeConsumerDestination implements ConsumerDestination {
 
+		private final String name;
+
+		XBeeConsumerDestination(String name) {
+			this.name = name;
+		}
+
 		@Override
 		public String getName() {
-			return null;
+			return name;
 		}
 	}
 }
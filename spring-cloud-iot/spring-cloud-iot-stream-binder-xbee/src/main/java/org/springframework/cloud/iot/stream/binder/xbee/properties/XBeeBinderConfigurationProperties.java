@@ -26,8 +26,15 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "spring.cloud.stream.xbee.binder")
 public class XBeeBinderConfigurationProperties {
 
+	/** Gateway mode, all bindings share one gateway and its fixed channels */
 	private Mode mode;
 
+	/** Process inbound gateway requests asynchronously */
+	private Boolean async;
+
+	/** Max number of in-flight inbound gateway requests in async mode */
+	private Integer maxInFlightRequests;
+
 	public Mode getMode() {
 		return mode;
 	}
@@ -36,6 +43,22 @@ public class XBeeBinderConfigurationProperties {
 		this.mode = mode;
 	}
 
+	public Boolean getAsync() {
+		return async;
+	}
+
+	public void setAsync(Boolean async) {
+		this.async = async;
+	}
+
+	public Integer getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	public void setMaxInFlightRequests(Integer maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
 	public static enum Mode {
 		OUTBOUND_GATEWAY,
 		INBOUND_GATEWAY;
@@ -17,4 +17,14 @@ package org.springframework.cloud.iot.stream.binder.xbee.properties;
 
 public class XBeeProducerProperties {
 
+	/** Routing id between 0 and 65535 shared by a producer and consumers of a same destination */
+	private Integer routingId;
+
+	public Integer getRoutingId() {
+		return routingId;
+	}
+
+	public void setRoutingId(Integer routingId) {
+		this.routingId = routingId;
+	}
 }
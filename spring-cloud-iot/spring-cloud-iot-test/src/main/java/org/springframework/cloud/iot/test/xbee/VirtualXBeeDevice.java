@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.test.xbee;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.digi.xbee.api.RemoteXBeeDevice;
+import com.digi.xbee.api.XBeeDevice;
+import com.digi.xbee.api.connection.IConnectionInterface;
+import com.digi.xbee.api.exceptions.OperationNotSupportedException;
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IDataReceiveListener;
+import com.digi.xbee.api.models.XBee64BitAddress;
+import com.digi.xbee.api.models.XBeeMessage;
+
+/**
+ * {@link XBeeDevice} which is a node in a {@link VirtualXBeeNetwork}. Data
+ * sent from this device travels over a virtual network instead of a serial
+ * connection and data sent to it from other nodes is passed to registered
+ * data listeners. Only {@code NP} parameter is supported.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class VirtualXBeeDevice extends XBeeDevice {
+
+	private final VirtualXBeeNetwork network;
+	private final XBee64BitAddress address;
+	private final ScheduledExecutorService executor;
+	private final List<IDataReceiveListener> dataListeners = new CopyOnWriteArrayList<>();
+
+	VirtualXBeeDevice(VirtualXBeeNetwork network, XBee64BitAddress address, ScheduledExecutorService executor) {
+		super(new VirtualConnectionInterface());
+		this.network = network;
+		this.address = address;
+		this.executor = executor;
+	}
+
+	@Override
+	public void open() {
+	}
+
+	@Override
+	public void close() {
+		network.removeNode(this);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+
+	@Override
+	public XBee64BitAddress get64BitAddress() {
+		return address;
+	}
+
+	@Override
+	public byte[] getParameter(String parameter) throws XBeeException {
+		if ("NP".equals(parameter)) {
+			int maxPayload = network.getMaxPayload();
+			return new byte[] { (byte) (maxPayload >> 8), (byte) maxPayload };
+		}
+		throw new OperationNotSupportedException("Parameter " + parameter + " not supported by virtual device");
+	}
+
+	@Override
+	public void addDataListener(IDataReceiveListener listener) {
+		dataListeners.add(listener);
+	}
+
+	@Override
+	public void removeDataListener(IDataReceiveListener listener) {
+		dataListeners.remove(listener);
+	}
+
+	@Override
+	public void sendData(RemoteXBeeDevice remoteXBeeDevice, byte[] data) throws XBeeException {
+		network.unicast(this, remoteXBeeDevice.get64BitAddress(), data);
+	}
+
+	@Override
+	public void sendDataAsync(RemoteXBeeDevice remoteXBeeDevice, byte[] data) throws XBeeException {
+		network.unicast(this, remoteXBeeDevice.get64BitAddress(), data);
+	}
+
+	@Override
+	public void sendBroadcastData(byte[] data) throws XBeeException {
+		network.broadcast(this, data);
+	}
+
+	@Override
+	public String toString() {
+		return "VirtualXBeeDevice [address=" + address + "]";
+	}
+
+	ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+
+	void receive(XBee64BitAddress sourceAddress, byte[] data, boolean broadcast) {
+		XBeeMessage message = new XBeeMessage(new RemoteXBeeDevice(this, sourceAddress), data, broadcast);
+		for (IDataReceiveListener listener : dataListeners) {
+			listener.dataReceived(message);
+		}
+	}
+
+	private static class VirtualConnectionInterface implements IConnectionInterface {
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return null;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return null;
+		}
+
+		@Override
+		public void writeData(byte[] data) {
+		}
+
+		@Override
+		public void writeData(byte[] data, int offset, int length) {
+		}
+
+		@Override
+		public int readData(byte[] data) {
+			return 0;
+		}
+
+		@Override
+		public int readData(byte[] data, int offset, int length) {
+			return 0;
+		}
+	}
+}
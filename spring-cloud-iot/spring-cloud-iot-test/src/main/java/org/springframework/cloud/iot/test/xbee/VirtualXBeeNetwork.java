@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.test.xbee;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.iot.xbee.support.XBeeUtils;
+import org.springframework.util.Assert;
+
+import com.digi.xbee.api.exceptions.TransmitException;
+import com.digi.xbee.api.models.XBee64BitAddress;
+import com.digi.xbee.api.models.XBeeTransmitStatus;
+
+/**
+ * In-memory radio network connecting {@link VirtualXBeeDevice} nodes over a
+ * shared medium. Allows to run {@code XBeeSender} and {@code XBeeReceiver}
+ * implementations like {@code DefaultXBeeComponent} without real hardware.
+ * <p>
+ * Medium is modelled with a bandwidth shared by all nodes, a latency added
+ * to every frame, a random frame loss rate and a max payload size per frame.
+ * Sending a frame blocks until the medium has transmitted it. Broadcast frames
+ * are lost independently per receiving node without any error, unicast frames
+ * are retried like a radio waiting for an acknowledgement and fail with
+ * {@link TransmitException} if all attempts are lost.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class VirtualXBeeNetwork implements DisposableBean {
+
+	public final static int DEFAULT_MAX_PAYLOAD = 84;
+	public final static int DEFAULT_UNICAST_RETRIES = 3;
+	private final static long BASE_ADDRESS = 0x0013A20000000000L;
+	private final Map<Long, VirtualXBeeDevice> nodes = new ConcurrentHashMap<>();
+	private final List<ScheduledExecutorService> executors = new CopyOnWriteArrayList<>();
+	private final Object medium = new Object();
+	private final AtomicLong nodeSequence = new AtomicLong();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong framesDelivered = new AtomicLong();
+	private final AtomicLong framesLost = new AtomicLong();
+	private final Random random;
+	private volatile long bandwidth;
+	private volatile long latency;
+	private volatile double lossRate;
+	private volatile int maxPayload = DEFAULT_MAX_PAYLOAD;
+	private volatile int unicastRetries = DEFAULT_UNICAST_RETRIES;
+	private long mediumFreeAt;
+
+	/**
+	 * Instantiates a new virtual xbee network.
+	 */
+	public VirtualXBeeNetwork() {
+		this(new Random());
+	}
+
+	/**
+	 * Instantiates a new virtual xbee network using given random to decide
+	 * lost frames, use seeded random for repeatable results.
+	 *
+	 * @param random the random
+	 */
+	public VirtualXBeeNetwork(Random random) {
+		Assert.notNull(random, "'random' must be set");
+		this.random = random;
+	}
+
+	@Override
+	public void destroy() {
+		for (ScheduledExecutorService executor : executors) {
+			executor.shutdownNow();
+		}
+		executors.clear();
+		nodes.clear();
+	}
+
+	/**
+	 * Creates a new node with a next free address and joins it to this network.
+	 *
+	 * @return the virtual xbee device
+	 */
+	public VirtualXBeeDevice createNode() {
+		return createNode(XBeeUtils.toAddress(BASE_ADDRESS + nodeSequence.incrementAndGet()));
+	}
+
+	/**
+	 * Creates a new node with a given address and joins it to this network.
+	 *
+	 * @param address the node address
+	 * @return the virtual xbee device
+	 */
+	public VirtualXBeeDevice createNode(XBee64BitAddress address) {
+		Assert.notNull(address, "'address' must be set");
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "virtual-xbee-" + address);
+			thread.setDaemon(true);
+			return thread;
+		});
+		VirtualXBeeDevice device = new VirtualXBeeDevice(this, address, executor);
+		Assert.isNull(nodes.putIfAbsent(XBeeUtils.toLong(address), device), "Node with address " + address + " already exists");
+		executors.add(executor);
+		return device;
+	}
+
+	/**
+	 * Removes a node from this network, frames sent to it are lost afterwards.
+	 *
+	 * @param device the device
+	 */
+	public void removeNode(VirtualXBeeDevice device) {
+		nodes.remove(XBeeUtils.toLong(device.get64BitAddress()), device);
+	}
+
+	/**
+	 * Sets the bandwidth of a shared medium in bytes per second, zero means
+	 * unlimited. Default is unlimited.
+	 *
+	 * @param bandwidth the new bandwidth
+	 */
+	public void setBandwidth(long bandwidth) {
+		Assert.isTrue(bandwidth >= 0, "'bandwidth' must not be negative");
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Sets the latency in milliseconds added to every delivered frame.
+	 * Default is no latency.
+	 *
+	 * @param latency the new latency
+	 */
+	public void setLatency(long latency) {
+		Assert.isTrue(latency >= 0, "'latency' must not be negative");
+		this.latency = latency;
+	}
+
+	/**
+	 * Sets the probability between 0 and 1 of a frame getting lost.
+	 * Default is no loss.
+	 *
+	 * @param lossRate the new loss rate
+	 */
+	public void setLossRate(double lossRate) {
+		Assert.isTrue(lossRate >= 0 && lossRate <= 1, "'lossRate' must be between 0 and 1");
+		this.lossRate = lossRate;
+	}
+
+	/**
+	 * Sets the max payload size of a frame, also reported by nodes as their
+	 * {@code NP} parameter. Defaults to {@link #DEFAULT_MAX_PAYLOAD}.
+	 *
+	 * @param maxPayload the new max payload
+	 */
+	public void setMaxPayload(int maxPayload) {
+		Assert.isTrue(maxPayload > 0, "'maxPayload' must be positive");
+		this.maxPayload = maxPayload;
+	}
+
+	/**
+	 * Gets the max payload size of a frame.
+	 *
+	 * @return the max payload
+	 */
+	public int getMaxPayload() {
+		return maxPayload;
+	}
+
+	/**
+	 * Sets the number of retries for a lost unicast frame. Defaults to
+	 * {@link #DEFAULT_UNICAST_RETRIES}.
+	 *
+	 * @param unicastRetries the new unicast retries
+	 */
+	public void setUnicastRetries(int unicastRetries) {
+		Assert.isTrue(unicastRetries >= 0, "'unicastRetries' must not be negative");
+		this.unicastRetries = unicastRetries;
+	}
+
+	/**
+	 * Gets the number of frames transmitted including unicast retries.
+	 *
+	 * @return the frames sent
+	 */
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	/**
+	 * Gets the number of bytes transmitted including unicast retries.
+	 *
+	 * @return the bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Gets the number of frames delivered to nodes.
+	 *
+	 * @return the frames delivered
+	 */
+	public long getFramesDelivered() {
+		return framesDelivered.get();
+	}
+
+	/**
+	 * Gets the number of frames lost, counted per receiving node.
+	 *
+	 * @return the frames lost
+	 */
+	public long getFramesLost() {
+		return framesLost.get();
+	}
+
+	void broadcast(VirtualXBeeDevice source, byte[] frame) throws TransmitException {
+		checkPayload(frame);
+		// like a real radio, data is taken when sent and caller may reuse its array
+		byte[] data = frame.clone();
+		transmit(data);
+		for (VirtualXBeeDevice node : nodes.values()) {
+			if (node != source) {
+				if (isLost()) {
+					framesLost.incrementAndGet();
+				} else {
+					deliver(source, node, data, true);
+				}
+			}
+		}
+	}
+
+	void unicast(VirtualXBeeDevice source, XBee64BitAddress destination, byte[] frame) throws TransmitException {
+		checkPayload(frame);
+		byte[] data = frame.clone();
+		VirtualXBeeDevice node = nodes.get(XBeeUtils.toLong(destination));
+		if (node == source) {
+			throw new TransmitException(XBeeTransmitStatus.SELF_ADDRESSED);
+		}
+		for (int attempt = 0; attempt <= unicastRetries; attempt++) {
+			transmit(data);
+			if (node != null && !isLost()) {
+				deliver(source, node, data, false);
+				return;
+			}
+			framesLost.incrementAndGet();
+		}
+		throw new TransmitException(XBeeTransmitStatus.NO_ACK);
+	}
+
+	private void checkPayload(byte[] data) throws TransmitException {
+		if (data.length > maxPayload) {
+			throw new TransmitException(XBeeTransmitStatus.PAYLOAD_TOO_LARGE);
+		}
+	}
+
+	private boolean isLost() {
+		double rate = lossRate;
+		if (rate <= 0) {
+			return false;
+		}
+		synchronized (random) {
+			return random.nextDouble() < rate;
+		}
+	}
+
+	private void transmit(byte[] data) throws TransmitException {
+		framesSent.incrementAndGet();
+		bytesSent.addAndGet(data.length);
+		long bandwidth = this.bandwidth;
+		if (bandwidth <= 0) {
+			return;
+		}
+		// reserve air time from a shared medium and wait until it has passed
+		long airTime = TimeUnit.SECONDS.toNanos(data.length) / bandwidth;
+		long done;
+		synchronized (medium) {
+			long now = System.nanoTime();
+			done = Math.max(now, mediumFreeAt) + airTime;
+			mediumFreeAt = done;
+		}
+		long wait;
+		while ((wait = done - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TransmitException("Interrupted while transmitting", e, XBeeTransmitStatus.PURGED);
+			}
+		}
+	}
+
+	private void deliver(VirtualXBeeDevice source, VirtualXBeeDevice node, byte[] data, boolean broadcast) {
+		byte[] copy = data.clone();
+		Runnable task = () -> {
+			framesDelivered.incrementAndGet();
+			node.receive(source.get64BitAddress(), copy, broadcast);
+		};
+		long latency = this.latency;
+		if (latency > 0) {
+			node.getExecutor().schedule(task, latency, TimeUnit.MILLISECONDS);
+		} else {
+			node.getExecutor().execute(task);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.test.xbee;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.cloud.iot.xbee.GroupSendResult;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.support.DefaultXBeeComponent;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.RemoteXBeeDevice;
+import com.digi.xbee.api.exceptions.TransmitException;
+import com.digi.xbee.api.models.XBee64BitAddress;
+import com.digi.xbee.api.models.XBeeMessage;
+import com.digi.xbee.api.models.XBeeTransmitStatus;
+
+/**
+ * Tests for {@link VirtualXBeeNetwork}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class VirtualXBeeNetworkTests {
+
+	private final VirtualXBeeNetwork network = new VirtualXBeeNetwork(new Random(1));
+	private final List<DefaultXBeeComponent> components = new ArrayList<>();
+
+	@After
+	public void clean() throws Exception {
+		for (DefaultXBeeComponent component : components) {
+			component.destroy();
+		}
+		network.destroy();
+	}
+
+	@Test
+	public void testBroadcastAndUnicast() throws Exception {
+		VirtualXBeeDevice node1 = network.createNode();
+		VirtualXBeeDevice node2 = network.createNode();
+		VirtualXBeeDevice node3 = network.createNode();
+		List<XBeeMessage> received2 = new CopyOnWriteArrayList<>();
+		List<XBeeMessage> received3 = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(3);
+		node2.addDataListener(m -> {
+			received2.add(m);
+			latch.countDown();
+		});
+		node3.addDataListener(m -> {
+			received3.add(m);
+			latch.countDown();
+		});
+
+		node1.sendBroadcastData(new byte[] { 1 });
+		node1.sendData(new RemoteXBeeDevice(node1, node3.get64BitAddress()), new byte[] { 2 });
+
+		assertThat(latch.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(received2.size(), is(1));
+		assertThat(received2.get(0).isBroadcast(), is(true));
+		assertThat(received2.get(0).getDevice().get64BitAddress(), is(node1.get64BitAddress()));
+		assertThat(received3.size(), is(2));
+		assertThat(received3.get(1).getData(), is(new byte[] { 2 }));
+		assertThat(received3.get(1).isBroadcast(), is(false));
+	}
+
+	@Test
+	public void testPayloadLimit() throws Exception {
+		network.setMaxPayload(10);
+		VirtualXBeeDevice node1 = network.createNode();
+		network.createNode();
+		try {
+			node1.sendBroadcastData(new byte[11]);
+			throw new AssertionError("Expected TransmitException");
+		} catch (TransmitException e) {
+			assertThat(e.getTransmitStatus(), is(XBeeTransmitStatus.PAYLOAD_TOO_LARGE));
+		}
+		assertThat(node1.getParameter("NP"), is(new byte[] { 0, 10 }));
+	}
+
+	@Test
+	public void testUnicastFailsWhenAllAttemptsLost() throws Exception {
+		network.setLossRate(1);
+		network.setUnicastRetries(2);
+		VirtualXBeeDevice node1 = network.createNode();
+		VirtualXBeeDevice node2 = network.createNode();
+		try {
+			node1.sendData(new RemoteXBeeDevice(node1, node2.get64BitAddress()), new byte[] { 1 });
+			throw new AssertionError("Expected TransmitException");
+		} catch (TransmitException e) {
+			assertThat(e.getTransmitStatus(), is(XBeeTransmitStatus.NO_ACK));
+		}
+		assertThat(network.getFramesSent(), is(3L));
+		assertThat(network.getFramesLost(), is(3L));
+	}
+
+	@Test
+	public void testBandwidthLimitsThroughput() throws Exception {
+		network.setBandwidth(10000);
+		VirtualXBeeDevice node1 = network.createNode();
+		network.createNode();
+		long start = System.nanoTime();
+		for (int i = 0; i < 20; i++) {
+			node1.sendBroadcastData(new byte[50]);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		// 1000 bytes at 10000 bytes per second
+		assertThat(elapsed >= 95, is(true));
+	}
+
+	@Test
+	public void testUnicastSoakWithLoss() throws Exception {
+		network.setLossRate(0.05);
+		network.setLatency(1);
+		DefaultXBeeComponent sender = createComponent();
+		VirtualXBeeDevice receiverNode = network.createNode();
+		DefaultXBeeComponent receiver = createComponent(receiverNode);
+		int count = 2000;
+		ConcurrentHashMap<String, byte[]> received = new ConcurrentHashMap<>();
+		CountDownLatch latch = new CountDownLatch(count);
+		receiver.addXBeeReceiverListener(m -> {
+			received.put(new String(Arrays.copyOf(m.getPayload(), 8)), m.getPayload());
+			latch.countDown();
+		});
+
+		Random random = new Random(2);
+		List<byte[]> payloads = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			byte[] payload = new byte[8 + random.nextInt(600)];
+			random.nextBytes(payload);
+			System.arraycopy(String.format("%08d", i).getBytes(), 0, payload, 0, 8);
+			payloads.add(payload);
+			Message<byte[]> message = MessageBuilder.withPayload(payload)
+					.setHeader(XBeeHeaders.DESTINATION_ADDRESS, receiverNode.get64BitAddress().toString())
+					.build();
+			sender.sendMessageAsync(message);
+		}
+
+		assertThat(latch.await(60, TimeUnit.SECONDS), is(true));
+		for (int i = 0; i < count; i++) {
+			assertThat(received.get(String.format("%08d", i)), is(payloads.get(i)));
+		}
+		assertThat(network.getFramesLost() > 0, is(true));
+	}
+
+	@Test
+	public void testBroadcastSoakToManyNodes() throws Exception {
+		DefaultXBeeComponent sender = createComponent();
+		int nodes = 4;
+		int count = 1000;
+		CountDownLatch latch = new CountDownLatch(nodes * count);
+		for (int i = 0; i < nodes; i++) {
+			createComponent().addXBeeReceiverListener(m -> latch.countDown());
+		}
+		byte[] payload = new byte[300];
+		for (int i = 0; i < count; i++) {
+			sender.sendMessageAsync(MessageBuilder.withPayload(payload).build());
+		}
+		assertThat(latch.await(60, TimeUnit.SECONDS), is(true));
+	}
+
+	@Test
+	public void testGroupSendWithLoss() throws Exception {
+		network.setLossRate(0.3);
+		DefaultXBeeComponent sender = createComponent();
+		int nodes = 20;
+		List<XBee64BitAddress> addresses = new ArrayList<>();
+		Set<String> receivedBy = ConcurrentHashMap.newKeySet();
+		CountDownLatch latch = new CountDownLatch(nodes);
+		for (int i = 0; i < nodes; i++) {
+			VirtualXBeeDevice node = network.createNode();
+			addresses.add(node.get64BitAddress());
+			createComponent(node).addXBeeReceiverListener(m -> {
+				if (receivedBy.add(node.get64BitAddress().toString())) {
+					latch.countDown();
+				}
+			});
+		}
+		XBee64BitAddress unknown = new XBee64BitAddress("0013A200FFFFFFFF");
+		addresses.add(unknown);
+
+		GroupSendResult result = sender
+				.sendGroupMessageAsync(addresses, MessageBuilder.withPayload(new byte[200]).build())
+				.get(60, TimeUnit.SECONDS);
+
+		assertThat(latch.await(60, TimeUnit.SECONDS), is(true));
+		assertThat(result.getDelivered().size(), is(nodes));
+		assertThat(result.getFailures().keySet(), is(Collections.singleton(unknown)));
+		assertThat(result.isSuccess(), is(false));
+		assertThat(result.getRetryCount() >= DefaultXBeeComponent.DEFAULT_GROUP_SEND_RETRIES, is(true));
+	}
+
+	private DefaultXBeeComponent createComponent() throws Exception {
+		return createComponent(network.createNode());
+	}
+
+	private DefaultXBeeComponent createComponent(VirtualXBeeDevice device) throws Exception {
+		DefaultXBeeComponent component = new DefaultXBeeComponent(device);
+		component.afterPropertiesSet();
+		components.add(component);
+		return component;
+	}
+}
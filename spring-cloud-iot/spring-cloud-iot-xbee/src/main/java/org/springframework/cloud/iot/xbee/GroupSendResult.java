@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
+
+/**
+ * Aggregated result of sending one message to a group of remote devices
+ * with {@link XBeeSender#sendGroupMessageAsync(Collection, org.springframework.messaging.Message)}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class GroupSendResult {
+
+	private final Set<XBee64BitAddress> delivered;
+	private final Map<XBee64BitAddress, Throwable> failures;
+	private final int retryCount;
+
+	/**
+	 * Instantiates a new group send result.
+	 *
+	 * @param delivered the addresses message was delivered to
+	 * @param failures the failures keyed by an address
+	 * @param retryCount the number of retried unicasts
+	 */
+	public GroupSendResult(Collection<XBee64BitAddress> delivered, Map<XBee64BitAddress, Throwable> failures,
+			int retryCount) {
+		this.delivered = Collections.unmodifiableSet(new LinkedHashSet<>(delivered));
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+		this.retryCount = retryCount;
+	}
+
+	/**
+	 * Checks if message was delivered to all addresses.
+	 *
+	 * @return true, if there were no failures
+	 */
+	public boolean isSuccess() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * Gets the addresses message was delivered to.
+	 *
+	 * @return the delivered addresses
+	 */
+	public Set<XBee64BitAddress> getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Gets the last failure per address message could not be delivered to.
+	 *
+	 * @return the failures
+	 */
+	public Map<XBee64BitAddress, Throwable> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Gets the number of unicasts which were retried.
+	 *
+	 * @return the retry count
+	 */
+	public int getRetryCount() {
+		return retryCount;
+	}
+
+	@Override
+	public String toString() {
+		return "GroupSendResult [delivered=" + delivered.size() + ", failed=" + failures.keySet() + ", retryCount="
+				+ retryCount + "]";
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee;
+
+/**
+ * XBee headers used in messages.
+ *
+ * @author Janne Valkealahti
+ */
+public abstract class XBeeHeaders {
+
+	private static final String PREFIX = "xbee_";
+
+	/**
+	 * Destination 64-bit address for a sent message as {@code XBee64BitAddress},
+	 * {@code Long} or a hex {@code String}. Message is broadcasted if not set.
+	 */
+	public static final String DESTINATION_ADDRESS = PREFIX + "destinationAddress";
+
+	/** Source 64-bit address of a received message as {@code XBee64BitAddress}. */
+	public static final String SOURCE_ADDRESS = PREFIX + "sourceAddress";
+
+	/**
+	 * Correlation id as {@code String} sent with a request and echoed back with
+	 * its reply.
+	 */
+	public static final String CORRELATION_ID = PREFIX + "correlationId";
+
+	/**
+	 * Routing id as {@code Integer} between 0 and 65535 identifying a logical
+	 * stream a message belongs to when many streams share a same radio. It is
+	 * carried as a two byte start frame field instead of being encoded with
+	 * other headers.
+	 */
+	public static final String ROUTING_ID = PREFIX + "routingId";
+}
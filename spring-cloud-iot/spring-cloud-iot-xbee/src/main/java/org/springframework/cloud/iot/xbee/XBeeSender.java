@@ -15,7 +15,19 @@
  */
 package org.springframework.cloud.iot.xbee;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
 
 /**
  * Higher level abstraction over raw {@code XBee} devices allowing to easier
@@ -29,9 +41,67 @@ import org.springframework.messaging.Message;
 public interface XBeeSender {
 
 	/**
-	 * Send a {@link Message} over the {@code XBee} radio network.
+	 * Send a {@link Message} over the {@code XBee} radio network. Message is
+	 * sent as unicast if it has a {@link XBeeHeaders#DESTINATION_ADDRESS}
+	 * header, otherwise it is broadcasted.
 	 *
 	 * @param message the message to send
 	 */
 	void sendMessage(Message<byte[]> message);
+
+	/**
+	 * Send a {@link Message} over the {@code XBee} radio network without
+	 * waiting it to get sent. Returned future completes when all frames of a
+	 * message have been sent or exceptionally if sending failed.
+	 * <p>
+	 * Default implementation sends a message synchronously.
+	 *
+	 * @param message the message to send
+	 * @return the future completing when message has been sent
+	 */
+	default CompletableFuture<Void> sendMessageAsync(Message<byte[]> message) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			sendMessage(message);
+			future.complete(null);
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Send a same {@link Message} as unicast to a group of remote devices
+	 * without waiting it to get sent. Returned future completes when message
+	 * has been either delivered or failed for every address, and never
+	 * completes exceptionally because of a failing address.
+	 * <p>
+	 * Default implementation sends a message separately to every address
+	 * with {@link #sendMessageAsync(Message)}.
+	 *
+	 * @param addresses the destination addresses
+	 * @param message the message to send
+	 * @return the future completing with an aggregated result
+	 */
+	default CompletableFuture<GroupSendResult> sendGroupMessageAsync(Collection<XBee64BitAddress> addresses,
+			Message<byte[]> message) {
+		Map<XBee64BitAddress, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+		for (XBee64BitAddress address : new LinkedHashSet<>(addresses)) {
+			futures.put(address, sendMessageAsync(
+					MessageBuilder.fromMessage(message).setHeader(XBeeHeaders.DESTINATION_ADDRESS, address).build()));
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).handle((v, e) -> {
+			List<XBee64BitAddress> delivered = new ArrayList<>();
+			Map<XBee64BitAddress, Throwable> failures = new LinkedHashMap<>();
+			for (Map.Entry<XBee64BitAddress, CompletableFuture<Void>> entry : futures.entrySet()) {
+				try {
+					entry.getValue().join();
+					delivered.add(entry.getKey());
+				} catch (CompletionException ce) {
+					failures.put(entry.getKey(), ce.getCause());
+				}
+			}
+			return new GroupSendResult(delivered, failures, 0);
+		});
+	}
 }
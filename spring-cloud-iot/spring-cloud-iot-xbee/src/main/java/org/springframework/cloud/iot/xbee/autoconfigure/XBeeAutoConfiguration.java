@@ -18,13 +18,18 @@ package org.springframework.cloud.iot.xbee.autoconfigure;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.iot.xbee.protocol.BinaryHeaderCodec;
+import org.springframework.cloud.iot.xbee.support.BufferedSerialPortRxTx;
 import org.springframework.cloud.iot.xbee.support.DefaultXBeeComponent;
+import org.springframework.cloud.iot.xbee.support.MessageProtocolSessions;
+import org.springframework.cloud.iot.xbee.support.OrderedDispatcher;
 import org.springframework.cloud.iot.xbee.support.SerialPortRxTx;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.digi.xbee.api.XBeeDevice;
 import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.models.OperatingMode;
 
 /**
  * {@link EnableAutoConfiguration Auto-configuration} for XBee devices.
@@ -43,18 +48,100 @@ public class XBeeAutoConfiguration {
 		if (properties.getBaudRate() != null) {
 			baudRate = properties.getBaudRate();
 		}
-		SerialPortRxTx serialPortRxTx = new SerialPortRxTx(properties.getSerialPort(), baudRate);
+		SerialPortRxTx serialPortRxTx;
+		if (Boolean.FALSE.equals(properties.getDedicatedReader())) {
+			serialPortRxTx = new SerialPortRxTx(properties.getSerialPort(), baudRate);
+		} else {
+			BufferedSerialPortRxTx bufferedSerialPortRxTx = new BufferedSerialPortRxTx(properties.getSerialPort(), baudRate);
+			if (properties.getEscaped() != null) {
+				// configure reader before device starts exchanging frames
+				bufferedSerialPortRxTx.setEscaped(properties.getEscaped());
+			}
+			serialPortRxTx = bufferedSerialPortRxTx;
+		}
 		XBeeDevice device = new XBeeDevice(serialPortRxTx);
 		if (properties.getReceiveTimeout() != null) {
 			device.setReceiveTimeout(properties.getReceiveTimeout());
 		}
 		device.open();
+		if (serialPortRxTx instanceof BufferedSerialPortRxTx && properties.getEscaped() == null) {
+			((BufferedSerialPortRxTx) serialPortRxTx).setEscaped(device.getOperatingMode() == OperatingMode.API_ESCAPE);
+		}
 		return device;
 	}
 
 	@Bean
 	@ConditionalOnProperty("spring.cloud.iot.xbee.serialPort")
-	public DefaultXBeeComponent defaultXBeeComponent(XBeeDevice xbeeDevice) {
-		return new DefaultXBeeComponent(xbeeDevice);
+	public DefaultXBeeComponent defaultXBeeComponent(XBeeDevice xbeeDevice, XBeeConfigurationProperties properties) {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		if (properties.getSessionTimeout() != null) {
+			sessions.setSessionTimeout(properties.getSessionTimeout());
+		}
+		if (properties.getMaxSessionsPerDevice() != null) {
+			sessions.setMaxSessionsPerDevice(properties.getMaxSessionsPerDevice());
+		}
+		if (Boolean.TRUE.equals(properties.getBinaryHeaders())) {
+			sessions.setHeaderCodec(new BinaryHeaderCodec());
+		}
+		if (properties.getCompressionThreshold() != null) {
+			sessions.setCompressionThreshold(properties.getCompressionThreshold());
+		}
+		if (properties.getNackTimeout() != null) {
+			sessions.setNackTimeout(properties.getNackTimeout());
+		}
+		if (properties.getMaxNacks() != null) {
+			sessions.setMaxNacks(properties.getMaxNacks());
+		}
+		if (properties.getRetransmitBufferSize() != null) {
+			sessions.setRetransmitBufferSize(properties.getRetransmitBufferSize());
+		}
+		if (properties.getDuplicateWindowSize() != null) {
+			sessions.setDuplicateWindowSize(properties.getDuplicateWindowSize());
+		}
+		if (properties.getDuplicateWindow() != null) {
+			sessions.setDuplicateWindow(properties.getDuplicateWindow());
+		}
+		if (properties.getMaxMessageSize() != null) {
+			sessions.setMaxMessageSize(properties.getMaxMessageSize());
+		}
+		if (Boolean.TRUE.equals(properties.getSendBootId())) {
+			sessions.setSendBootId(true);
+		}
+		int sendQueueCapacity = DefaultXBeeComponent.DEFAULT_SEND_QUEUE_CAPACITY;
+		if (properties.getSendQueueCapacity() != null) {
+			sendQueueCapacity = properties.getSendQueueCapacity();
+		}
+		DefaultXBeeComponent component = new DefaultXBeeComponent(xbeeDevice, sessions, sendQueueCapacity);
+		if (properties.getSendOverflowPolicy() != null) {
+			component.setOverflowPolicy(properties.getSendOverflowPolicy());
+		}
+		if (properties.getFrameSize() != null) {
+			component.setFrameSize(properties.getFrameSize());
+		}
+		if (properties.getGroupSendWindow() != null) {
+			component.setGroupSendWindow(properties.getGroupSendWindow());
+		}
+		if (properties.getGroupSendRetries() != null) {
+			component.setGroupSendRetries(properties.getGroupSendRetries());
+		}
+		if (properties.getLinkQualityInterval() != null) {
+			component.setLinkQualityInterval(properties.getLinkQualityInterval());
+		}
+		int receiveDispatchStripes = OrderedDispatcher.DEFAULT_STRIPES;
+		if (properties.getReceiveDispatchStripes() != null) {
+			receiveDispatchStripes = properties.getReceiveDispatchStripes();
+		}
+		if (receiveDispatchStripes > 0) {
+			int receiveQueueCapacity = OrderedDispatcher.DEFAULT_QUEUE_CAPACITY;
+			if (properties.getReceiveQueueCapacity() != null) {
+				receiveQueueCapacity = properties.getReceiveQueueCapacity();
+			}
+			OrderedDispatcher dispatcher = new OrderedDispatcher(receiveDispatchStripes, receiveQueueCapacity);
+			if (properties.getReceiveOverflowPolicy() != null) {
+				dispatcher.setOverflowPolicy(properties.getReceiveOverflowPolicy());
+			}
+			component.setReceiveDispatcher(dispatcher);
+		}
+		return component;
 	}
 }
@@ -16,6 +16,7 @@
 package org.springframework.cloud.iot.xbee.autoconfigure;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.iot.xbee.support.OverflowPolicy;
 
 /**
  * Configuration properties for XBee devices.
@@ -37,6 +38,72 @@ public class XBeeConfigurationProperties {
 	/** XBee device receive timeout in milliseconds */
 	private Integer receiveTimeout;
 
+	/** Read serial port with a dedicated reader thread, data available events are used if disabled */
+	private Boolean dedicatedReader;
+
+	/** If device is in escaped api mode, used by a dedicated reader which otherwise detects it after opening a device */
+	private Boolean escaped;
+
+	/** Timeout in milliseconds after which idle protocol sessions are evicted */
+	private Long sessionTimeout;
+
+	/** Max number of concurrent protocol sessions per remote device */
+	private Integer maxSessionsPerDevice;
+
+	/** Frame size used for sending, queried from a device if not set */
+	private Integer frameSize;
+
+	/** Encode sent headers in compact binary form instead of text */
+	private Boolean binaryHeaders;
+
+	/** Payload size in bytes from which sent payloads are compressed, not compressed if not set */
+	private Integer compressionThreshold;
+
+	/** Timeout in milliseconds after which missing frames of a stalled session are nacked */
+	private Long nackTimeout;
+
+	/** Max number of nacks sent per receiving session, zero disables nacks */
+	private Integer maxNacks;
+
+	/** Max number of sent messages kept for retransmitting nacked frames */
+	private Integer retransmitBufferSize;
+
+	/** Number of received messages remembered per remote device for dropping duplicates, zero disables */
+	private Integer duplicateWindowSize;
+
+	/** Time in milliseconds after receiving a message during which its repeated frames are dropped */
+	private Long duplicateWindow;
+
+	/** Max size in bytes of a received message, frames beyond it drop a session */
+	private Integer maxMessageSize;
+
+	/** Send a random boot id in start frames, only if all receivers support it */
+	private Boolean sendBootId;
+
+	/** Max number of messages queued for sending */
+	private Integer sendQueueCapacity;
+
+	/** Policy what to do when send queue is full */
+	private OverflowPolicy sendOverflowPolicy;
+
+	/** Max number of group unicasts sent in a row before other queued messages */
+	private Integer groupSendWindow;
+
+	/** Number of times a failed group unicast is retried per address */
+	private Integer groupSendRetries;
+
+	/** Interval in milliseconds signal strength is sampled from a device for metrics, zero disables */
+	private Long linkQualityInterval;
+
+	/** Number of ordered dispatch stripes passing received messages to listeners, zero passes them on a radio thread */
+	private Integer receiveDispatchStripes;
+
+	/** Max number of received messages queued per dispatch stripe */
+	private Integer receiveQueueCapacity;
+
+	/** Policy what to do when receive queue is full, defaults to rejecting new messages */
+	private OverflowPolicy receiveOverflowPolicy;
+
 	public String getSerialPort() {
 		return serialPort;
 	}
@@ -60,4 +127,180 @@ public class XBeeConfigurationProperties {
 	public void setReceiveTimeout(Integer receiveTimeout) {
 		this.receiveTimeout = receiveTimeout;
 	}
+
+	public Boolean getDedicatedReader() {
+		return dedicatedReader;
+	}
+
+	public void setDedicatedReader(Boolean dedicatedReader) {
+		this.dedicatedReader = dedicatedReader;
+	}
+
+	public Boolean getEscaped() {
+		return escaped;
+	}
+
+	public void setEscaped(Boolean escaped) {
+		this.escaped = escaped;
+	}
+
+	public Long getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	public void setSessionTimeout(Long sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	public Integer getMaxSessionsPerDevice() {
+		return maxSessionsPerDevice;
+	}
+
+	public void setMaxSessionsPerDevice(Integer maxSessionsPerDevice) {
+		this.maxSessionsPerDevice = maxSessionsPerDevice;
+	}
+
+	public Integer getFrameSize() {
+		return frameSize;
+	}
+
+	public void setFrameSize(Integer frameSize) {
+		this.frameSize = frameSize;
+	}
+
+	public Boolean getBinaryHeaders() {
+		return binaryHeaders;
+	}
+
+	public void setBinaryHeaders(Boolean binaryHeaders) {
+		this.binaryHeaders = binaryHeaders;
+	}
+
+	public Integer getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(Integer compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public Long getNackTimeout() {
+		return nackTimeout;
+	}
+
+	public void setNackTimeout(Long nackTimeout) {
+		this.nackTimeout = nackTimeout;
+	}
+
+	public Integer getMaxNacks() {
+		return maxNacks;
+	}
+
+	public void setMaxNacks(Integer maxNacks) {
+		this.maxNacks = maxNacks;
+	}
+
+	public Integer getRetransmitBufferSize() {
+		return retransmitBufferSize;
+	}
+
+	public void setRetransmitBufferSize(Integer retransmitBufferSize) {
+		this.retransmitBufferSize = retransmitBufferSize;
+	}
+
+	public Integer getDuplicateWindowSize() {
+		return duplicateWindowSize;
+	}
+
+	public void setDuplicateWindowSize(Integer duplicateWindowSize) {
+		this.duplicateWindowSize = duplicateWindowSize;
+	}
+
+	public Long getDuplicateWindow() {
+		return duplicateWindow;
+	}
+
+	public void setDuplicateWindow(Long duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+	}
+
+	public Integer getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	public void setMaxMessageSize(Integer maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public Boolean getSendBootId() {
+		return sendBootId;
+	}
+
+	public void setSendBootId(Boolean sendBootId) {
+		this.sendBootId = sendBootId;
+	}
+
+	public Integer getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	public void setSendQueueCapacity(Integer sendQueueCapacity) {
+		this.sendQueueCapacity = sendQueueCapacity;
+	}
+
+	public OverflowPolicy getSendOverflowPolicy() {
+		return sendOverflowPolicy;
+	}
+
+	public void setSendOverflowPolicy(OverflowPolicy sendOverflowPolicy) {
+		this.sendOverflowPolicy = sendOverflowPolicy;
+	}
+
+	public Integer getGroupSendWindow() {
+		return groupSendWindow;
+	}
+
+	public void setGroupSendWindow(Integer groupSendWindow) {
+		this.groupSendWindow = groupSendWindow;
+	}
+
+	public Integer getGroupSendRetries() {
+		return groupSendRetries;
+	}
+
+	public void setGroupSendRetries(Integer groupSendRetries) {
+		this.groupSendRetries = groupSendRetries;
+	}
+
+	public Long getLinkQualityInterval() {
+		return linkQualityInterval;
+	}
+
+	public void setLinkQualityInterval(Long linkQualityInterval) {
+		this.linkQualityInterval = linkQualityInterval;
+	}
+
+	public Integer getReceiveDispatchStripes() {
+		return receiveDispatchStripes;
+	}
+
+	public void setReceiveDispatchStripes(Integer receiveDispatchStripes) {
+		this.receiveDispatchStripes = receiveDispatchStripes;
+	}
+
+	public Integer getReceiveQueueCapacity() {
+		return receiveQueueCapacity;
+	}
+
+	public void setReceiveQueueCapacity(Integer receiveQueueCapacity) {
+		this.receiveQueueCapacity = receiveQueueCapacity;
+	}
+
+	public OverflowPolicy getReceiveOverflowPolicy() {
+		return receiveOverflowPolicy;
+	}
+
+	public void setReceiveOverflowPolicy(OverflowPolicy receiveOverflowPolicy) {
+		this.receiveOverflowPolicy = receiveOverflowPolicy;
+	}
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.listener;
+
+/**
+ * {@code XBeeMetricsListener} receives link and protocol level events from
+ * an XBee component, and request events from gateways, for metrics
+ * collection. Addresses are remote device 64-bit addresses, broadcast
+ * address for broadcasted frames. Methods are called on radio and request
+ * threads and should return quickly.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public interface XBeeMetricsListener {
+
+	/** Listener ignoring all events */
+	XBeeMetricsListener NONE = new XBeeMetricsListener() {
+	};
+
+	/**
+	 * Called when a frame has been sent.
+	 *
+	 * @param address the destination address
+	 * @param length the frame length in bytes
+	 */
+	default void onFrameSent(long address, int length) {
+	}
+
+	/**
+	 * Called when a frame has been received.
+	 *
+	 * @param address the source address
+	 * @param length the frame length in bytes
+	 */
+	default void onFrameReceived(long address, int length) {
+	}
+
+	/**
+	 * Called when a frame failed to get sent.
+	 *
+	 * @param address the destination address
+	 */
+	default void onTransmitFailure(long address) {
+	}
+
+	/**
+	 * Called when all frames of a message have been received.
+	 *
+	 * @param address the source address
+	 * @param time the time in milliseconds from a first to a last frame
+	 */
+	default void onMessageReassembled(long address, long time) {
+	}
+
+	/**
+	 * Called when a signal strength of a last received packet has been
+	 * sampled from a local device.
+	 *
+	 * @param rssi the signal strength in dBm
+	 */
+	default void onLinkQuality(int rssi) {
+	}
+
+	/**
+	 * Called when a gateway request starts waiting for a reply.
+	 */
+	default void onRequestPending() {
+	}
+
+	/**
+	 * Called when a gateway request stops waiting for a reply, either
+	 * replied, failed or timed out.
+	 */
+	default void onRequestCompleted() {
+	}
+
+	/**
+	 * Called when a gateway request timed out waiting for a reply.
+	 */
+	default void onRequestTimeout() {
+	}
+
+	/**
+	 * Called when a gateway received a reply not matching any pending
+	 * request.
+	 */
+	default void onUnmatchedReply() {
+	}
+}
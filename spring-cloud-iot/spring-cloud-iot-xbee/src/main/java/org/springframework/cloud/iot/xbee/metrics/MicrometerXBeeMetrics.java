@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
+import org.springframework.cloud.iot.xbee.support.DefaultXBeeComponent;
+import org.springframework.cloud.iot.xbee.support.MessageProtocolSessions;
+import org.springframework.cloud.iot.xbee.support.OrderedDispatcher;
+import org.springframework.cloud.iot.xbee.support.XBeeUtils;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * {@link MeterBinder} exposing link and protocol metrics of a
+ * {@link DefaultXBeeComponent} with Micrometer. Frame, byte and transmit
+ * failure counters and a reassembly time histogram are tagged with a remote
+ * device address, session and queue metrics are read from a component and
+ * its {@link MessageProtocolSessions}, and signal strength is a gauge of a
+ * last sampled value. Gateways given this instance as their metrics listener
+ * add pending request, timeout and unmatched reply metrics.
+ * <p>
+ * Events received before this binder is bound to a registry are ignored,
+ * apart from a number of pending requests which is always tracked.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class MicrometerXBeeMetrics implements XBeeMetricsListener, MeterBinder {
+
+	private static final String TAG_ADDRESS = "address";
+	private final DefaultXBeeComponent component;
+	private final Map<Long, AddressMeters> addressMeters = new ConcurrentHashMap<>();
+	private volatile MeterRegistry registry;
+	private final AtomicInteger pendingRequests = new AtomicInteger();
+	private volatile double rssi = Double.NaN;
+	private volatile Counter requestTimeouts;
+	private volatile Counter unmatchedReplies;
+
+	/**
+	 * Instantiates a new micrometer xbee metrics and registers itself as a
+	 * metrics listener of a given component.
+	 *
+	 * @param component the xbee component
+	 */
+	public MicrometerXBeeMetrics(DefaultXBeeComponent component) {
+		Assert.notNull(component, "'component' must be set");
+		this.component = component;
+		component.setMetricsListener(this);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		MessageProtocolSessions sessions = component.getSessions();
+		Gauge.builder("xbee.sessions.rx", sessions, MessageProtocolSessions::getRxSessionCount)
+				.description("Number of open receiving sessions").register(registry);
+		Gauge.builder("xbee.sessions.tx", sessions, MessageProtocolSessions::getTxSessionCount)
+				.description("Number of in-flight transmitting sessions").register(registry);
+		FunctionCounter.builder("xbee.sessions.evicted", sessions, MessageProtocolSessions::getEvictionCount)
+				.description("Number of evicted receiving sessions").register(registry);
+		FunctionCounter.builder("xbee.duplicates.frames", sessions, MessageProtocolSessions::getDuplicateFrameCount)
+				.description("Number of dropped duplicate frames").register(registry);
+		FunctionCounter.builder("xbee.duplicates.messages", sessions, MessageProtocolSessions::getDuplicateMessageCount)
+				.description("Number of dropped duplicate messages").register(registry);
+		Gauge.builder("xbee.send.queue", component, DefaultXBeeComponent::getSendQueueSize)
+				.description("Number of messages waiting to be sent").register(registry);
+		FunctionCounter.builder("xbee.send.dropped", component, DefaultXBeeComponent::getDroppedCount)
+				.description("Number of messages dropped as send queue was full").register(registry);
+		OrderedDispatcher dispatcher = component.getReceiveDispatcher();
+		if (dispatcher != null) {
+			Gauge.builder("xbee.receive.queue", dispatcher, OrderedDispatcher::getQueueDepth)
+					.description("Number of received messages waiting to be dispatched").register(registry);
+			FunctionCounter.builder("xbee.receive.dropped", dispatcher, OrderedDispatcher::getDroppedCount)
+					.description("Number of received messages dropped as receive queue was full").register(registry);
+		}
+		Gauge.builder("xbee.link.rssi", this, m -> m.rssi).baseUnit("dBm")
+				.description("Signal strength of a last received packet").register(registry);
+		Gauge.builder("xbee.gateway.pending", pendingRequests, AtomicInteger::get)
+				.description("Number of gateway requests waiting for a reply").register(registry);
+		requestTimeouts = Counter.builder("xbee.gateway.timeouts")
+				.description("Number of gateway requests timed out waiting for a reply").register(registry);
+		unmatchedReplies = Counter.builder("xbee.gateway.unmatched")
+				.description("Number of gateway replies not matching any pending request").register(registry);
+		this.registry = registry;
+	}
+
+	@Override
+	public void onFrameSent(long address, int length) {
+		AddressMeters meters = getMeters(address);
+		if (meters != null) {
+			meters.framesSent.increment();
+			meters.bytesSent.increment(length);
+		}
+	}
+
+	@Override
+	public void onFrameReceived(long address, int length) {
+		AddressMeters meters = getMeters(address);
+		if (meters != null) {
+			meters.framesReceived.increment();
+			meters.bytesReceived.increment(length);
+		}
+	}
+
+	@Override
+	public void onTransmitFailure(long address) {
+		AddressMeters meters = getMeters(address);
+		if (meters != null) {
+			meters.transmitFailures.increment();
+		}
+	}
+
+	@Override
+	public void onMessageReassembled(long address, long time) {
+		AddressMeters meters = getMeters(address);
+		if (meters != null) {
+			meters.reassemblyTime.record(time, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void onLinkQuality(int rssi) {
+		this.rssi = rssi;
+	}
+
+	@Override
+	public void onRequestPending() {
+		pendingRequests.incrementAndGet();
+	}
+
+	@Override
+	public void onRequestCompleted() {
+		pendingRequests.decrementAndGet();
+	}
+
+	@Override
+	public void onRequestTimeout() {
+		Counter counter = requestTimeouts;
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	@Override
+	public void onUnmatchedReply() {
+		Counter counter = unmatchedReplies;
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	private AddressMeters getMeters(long address) {
+		MeterRegistry registry = this.registry;
+		if (registry == null) {
+			return null;
+		}
+		AddressMeters meters = addressMeters.get(address);
+		if (meters == null) {
+			meters = addressMeters.computeIfAbsent(address, a -> new AddressMeters(registry, a));
+		}
+		return meters;
+	}
+
+	/**
+	 * Meters of a remote device cached to avoid registry lookups per frame.
+	 */
+	private static class AddressMeters {
+
+		final Counter framesSent;
+		final Counter framesReceived;
+		final Counter bytesSent;
+		final Counter bytesReceived;
+		final Counter transmitFailures;
+		final Timer reassemblyTime;
+
+		AddressMeters(MeterRegistry registry, long address) {
+			String tag = XBeeUtils.toAddress(address).toString();
+			framesSent = Counter.builder("xbee.frames.sent").tag(TAG_ADDRESS, tag)
+					.description("Number of sent frames").register(registry);
+			framesReceived = Counter.builder("xbee.frames.received").tag(TAG_ADDRESS, tag)
+					.description("Number of received frames").register(registry);
+			bytesSent = Counter.builder("xbee.bytes.sent").tag(TAG_ADDRESS, tag).baseUnit("bytes")
+					.description("Number of sent frame bytes").register(registry);
+			bytesReceived = Counter.builder("xbee.bytes.received").tag(TAG_ADDRESS, tag).baseUnit("bytes")
+					.description("Number of received frame bytes").register(registry);
+			transmitFailures = Counter.builder("xbee.transmit.failures").tag(TAG_ADDRESS, tag)
+					.description("Number of frames failed to get sent").register(registry);
+			reassemblyTime = Timer.builder("xbee.reassembly.time").tag(TAG_ADDRESS, tag)
+					.description("Time from a first to a last received frame of a message")
+					.publishPercentileHistogram().register(registry);
+		}
+	}
+}
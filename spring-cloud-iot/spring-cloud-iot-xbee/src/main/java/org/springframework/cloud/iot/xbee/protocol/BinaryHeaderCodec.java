@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * {@link HeaderCodec} encoding headers in a compact binary form. Every header
+ * is encoded as a key followed by a value where well-known keys and values
+ * found from a shared dictionary are encoded as a single byte id, other keys
+ * and values as literals.
+ * <p>
+ * Header entry has a structure as:
+ * <pre>
+ * key id (byte), if 0 followed by key length (byte) and key bytes
+ * value id (byte), if 0 followed by value length (varint) and value bytes
+ * </pre>
+ * Dictionaries are positional and can only be appended to as ids must match
+ * on sending and receiving sides. Lengths are checked against remaining bytes
+ * when decoding, truncated or corrupt headers fail with an
+ * {@link IllegalArgumentException}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class BinaryHeaderCodec implements HeaderCodec {
+
+	private static final Logger log = LoggerFactory.getLogger(BinaryHeaderCodec.class);
+
+	/** Well-known header keys, id is index + 1 */
+	public final static List<String> DEFAULT_KEYS = Arrays.asList(
+			"iotGatewayServiceRoute",
+			"contentType",
+			"correlationId",
+			"xbee_correlationId");
+
+	/** Well-known header values, id is index + 1 */
+	public final static List<String> DEFAULT_VALUES = Arrays.asList(
+			"RestGatewayService",
+			"MetricGatewayService",
+			"application/json",
+			"text/plain",
+			"application/octet-stream");
+
+	private final static int MAX_DICTIONARY_SIZE = 255;
+	private final static int MAX_KEY_LENGTH = 255;
+	private final List<String> keys;
+	private final List<String> values;
+	private final Map<String, Integer> keyIds;
+	private final Map<String, Integer> valueIds;
+
+	/**
+	 * Instantiates a new binary header codec using default dictionaries.
+	 */
+	public BinaryHeaderCodec() {
+		this(DEFAULT_KEYS, DEFAULT_VALUES);
+	}
+
+	/**
+	 * Instantiates a new binary header codec.
+	 *
+	 * @param keys the well-known header keys
+	 * @param values the well-known header values
+	 */
+	public BinaryHeaderCodec(List<String> keys, List<String> values) {
+		Assert.notNull(keys, "'keys' must be set");
+		Assert.notNull(values, "'values' must be set");
+		Assert.isTrue(keys.size() <= MAX_DICTIONARY_SIZE, "Too many keys, max is " + MAX_DICTIONARY_SIZE);
+		Assert.isTrue(values.size() <= MAX_DICTIONARY_SIZE, "Too many values, max is " + MAX_DICTIONARY_SIZE);
+		this.keys = keys;
+		this.values = values;
+		this.keyIds = buildIds(keys);
+		this.valueIds = buildIds(values);
+	}
+
+	@Override
+	public int getMessageTypeFlags() {
+		return MessageProtocol.MESSAGE_TYPE_BINARY_HEADER;
+	}
+
+	@Override
+	public byte[] encode(Map<String, String> headers) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			Integer keyId = keyIds.get(entry.getKey());
+			byte[] key = null;
+			if (keyId == null) {
+				key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+				if (key.length > MAX_KEY_LENGTH) {
+					log.debug("Skipping header {} as its name is too long", entry.getKey());
+					continue;
+				}
+			}
+			if (keyId != null) {
+				out.write(keyId);
+			} else {
+				out.write(0);
+				out.write(key.length);
+				out.write(key, 0, key.length);
+			}
+			Integer valueId = valueIds.get(entry.getValue());
+			if (valueId != null) {
+				out.write(valueId);
+			} else {
+				byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+				out.write(0);
+				writeVarint(out, value.length);
+				out.write(value, 0, value.length);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public Map<String, String> decode(ByteBuffer header) {
+		Map<String, String> headers = new HashMap<>();
+		while (header.hasRemaining()) {
+			int keyId = readByte(header);
+			String key;
+			if (keyId != 0) {
+				key = lookup(keys, keyId);
+			} else {
+				key = readString(header, readByte(header));
+			}
+			int valueId = readByte(header);
+			String value;
+			if (valueId != 0) {
+				value = lookup(values, valueId);
+			} else {
+				value = readString(header, readVarint(header));
+			}
+			if (key != null && value != null) {
+				headers.put(key, value);
+			}
+		}
+		return headers;
+	}
+
+	private static String lookup(List<String> dictionary, int id) {
+		if (id > dictionary.size()) {
+			log.debug("Unknown dictionary id {}", id);
+			return null;
+		}
+		return dictionary.get(id - 1);
+	}
+
+	private static int readByte(ByteBuffer buffer) {
+		if (!buffer.hasRemaining()) {
+			throw new IllegalArgumentException("Truncated header at position " + buffer.position());
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	private static String readString(ByteBuffer buffer, int length) {
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException(
+					"Header length " + length + " exceeds remaining " + buffer.remaining() + " bytes");
+		}
+		byte[] data = new byte[length];
+		buffer.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift >= 32) {
+				throw new IllegalArgumentException("Header length varint too long");
+			}
+			b = readByte(buffer);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative header length " + value);
+		}
+		return value;
+	}
+
+	private static Map<String, Integer> buildIds(List<String> dictionary) {
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < dictionary.size(); i++) {
+			ids.put(dictionary.get(i), i + 1);
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utilities compressing payloads with a raw {@code DEFLATE} without zlib
+ * headers and checksums as frames already have their own integrity checks
+ * on a radio level.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public abstract class CompressionUtils {
+
+	/** Max size of inflated data to protect against corrupted or malicious data */
+	public final static int MAX_INFLATED_SIZE = 1024 * 1024;
+
+	/**
+	 * Compress data.
+	 *
+	 * @param data the data
+	 * @return the compressed data
+	 */
+	public static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+			byte[] buf = new byte[256];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buf);
+				out.write(buf, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompress data.
+	 *
+	 * @param data the compressed data
+	 * @return the decompressed data
+	 * @throws IllegalArgumentException if data cannot be decompressed
+	 */
+	public static byte[] inflate(ByteBuffer data) {
+		byte[] input = new byte[data.remaining()];
+		data.get(input);
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(input);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+			byte[] buf = new byte[256];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buf);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Truncated compressed data");
+				}
+				out.write(buf, 0, count);
+				if (out.size() > MAX_INFLATED_SIZE) {
+					throw new IllegalArgumentException("Inflated data exceeds " + MAX_INFLATED_SIZE + " bytes");
+				}
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Invalid compressed data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
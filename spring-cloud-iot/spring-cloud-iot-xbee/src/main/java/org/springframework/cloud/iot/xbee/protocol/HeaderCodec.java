@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Strategy interface encoding message headers into bytes carried in front of a
+ * payload in a {@link MessageProtocol} and decoding them back. Codec used by a
+ * sender is identified by its message type flags in a start frame.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public interface HeaderCodec {
+
+	/**
+	 * Gets the message type flags set in a start frame when this codec is used.
+	 *
+	 * @return the message type flags
+	 */
+	int getMessageTypeFlags();
+
+	/**
+	 * Encode headers into bytes. Headers which cannot be encoded are skipped.
+	 *
+	 * @param headers the headers
+	 * @return the encoded headers
+	 */
+	byte[] encode(Map<String, String> headers);
+
+	/**
+	 * Decode headers from bytes.
+	 *
+	 * @param header the encoded headers
+	 * @return the decoded headers
+	 * @throws IllegalArgumentException if headers are malformed
+	 */
+	Map<String, String> decode(ByteBuffer header);
+}
@@ -15,6 +15,9 @@
  */
 package org.springframework.cloud.iot.xbee.protocol;
 
+import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.util.Assert;
+
 /**
  * Base class for message protocol which works on top of XBee's raw packet level
  * transport.
@@ -27,7 +30,8 @@ package org.springframework.cloud.iot.xbee.protocol;
  * receiving side.
  * <p>
  * Every frame has its frame headers which consist of message type, session id, frame id and
- * optionally a message header length if message type has {@code MESSAGE_TYPE_START} bit set.
+ * optionally a message header length and other start frame fields if message type has
+ * {@code MESSAGE_TYPE_START} bit set.
  * <p>
  * Frame has a structure as:
  * <pre>
@@ -35,7 +39,36 @@ package org.springframework.cloud.iot.xbee.protocol;
  * byte 1 message session id (byte)
  * bytes 2-3 message frame id (short)
  * bytes 4-7 header length if {@code MESSAGE_TYPE_START} is set (int)
+ * bytes 8-9 frame size if {@code MESSAGE_TYPE_START} and {@code MESSAGE_TYPE_FRAME_SIZE} are set (short)
+ * next byte sender boot id if {@code MESSAGE_TYPE_START} and {@code MESSAGE_TYPE_BOOT_ID} are set (byte)
+ * next 2 bytes routing id if {@code MESSAGE_TYPE_START} and {@code MESSAGE_TYPE_ROUTING_ID} are set (short)
  * </pre>
+ * <p>
+ * Optional start frame fields follow each other in above order, thus a
+ * length of start frame headers is known from a message type alone.
+ * <p>
+ * Frame size is only carried in a start frame if it differs from
+ * {@link #DEFAULT_FRAME_SIZE}, and a boot id and a routing id only when they
+ * are used, thus frames using a default size without them are identical to
+ * what older implementations send and a receiving side always knows how to
+ * reassemble frames from senders using different frame sizes. Older
+ * implementations don't know optional fields other than a frame size.
+ * <p>
+ * Message headers are encoded with a {@link HeaderCodec}, and a start frame
+ * has {@code MESSAGE_TYPE_BINARY_HEADER} set if headers are encoded with a
+ * {@link BinaryHeaderCodec} instead of a {@link TextHeaderCodec}. If a start
+ * frame has {@code MESSAGE_TYPE_COMPRESSED} set, payload has been compressed
+ * with {@link CompressionUtils#deflate(byte[])}. Frames with
+ * {@code MESSAGE_TYPE_NACK} set are {@link NackMessageProtocol} control frames.
+ * <p>
+ * If a start frame has {@code MESSAGE_TYPE_BOOT_ID} set, it carries a random
+ * id a sender picked when it started. Receiving side uses it to tell a
+ * restarted sender reusing session ids apart from late copies of already
+ * received messages.
+ * <p>
+ * If a start frame has {@code MESSAGE_TYPE_ROUTING_ID} set, it carries a
+ * 16-bit id of a logical stream a message belongs to, thus many streams can
+ * share a same radio at a cost of two bytes per message.
  *
  * @author Janne Valkealahti
  *
@@ -43,9 +76,19 @@ package org.springframework.cloud.iot.xbee.protocol;
 public abstract class MessageProtocol {
 
 	public final static int DEFAULT_FRAME_SIZE = 60;
+	public final static int MIN_FRAME_SIZE = 16;
+	public final static int MAX_FRAME_SIZE = 0xFFFF;
 	public final static int MESSAGE_TYPE_START = 0x01;
 	public final static int MESSAGE_TYPE_END = 0x02;
-	private final int frameSize;
+	public final static int MESSAGE_TYPE_FRAME_SIZE = 0x04;
+	public final static int MESSAGE_TYPE_BINARY_HEADER = 0x08;
+	public final static int MESSAGE_TYPE_COMPRESSED = 0x10;
+	public final static int MESSAGE_TYPE_NACK = 0x20;
+	public final static int MESSAGE_TYPE_BOOT_ID = 0x40;
+	public final static int MESSAGE_TYPE_ROUTING_ID = 0x80;
+	public final static int MAX_BOOT_ID = 0xFF;
+	public final static int MAX_ROUTING_ID = 0xFFFF;
+	private int frameSize;
 
 	/**
 	 * Instantiates a new message protocol.
@@ -53,7 +96,7 @@ public abstract class MessageProtocol {
 	 * @param frameSize the frame size
 	 */
 	public MessageProtocol(int frameSize) {
-		this.frameSize = frameSize;
+		setFrameSize(frameSize);
 	}
 
 	/**
@@ -64,4 +107,36 @@ public abstract class MessageProtocol {
 	public int getFrameSize() {
 		return frameSize;
 	}
+
+	/**
+	 * Sets the frame size.
+	 *
+	 * @param frameSize the new frame size
+	 */
+	protected void setFrameSize(int frameSize) {
+		Assert.isTrue(frameSize >= MIN_FRAME_SIZE && frameSize <= MAX_FRAME_SIZE,
+				"'frameSize' must be between " + MIN_FRAME_SIZE + " and " + MAX_FRAME_SIZE + ", was " + frameSize);
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * Gets the length of frame headers in a start frame having a given
+	 * message type.
+	 *
+	 * @param messageType the message type of a start frame
+	 * @return the start frame header length
+	 */
+	protected static int getStartHeaderLength(int messageType) {
+		int length = 8;
+		if (IotUtils.isBitSet(messageType, MESSAGE_TYPE_FRAME_SIZE)) {
+			length += 2;
+		}
+		if (IotUtils.isBitSet(messageType, MESSAGE_TYPE_BOOT_ID)) {
+			length += 1;
+		}
+		if (IotUtils.isBitSet(messageType, MESSAGE_TYPE_ROUTING_ID)) {
+			length += 2;
+		}
+		return length;
+	}
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.springframework.cloud.iot.support.IotUtils;
+
+/**
+ * {@code NackMessageProtocol} is a negative acknowledgement sent by a
+ * receiving side to request a retransmission of missing frames of a
+ * {@link TxMessageProtocol} session. It always fits into a single frame.
+ * <p>
+ * Frame has a structure as:
+ * <pre>
+ * byte 0 message type with {@code MESSAGE_TYPE_NACK} set (byte)
+ * byte 1 message session id (byte)
+ * bytes 2-3 tail frame id, frames from this id to an end are missing, 0xFFFF if none (short)
+ * bytes 4-5 number of missing frame ids (short)
+ * bytes 6- missing frame ids (short each)
+ * </pre>
+ *
+ * @author Janne Valkealahti
+ * @see RxMessageProtocol#getMissingFrames(int)
+ *
+ */
+public class NackMessageProtocol extends MessageProtocol {
+
+	/** Max number of missing frame ids in one nack */
+	public final static int MAX_MISSING_FRAMES = (DEFAULT_FRAME_SIZE - 6) / 2;
+	private final static int NO_TAIL = 0xFFFF;
+	private final short sessionId;
+	private final int[] missingFrames;
+	private final int tailFrameId;
+
+	/**
+	 * Instantiates a new nack message protocol.
+	 *
+	 * @param sessionId the session id
+	 * @param missingFrames the missing frame ids
+	 * @param tailFrameId the tail frame id, or -1 if all frames up to end are known
+	 */
+	public NackMessageProtocol(short sessionId, int[] missingFrames, int tailFrameId) {
+		super(DEFAULT_FRAME_SIZE);
+		this.sessionId = sessionId;
+		this.missingFrames = missingFrames.length > MAX_MISSING_FRAMES
+				? Arrays.copyOf(missingFrames, MAX_MISSING_FRAMES) : missingFrames;
+		this.tailFrameId = tailFrameId;
+	}
+
+	/**
+	 * Checks if frame is a nack frame.
+	 *
+	 * @param frame the frame
+	 * @return true, if frame is a nack frame
+	 */
+	public static boolean isNack(byte[] frame) {
+		return frame.length >= 6 && IotUtils.isBitSet(frame[0], MESSAGE_TYPE_NACK);
+	}
+
+	/**
+	 * Parses a nack frame.
+	 *
+	 * @param frame the nack frame
+	 * @return the nack message protocol
+	 */
+	public static NackMessageProtocol parse(byte[] frame) {
+		ByteBuffer buffer = ByteBuffer.wrap(frame);
+		buffer.get();
+		short sessionId = (short) (buffer.get() & 0xFF);
+		int tail = buffer.getShort() & 0xFFFF;
+		int count = Math.min(buffer.getShort() & 0xFFFF, buffer.remaining() / 2);
+		int[] missing = new int[count];
+		for (int i = 0; i < count; i++) {
+			missing[i] = buffer.getShort() & 0xFFFF;
+		}
+		return new NackMessageProtocol(sessionId, missing, tail == NO_TAIL ? -1 : tail);
+	}
+
+	/**
+	 * Gets the session id.
+	 *
+	 * @return the session id
+	 */
+	public short getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Gets the missing frame ids.
+	 *
+	 * @return the missing frame ids
+	 */
+	public int[] getMissingFrames() {
+		return missingFrames;
+	}
+
+	/**
+	 * Gets the tail frame id, frames from this id to an end are missing.
+	 *
+	 * @return the tail frame id, or -1 if none
+	 */
+	public int getTailFrameId() {
+		return tailFrameId;
+	}
+
+	/**
+	 * Build a nack frame.
+	 *
+	 * @return the frame
+	 */
+	public byte[] getFrame() {
+		ByteBuffer buffer = ByteBuffer.allocate(6 + missingFrames.length * 2)
+				.put((byte) MESSAGE_TYPE_NACK)
+				.put((byte) sessionId)
+				.putShort((short) (tailFrameId < 0 ? NO_TAIL : tailFrameId))
+				.putShort((short) missingFrames.length);
+		for (int id : missingFrames) {
+			buffer.putShort((short) id);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Select frames requested by this nack from all frames of a session.
+	 *
+	 * @param frames the all frames of a session
+	 * @return the requested frames
+	 */
+	public byte[][] selectFrames(byte[][] frames) {
+		int tail = tailFrameId < 0 ? frames.length : Math.min(tailFrameId, frames.length);
+		int count = 0;
+		byte[][] selected = new byte[missingFrames.length + frames.length - tail][];
+		for (int id : missingFrames) {
+			if (id < tail) {
+				selected[count++] = frames[id];
+			}
+		}
+		for (int id = tail; id < frames.length; id++) {
+			selected[count++] = frames[id];
+		}
+		return count == selected.length ? selected : Arrays.copyOf(selected, count);
+	}
+}
@@ -15,21 +15,39 @@
  */
 package org.springframework.cloud.iot.xbee.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.util.Assert;
 
 /**
  * {@code RxMessageProtocol} is a receiving implementation of a
  * {@link MessageProtocol}.
+ * <p>
+ * Frame data is written directly into its final position in a single
+ * reassembly buffer, calculated from a frame id and a frame size, thus frames
+ * can arrive in any order and no intermediate copies are made. Reassembled
+ * header and payload are available either as copies or as read-only views
+ * into a reassembly buffer.
+ * <p>
+ * Frame size is taken from a start frame, frames arriving before a start frame
+ * are kept aside until their position is known. Compressed payload is
+ * decompressed when it is accessed.
+ * <p>
+ * Received frame ids are tracked, and message is complete only when an end
+ * frame and all frames before it have been received. Missing frames can be
+ * requested again from a sender with a {@link NackMessageProtocol}.
+ * <p>
+ * Frame ids and a frame size come from a remote device, thus a frame which is
+ * too short or would be positioned beyond a max message size is rejected
+ * with an {@link IllegalArgumentException} before it is marked as received,
+ * and a session should be dropped.
  *
  * @author Janne Valkealahti
  * @see MessageProtocol
@@ -38,14 +56,40 @@ import org.springframework.cloud.iot.support.IotUtils;
 public class RxMessageProtocol extends MessageProtocol {
 
 	private static final Logger log = LoggerFactory.getLogger(RxMessageProtocol.class);
-	private final Map<Integer, byte[]> frames = new HashMap<>();
+	private static final int INITIAL_FRAME_CAPACITY = 4;
+	public final static int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+	private final int maxMessageSize;
+	private ByteBuffer buffer;
 	private int headerLength = 0;
+	private int length = 0;
+	private boolean started;
+	private int messageType;
+	private int bootId = -1;
+	private int routingId = -1;
+	private int startHeaderLength;
+	private long startChecksum;
+	private ByteBuffer inflated;
+	private List<byte[]> pendingFrames;
+	private final BitSet receivedFrames = new BitSet();
+	private int endFrameId = -1;
 
 	/**
 	 * Instantiates a new rx message protocol.
 	 */
 	public RxMessageProtocol() {
+		this(DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * Instantiates a new rx message protocol.
+	 *
+	 * @param maxMessageSize the max size of a reassembled header and payload
+	 */
+	public RxMessageProtocol(int maxMessageSize) {
 		super(DEFAULT_FRAME_SIZE);
+		Assert.isTrue(maxMessageSize > 0, "'maxMessageSize' must be positive");
+		this.maxMessageSize = maxMessageSize;
+		this.buffer = ByteBuffer.allocate(Math.min(maxMessageSize, DEFAULT_FRAME_SIZE * INITIAL_FRAME_CAPACITY));
 	}
 
 	/**
@@ -55,17 +99,204 @@ public class RxMessageProtocol extends MessageProtocol {
 	 *
 	 * @param frame the frame
 	 * @return true, if successful
+	 * @throws IllegalArgumentException if frame is invalid
 	 */
-	public boolean add(byte[] frame) {
+	public synchronized boolean add(byte[] frame) {
 		log.debug("Adding new frame '{}'", frame);
-		short id = ByteBuffer.wrap(new byte[] { frame[2], frame[3] }).getShort();
-		if (IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_START)) {
-			headerLength = ByteBuffer.wrap(frame, 4, 4).getInt();
-			frames.put((int)id, Arrays.copyOfRange(frame, 8, frame.length));
+		if (frame.length < 4) {
+			throw new IllegalArgumentException("Frame too short, length " + frame.length);
+		}
+		int id = getFrameId(frame);
+		if (receivedFrames.get(id)) {
+			log.debug("Ignoring duplicate frame {}", id);
+			return isComplete();
+		}
+		boolean start = IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_START);
+		if (start) {
+			int headersLength = getStartHeaderLength(frame[0] & 0xFF);
+			if (frame.length < headersLength) {
+				throw new IllegalArgumentException("Start frame too short, length " + frame.length);
+			}
+			int frameSize = DEFAULT_FRAME_SIZE;
+			if (IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_FRAME_SIZE)) {
+				frameSize = ((frame[8] & 0xFF) << 8) | (frame[9] & 0xFF);
+			}
+			setFrameSize(frameSize);
+			startHeaderLength = headersLength;
+			checkPosition(0, frame.length - headersLength);
+			if (pendingFrames != null) {
+				for (byte[] pending : pendingFrames) {
+					checkPosition(getFrameId(pending), pending.length - 4);
+				}
+			}
+		} else if (started) {
+			checkPosition(id, frame.length - 4);
+		} else if (id > 0 && (long) (id - 1) * (MIN_FRAME_SIZE - 4) >= maxMessageSize) {
+			// exact position not known yet, but even smallest frames would not fit
+			throw new IllegalArgumentException("Frame " + id + " is beyond max message size " + maxMessageSize);
+		}
+		receivedFrames.set(id);
+		if (IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_END)) {
+			endFrameId = id;
+		}
+		if (start) {
+			headerLength = ((frame[4] & 0xFF) << 24) | ((frame[5] & 0xFF) << 16) | ((frame[6] & 0xFF) << 8) | (frame[7] & 0xFF);
+			bootId = getBootId(frame);
+			if (IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_ROUTING_ID)) {
+				int offset = startHeaderLength - 2;
+				routingId = ((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF);
+			}
+			startChecksum = getChecksum(frame);
+			started = true;
+			messageType = frame[0] & 0xFF;
+			write(frame, 0, startHeaderLength);
+			if (pendingFrames != null) {
+				for (byte[] pending : pendingFrames) {
+					write(pending, getFrameId(pending), 4);
+				}
+				pendingFrames = null;
+			}
+		} else if (started) {
+			write(frame, id, 4);
 		} else {
-			frames.put((int)id, Arrays.copyOfRange(frame, 4, frame.length));
+			// position not known until start frame tells frame size
+			if (pendingFrames == null) {
+				pendingFrames = new ArrayList<>();
+			}
+			pendingFrames.add(frame);
 		}
-		return IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_END);
+		return isComplete();
+	}
+
+	/**
+	 * Checks if all frames of a message have been received.
+	 *
+	 * @return true, if message is complete
+	 */
+	public synchronized boolean isComplete() {
+		return started && endFrameId >= 0 && receivedFrames.cardinality() == endFrameId + 1;
+	}
+
+	/**
+	 * Checks if an end frame has been received.
+	 *
+	 * @return true, if end frame has been received
+	 */
+	public synchronized boolean isEndReceived() {
+		return endFrameId >= 0;
+	}
+
+	/**
+	 * Gets the number of received frames.
+	 *
+	 * @return the number of received frames
+	 */
+	public synchronized int getReceivedFrameCount() {
+		return receivedFrames.cardinality();
+	}
+
+	/**
+	 * Gets the ids of missing frames before an end frame, or before the
+	 * highest received frame if end frame hasn't been received.
+	 *
+	 * @param max the max number of ids to return
+	 * @return the missing frame ids
+	 */
+	public synchronized int[] getMissingFrames(int max) {
+		int upper = endFrameId >= 0 ? endFrameId + 1 : receivedFrames.length();
+		int[] missing = new int[Math.min(max, upper - receivedFrames.cardinality())];
+		int count = 0;
+		for (int id = receivedFrames.nextClearBit(0); id < upper && count < missing.length; id = receivedFrames
+				.nextClearBit(id + 1)) {
+			missing[count++] = id;
+		}
+		return missing;
+	}
+
+	/**
+	 * Gets the id of a frame after the highest received frame, or {@code -1}
+	 * if end frame has been received.
+	 *
+	 * @return the id of a first frame not known to be sent
+	 */
+	public synchronized int getTailFrameId() {
+		return endFrameId >= 0 ? -1 : receivedFrames.length();
+	}
+
+	/**
+	 * Gets the CRC-32 checksum of a reassembled header and payload as they
+	 * were received.
+	 *
+	 * @return the checksum
+	 */
+	public synchronized long getChecksum() {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Gets the CRC-32 checksum of a start frame as it was received.
+	 *
+	 * @return the start frame checksum, {@code 0} if start frame hasn't been received
+	 */
+	public synchronized long getStartChecksum() {
+		return startChecksum;
+	}
+
+	/**
+	 * Gets the boot id of a sender carried in a start frame.
+	 *
+	 * @return the boot id, {@code -1} if not known
+	 */
+	public synchronized int getBootId() {
+		return bootId;
+	}
+
+	/**
+	 * Gets the boot id of a sender carried in a start frame.
+	 *
+	 * @param frame the frame
+	 * @return the boot id, {@code -1} if frame is not a start frame carrying it
+	 */
+	public static int getBootId(byte[] frame) {
+		int messageType = frame[0] & 0xFF;
+		if (!IotUtils.isBitSet(messageType, MessageProtocol.MESSAGE_TYPE_START | MessageProtocol.MESSAGE_TYPE_BOOT_ID)) {
+			return -1;
+		}
+		int offset = IotUtils.isBitSet(messageType, MessageProtocol.MESSAGE_TYPE_FRAME_SIZE) ? 10 : 8;
+		return frame.length > offset ? frame[offset] & 0xFF : -1;
+	}
+
+	/**
+	 * Gets the routing id carried in a start frame.
+	 *
+	 * @return the routing id, {@code -1} if not known
+	 */
+	public synchronized int getRoutingId() {
+		return routingId;
+	}
+
+	/**
+	 * Gets the CRC-32 checksum of a frame.
+	 *
+	 * @param frame the frame
+	 * @return the checksum
+	 */
+	public static long getChecksum(byte[] frame) {
+		CRC32 crc = new CRC32();
+		crc.update(frame, 0, frame.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Gets the message type of a start frame, or {@code 0} if start frame
+	 * hasn't been received.
+	 *
+	 * @return the message type
+	 */
+	public int getMessageType() {
+		return messageType;
 	}
 
 	/**
@@ -74,12 +305,7 @@ public class RxMessageProtocol extends MessageProtocol {
 	 * @return the payload
 	 */
 	public byte[] getPayload() {
-		List<byte[]> dataFrames = frames.entrySet()
-				.stream()
-				.sorted(Map.Entry.<Integer, byte[]>comparingByKey()).map(e -> e.getValue())
-				.collect(Collectors.toList());
-		byte[] tmp = concatenateByteArrays(dataFrames);
-		return Arrays.copyOfRange(tmp, headerLength, tmp.length);
+		return copy(getPayloadBuffer());
 	}
 
 	/**
@@ -88,19 +314,80 @@ public class RxMessageProtocol extends MessageProtocol {
 	 * @return the header
 	 */
 	public byte[] getHeader() {
-		List<byte[]> dataFrames = frames.entrySet()
-				.stream()
-				.sorted(Map.Entry.<Integer, byte[]>comparingByKey()).map(e -> e.getValue())
-				.collect(Collectors.toList());
-		byte[] tmp = concatenateByteArrays(dataFrames);
-		return Arrays.copyOfRange(tmp, 0, headerLength);
-	}
-
-	private static byte[] concatenateByteArrays(List<byte[]> dataFrames) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		for (byte[] df : dataFrames) {
-			out.write(df, 0, df.length);
+		return copy(getHeaderBuffer());
+	}
+
+	/**
+	 * Gets the payload as a read-only view into a reassembly buffer, or into a
+	 * decompressed payload if payload was compressed.
+	 *
+	 * @return the payload buffer
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		ByteBuffer payload = slice(Math.min(headerLength, length), length);
+		if (IotUtils.isBitSet(messageType, MessageProtocol.MESSAGE_TYPE_COMPRESSED)) {
+			if (inflated == null) {
+				inflated = ByteBuffer.wrap(CompressionUtils.inflate(payload));
+			}
+			return inflated.asReadOnlyBuffer();
+		}
+		return payload;
+	}
+
+	/**
+	 * Gets the header as a read-only view into a reassembly buffer.
+	 *
+	 * @return the header buffer
+	 */
+	public ByteBuffer getHeaderBuffer() {
+		return slice(0, Math.min(headerLength, length));
+	}
+
+	private void write(byte[] frame, int id, int dataOffset) {
+		// checked against max message size before frame was accepted
+		int position = (int) getFramePosition(id);
+		int dataLength = frame.length - dataOffset;
+		ensureCapacity(position + dataLength);
+		System.arraycopy(frame, dataOffset, buffer.array(), position, dataLength);
+		length = Math.max(length, position + dataLength);
+	}
+
+	private void checkPosition(int id, int dataLength) {
+		if (getFramePosition(id) + dataLength > maxMessageSize) {
+			throw new IllegalArgumentException("Frame " + id + " with frame size " + getFrameSize()
+					+ " is beyond max message size " + maxMessageSize);
 		}
-		return out.toByteArray();
+	}
+
+	private long getFramePosition(int id) {
+		// first frame has longer frame header, others have 4 byte header
+		if (id == 0) {
+			return 0;
+		}
+		return (getFrameSize() - startHeaderLength) + (long) (id - 1) * (getFrameSize() - 4);
+	}
+
+	private static int getFrameId(byte[] frame) {
+		return ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.capacity()) {
+			ByteBuffer expanded = ByteBuffer.allocate(Math.min(Math.max(capacity, buffer.capacity() * 2), maxMessageSize));
+			System.arraycopy(buffer.array(), 0, expanded.array(), 0, length);
+			buffer = expanded;
+		}
+	}
+
+	private ByteBuffer slice(int from, int to) {
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.limit(to).position(from);
+		return view.slice();
+	}
+
+	private static byte[] copy(ByteBuffer view) {
+		byte[] data = new byte[view.remaining()];
+		view.get(data);
+		return data;
 	}
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link HeaderCodec} encoding headers as {@code name:value} text lines. This
+ * is the original header format and is used when start frame doesn't have
+ * {@link MessageProtocol#MESSAGE_TYPE_BINARY_HEADER} set.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class TextHeaderCodec implements HeaderCodec {
+
+	@Override
+	public int getMessageTypeFlags() {
+		return 0;
+	}
+
+	@Override
+	public byte[] encode(Map<String, String> headers) {
+		StringBuilder buf = new StringBuilder();
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			String name = entry.getKey();
+			String value = entry.getValue();
+			if (name.indexOf(':') < 0 && name.indexOf('\n') < 0 && value.indexOf('\n') < 0) {
+				if (buf.length() > 0) {
+					buf.append('\n');
+				}
+				buf.append(name).append(':').append(value);
+			}
+		}
+		return buf.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Map<String, String> decode(ByteBuffer header) {
+		Map<String, String> headers = new HashMap<>();
+		byte[] data = new byte[header.remaining()];
+		header.get(data);
+		for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+			int index = line.indexOf(':');
+			if (index > 0) {
+				headers.put(line.substring(0, index), line.substring(index + 1));
+			}
+		}
+		return headers;
+	}
+}
@@ -15,17 +15,20 @@
  */
 package org.springframework.cloud.iot.xbee.protocol;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.iot.support.HexUtils;
 import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.util.Assert;
 
 /**
  * {@code TxMessageProtocol} is a transmission implementation of a
  * {@link MessageProtocol}.
+ * <p>
+ * Frames are either built as separate arrays with {@link #getFrames()} or
+ * encoded one at a time into a reused per-thread buffer with
+ * {@link #writeFrames(FrameCallback)}, which is a sending path not allocating
+ * per frame.
  *
  * @author Janne Valkealahti
  * @see MessageProtocol
@@ -34,9 +37,13 @@ import org.springframework.cloud.iot.support.IotUtils;
 public class TxMessageProtocol extends MessageProtocol {
 
 	private static final Logger log = LoggerFactory.getLogger(TxMessageProtocol.class);
+	private static final ThreadLocal<FrameBuffers> FRAME_BUFFERS = ThreadLocal.withInitial(FrameBuffers::new);
 	private final byte[] header;
 	private final byte[] payload;
 	private final short sessionId;
+	private final int flags;
+	private final int bootId;
+	private final int routingId;
 
 	/**
 	 * Instantiates a new tx message protocol.
@@ -56,10 +63,112 @@ public class TxMessageProtocol extends MessageProtocol {
 	 * @param sessionId the session id
 	 */
 	public TxMessageProtocol(byte[] header, byte[] payload, short sessionId) {
-		super(DEFAULT_FRAME_SIZE);
+		this(header, payload, sessionId, DEFAULT_FRAME_SIZE);
+	}
+
+	/**
+	 * Instantiates a new tx message protocol.
+	 *
+	 * @param header the header data
+	 * @param payload the payload data
+	 * @param sessionId the session id
+	 * @param frameSize the frame size
+	 */
+	public TxMessageProtocol(byte[] header, byte[] payload, short sessionId, int frameSize) {
+		this(header, payload, sessionId, frameSize, 0);
+	}
+
+	/**
+	 * Instantiates a new tx message protocol.
+	 *
+	 * @param header the header data
+	 * @param payload the payload data
+	 * @param sessionId the session id
+	 * @param frameSize the frame size
+	 * @param flags the additional message type flags set in a start frame
+	 */
+	public TxMessageProtocol(byte[] header, byte[] payload, short sessionId, int frameSize, int flags) {
+		this(header, payload, sessionId, frameSize, flags, -1);
+	}
+
+	/**
+	 * Instantiates a new tx message protocol.
+	 *
+	 * @param header the header data
+	 * @param payload the payload data
+	 * @param sessionId the session id
+	 * @param frameSize the frame size
+	 * @param flags the additional message type flags set in a start frame
+	 * @param bootId the sender boot id carried in a start frame, negative if not sent
+	 */
+	public TxMessageProtocol(byte[] header, byte[] payload, short sessionId, int frameSize, int flags, int bootId) {
+		this(header, payload, sessionId, frameSize, flags, bootId, -1);
+	}
+
+	/**
+	 * Instantiates a new tx message protocol.
+	 *
+	 * @param header the header data
+	 * @param payload the payload data
+	 * @param sessionId the session id
+	 * @param frameSize the frame size
+	 * @param flags the additional message type flags set in a start frame
+	 * @param bootId the sender boot id carried in a start frame, negative if not sent
+	 * @param routingId the routing id carried in a start frame, negative if not sent
+	 */
+	public TxMessageProtocol(byte[] header, byte[] payload, short sessionId, int frameSize, int flags, int bootId,
+			int routingId) {
+		super(frameSize);
+		Assert.isTrue(bootId <= MAX_BOOT_ID, "'bootId' must not be greater than " + MAX_BOOT_ID);
+		Assert.isTrue(routingId <= MAX_ROUTING_ID, "'routingId' must not be greater than " + MAX_ROUTING_ID);
 		this.header = header != null ? header : new byte[0];
 		this.payload = payload != null ? payload : new byte[0];
 		this.sessionId = sessionId;
+		flags = bootId >= 0 ? flags | MESSAGE_TYPE_BOOT_ID : flags & ~MESSAGE_TYPE_BOOT_ID;
+		flags = routingId >= 0 ? flags | MESSAGE_TYPE_ROUTING_ID : flags & ~MESSAGE_TYPE_ROUTING_ID;
+		flags = frameSize != DEFAULT_FRAME_SIZE ? flags | MESSAGE_TYPE_FRAME_SIZE : flags & ~MESSAGE_TYPE_FRAME_SIZE;
+		this.flags = flags;
+		this.bootId = bootId;
+		this.routingId = routingId;
+	}
+
+	/**
+	 * Gets the session id.
+	 *
+	 * @return the session id
+	 */
+	public short getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Gets the sender boot id.
+	 *
+	 * @return the boot id, negative if not sent
+	 */
+	public int getBootId() {
+		return bootId;
+	}
+
+	/**
+	 * Gets the routing id.
+	 *
+	 * @return the routing id, negative if not sent
+	 */
+	public int getRoutingId() {
+		return routingId;
+	}
+
+	/**
+	 * Creates a new tx message protocol sharing header, payload and flags
+	 * with this one but having a different session id, thus a message
+	 * encoded once can be sent to many destinations.
+	 *
+	 * @param sessionId the session id
+	 * @return the tx message protocol
+	 */
+	public TxMessageProtocol withSessionId(short sessionId) {
+		return new TxMessageProtocol(header, payload, sessionId, getFrameSize(), flags, bootId, routingId);
 	}
 
 	/**
@@ -68,44 +177,137 @@ public class TxMessageProtocol extends MessageProtocol {
 	 * @return the array of frames
 	 */
 	public byte[][] getFrames() {
+		byte[][] frames = new byte[calculateFrameCount()][];
+		writeFrames((id, frame) -> frames[id] = frame.clone());
+		return frames;
+	}
+
+	/**
+	 * Encode frames one at a time and pass those to a given callback. Frame
+	 * array is a reusable buffer owned by a calling thread and is valid only
+	 * until callback returns, thus callback must not keep a reference to it.
+	 * Encoding allocates nothing as long as frame lengths stay same, which is
+	 * a case with a full frame and with an end frame of a same length as
+	 * with a previous message.
+	 *
+	 * @param <E> the type of exception thrown by a callback
+	 * @param callback the frame callback
+	 * @throws E if callback throws
+	 */
+	public <E extends Exception> void writeFrames(FrameCallback<E> callback) throws E {
 		int frameLength = getFrameSize();
+		int startHeaderLength = getStartHeaderLength(flags);
 		int frameCount = calculateFrameCount();
-		byte[] tmp = IotUtils.concat(header, payload);
-		byte[][] frames = new byte[frameCount][];
+		int dataLength = header.length + payload.length;
+		FrameBuffers buffers = FRAME_BUFFERS.get();
 		int position = 0;
 		for (int i = 0; i < frameCount; i++) {
 			int messageType = 0x00;
 			if (i == 0) {
-				messageType = IotUtils.setBit(messageType, MessageProtocol.MESSAGE_TYPE_START);
+				messageType = IotUtils.setBit(messageType, MessageProtocol.MESSAGE_TYPE_START | flags);
 			}
 			if (i == (frameCount - 1)) {
 				messageType = IotUtils.setBit(messageType, MessageProtocol.MESSAGE_TYPE_END);
 			}
-			ByteBuffer buffer = ByteBuffer
-					.allocate(frameLength)
-					.put((byte) messageType)
-					.put((byte) sessionId).putShort((short) i);
+			int frameHeaderLength = i == 0 ? startHeaderLength : 4;
+			int takeLength = Math.max(0, Math.min(frameLength - frameHeaderLength, dataLength - position));
+			byte[] frame = buffers.get(frameHeaderLength + takeLength, frameLength);
+			frame[0] = (byte) messageType;
+			frame[1] = (byte) sessionId;
+			frame[2] = (byte) (i >> 8);
+			frame[3] = (byte) i;
 			if (i == 0) {
-				buffer.putInt(header.length);
+				frame[4] = (byte) (header.length >> 24);
+				frame[5] = (byte) (header.length >> 16);
+				frame[6] = (byte) (header.length >> 8);
+				frame[7] = (byte) header.length;
+				int offset = 8;
+				if (frameLength != DEFAULT_FRAME_SIZE) {
+					frame[offset++] = (byte) (frameLength >> 8);
+					frame[offset++] = (byte) frameLength;
+				}
+				if (bootId >= 0) {
+					frame[offset++] = (byte) bootId;
+				}
+				if (routingId >= 0) {
+					frame[offset++] = (byte) (routingId >> 8);
+					frame[offset++] = (byte) routingId;
+				}
+			}
+			copyData(position, frame, frameHeaderLength, takeLength);
+			if (log.isTraceEnabled()) {
+				log.trace("Construct frame {} \n{}", i, HexUtils.prettyHexDump(frame));
 			}
-			int takeLength = frameLength - (i == 0 ? 8 : 4);
-			byte[] bytes = Arrays.copyOfRange(tmp, position, Math.min(position + takeLength, tmp.length));
-			log.debug("Construct frame {} as {} \n{}", i, bytes, HexUtils.prettyHexDump(bytes));
-			buffer.put(bytes);
-			byte[] b = new byte[buffer.position()];
-			buffer.flip();
-			buffer.get(b);
-			frames[i] = b;
+			callback.doWithFrame(i, frame);
 			position += takeLength;
 		}
-		return frames;
+	}
+
+	/**
+	 * Gets the number of frames this message is split into.
+	 *
+	 * @return the frame count
+	 */
+	public int getFrameCount() {
+		return calculateFrameCount();
+	}
+
+	private void copyData(int position, byte[] frame, int offset, int length) {
+		// header and payload are encoded as one continuous sequence
+		if (position < header.length) {
+			int fromHeader = Math.min(length, header.length - position);
+			System.arraycopy(header, position, frame, offset, fromHeader);
+			System.arraycopy(payload, 0, frame, offset + fromHeader, length - fromHeader);
+		} else {
+			System.arraycopy(payload, position - header.length, frame, offset, length);
+		}
 	}
 
 	private int calculateFrameCount() {
-		// first package has 8 byte header, so need to add 4
-		int total = payload.length + header.length + 4;
-		int frameCount = total / (getFrameSize() - 4);
-		frameCount += 1;
-		return frameCount;
+		// first package has longer header, so need to add its extra length
+		int total = payload.length + header.length + getStartHeaderLength(flags) - 4;
+		int frameDataLength = getFrameSize() - 4;
+		return Math.max(1, (total + frameDataLength - 1) / frameDataLength);
+	}
+
+	/**
+	 * Callback receiving encoded frames.
+	 *
+	 * @param <E> the type of exception thrown
+	 */
+	@FunctionalInterface
+	public interface FrameCallback<E extends Exception> {
+
+		/**
+		 * Handle an encoded frame.
+		 *
+		 * @param frameId the frame id
+		 * @param frame the frame, valid only until this method returns
+		 * @throws E if frame handling fails
+		 */
+		void doWithFrame(int frameId, byte[] frame) throws E;
+	}
+
+	/**
+	 * Per-thread frame buffers, one for full frames and one for a shorter
+	 * end frame as device api needs arrays of exact frame length.
+	 */
+	private static class FrameBuffers {
+
+		private byte[] full = new byte[0];
+		private byte[] partial = new byte[0];
+
+		byte[] get(int length, int frameLength) {
+			if (length == frameLength) {
+				if (full.length != length) {
+					full = new byte[length];
+				}
+				return full;
+			}
+			if (partial.length != length) {
+				partial = new byte[length];
+			}
+			return partial;
+		}
 	}
 }
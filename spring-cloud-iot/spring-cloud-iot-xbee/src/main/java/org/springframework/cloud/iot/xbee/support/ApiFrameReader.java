@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Reader doing blocking bulk reads from a serial {@link InputStream} and
+ * splitting read bytes into complete XBee API frames. Frames found from one
+ * read are handed over as a single batch into {@link #getInputStream()}
+ * and a batch listener is called once per batch, thus a consumer parsing
+ * frames byte by byte never needs to wait for a partial frame.
+ * <p>
+ * Bytes not belonging to any frame are discarded. Read throughput is
+ * sampled roughly once per second and available from
+ * {@link #getBytesPerSecond()} and {@link #getFramesPerSecond()}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class ApiFrameReader implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(ApiFrameReader.class);
+	public final static int DEFAULT_BUFFER_SIZE = 4096;
+	private final static int START_DELIMITER = 0x7E;
+	private final static int ESCAPE = 0x7D;
+	private final static int ESCAPE_XOR = 0x20;
+	private final static int INCOMPLETE = -1;
+	private final static int INVALID = -2;
+	private final static long RATE_INTERVAL = 1000;
+	private final InputStream source;
+	private final Runnable batchListener;
+	private final byte[] buffer;
+	private final byte[] batch;
+	private final FrameInputStream frameStream = new FrameInputStream();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong framesRead = new AtomicLong();
+	private final AtomicLong discardedBytes = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private int count;
+	private volatile boolean escaped;
+	private volatile boolean running = true;
+	private long rateTimestamp = System.currentTimeMillis();
+	private long rateBytes;
+	private long rateFrames;
+	private volatile long bytesPerSecond;
+	private volatile long framesPerSecond;
+
+	/**
+	 * Instantiates a new api frame reader.
+	 *
+	 * @param source the source input stream
+	 * @param batchListener the listener called when new frames are available
+	 */
+	public ApiFrameReader(InputStream source, Runnable batchListener) {
+		this(source, batchListener, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Instantiates a new api frame reader.
+	 *
+	 * @param source the source input stream
+	 * @param batchListener the listener called when new frames are available
+	 * @param bufferSize the read buffer size
+	 */
+	public ApiFrameReader(InputStream source, Runnable batchListener, int bufferSize) {
+		this(source, batchListener, bufferSize, false);
+	}
+
+	/**
+	 * Instantiates a new api frame reader.
+	 *
+	 * @param source the source input stream
+	 * @param batchListener the listener called when new frames are available
+	 * @param bufferSize the read buffer size
+	 * @param escaped if frames are in escaped api mode
+	 */
+	public ApiFrameReader(InputStream source, Runnable batchListener, int bufferSize, boolean escaped) {
+		Assert.notNull(source, "'source' must be set");
+		Assert.notNull(batchListener, "'batchListener' must be set");
+		Assert.isTrue(bufferSize > 8, "'bufferSize' must be greater than 8");
+		this.source = source;
+		this.batchListener = batchListener;
+		this.buffer = new byte[bufferSize];
+		this.batch = new byte[bufferSize];
+		this.escaped = escaped;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			int n;
+			try {
+				n = source.read(buffer, count, buffer.length - count);
+			} catch (IOException e) {
+				if (running) {
+					log.error("Serial read failed", e);
+				}
+				break;
+			}
+			if (n < 0) {
+				break;
+			} else if (n > 0) {
+				count += n;
+				bytesRead.addAndGet(n);
+				publish(scanFrames());
+			} else if (frameStream.available() > 0) {
+				// read timed out, wake up a consumer which may have missed
+				// a notification while checking available bytes
+				batchListener.run();
+			}
+			updateRates();
+		}
+		running = false;
+	}
+
+	/**
+	 * Stops this reader. Blocked read is not interrupted, thus source stream
+	 * should either have a read timeout or get closed.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Checks if this reader is running.
+	 *
+	 * @return true, if running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Sets if frames are in escaped api mode where special bytes following
+	 * a start delimiter are escaped.
+	 *
+	 * @param escaped the new escaped
+	 */
+	public void setEscaped(boolean escaped) {
+		this.escaped = escaped;
+	}
+
+	/**
+	 * Gets the input stream providing complete frames.
+	 *
+	 * @return the input stream
+	 */
+	public InputStream getInputStream() {
+		return frameStream;
+	}
+
+	/**
+	 * Gets the total number of bytes read.
+	 *
+	 * @return the bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	/**
+	 * Gets the total number of complete frames read.
+	 *
+	 * @return the frames read
+	 */
+	public long getFramesRead() {
+		return framesRead.get();
+	}
+
+	/**
+	 * Gets the total number of bytes discarded as not belonging to any frame.
+	 *
+	 * @return the discarded bytes
+	 */
+	public long getDiscardedBytes() {
+		return discardedBytes.get();
+	}
+
+	/**
+	 * Gets the total number of batches handed to a consumer.
+	 *
+	 * @return the batch count
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * Gets the bytes per second read during a last sampling interval.
+	 *
+	 * @return the bytes per second
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Gets the frames per second read during a last sampling interval.
+	 *
+	 * @return the frames per second
+	 */
+	public long getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	private int scanFrames() {
+		int batchLength = 0;
+		int position = 0;
+		while (position < count) {
+			if ((buffer[position] & 0xFF) != START_DELIMITER) {
+				position++;
+				discardedBytes.incrementAndGet();
+				continue;
+			}
+			int length = frameLength(position);
+			if (length == INCOMPLETE) {
+				break;
+			} else if (length == INVALID) {
+				position++;
+				discardedBytes.incrementAndGet();
+				continue;
+			}
+			System.arraycopy(buffer, position, batch, batchLength, length);
+			batchLength += length;
+			position += length;
+			framesRead.incrementAndGet();
+		}
+		count -= position;
+		if (count > 0) {
+			System.arraycopy(buffer, position, buffer, 0, count);
+		}
+		if (count == buffer.length) {
+			// frame can never complete, drop its delimiter to resync
+			System.arraycopy(buffer, 1, buffer, 0, --count);
+			discardedBytes.incrementAndGet();
+		}
+		return batchLength;
+	}
+
+	private int frameLength(int position) {
+		// logical bytes after delimiter are length msb, length lsb, frame data
+		// and checksum, in escaped mode any of those may be escaped
+		int index = position + 1;
+		int logical = 0;
+		int needed = Integer.MAX_VALUE;
+		int length = 0;
+		while (logical < needed) {
+			if (index >= count) {
+				return INCOMPLETE;
+			}
+			int value = buffer[index++] & 0xFF;
+			if (escaped) {
+				if (value == START_DELIMITER) {
+					return INVALID;
+				} else if (value == ESCAPE) {
+					if (index >= count) {
+						return INCOMPLETE;
+					}
+					value = (buffer[index++] & 0xFF) ^ ESCAPE_XOR;
+				}
+			}
+			logical++;
+			if (logical == 1) {
+				length = value << 8;
+			} else if (logical == 2) {
+				length |= value;
+				needed = length + 3;
+				if (length == 0 || length + 4 > buffer.length) {
+					return INVALID;
+				}
+			}
+		}
+		return index - position;
+	}
+
+	private void publish(int batchLength) {
+		if (batchLength > 0) {
+			frameStream.add(Arrays.copyOf(batch, batchLength));
+			batchCount.incrementAndGet();
+			batchListener.run();
+		}
+	}
+
+	private void updateRates() {
+		long now = System.currentTimeMillis();
+		long elapsed = now - rateTimestamp;
+		if (elapsed >= RATE_INTERVAL) {
+			long bytes = bytesRead.get();
+			long frames = framesRead.get();
+			bytesPerSecond = (bytes - rateBytes) * 1000 / elapsed;
+			framesPerSecond = (frames - rateFrames) * 1000 / elapsed;
+			rateBytes = bytes;
+			rateFrames = frames;
+			rateTimestamp = now;
+		}
+	}
+
+	/**
+	 * {@link InputStream} reading from queued frame batches. Never blocks and
+	 * returns {@code -1} if there is nothing to read.
+	 */
+	private static class FrameInputStream extends InputStream {
+
+		private final ConcurrentLinkedQueue<byte[]> batches = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger available = new AtomicInteger();
+		private byte[] current;
+		private int position;
+
+		void add(byte[] batch) {
+			batches.add(batch);
+			available.addAndGet(batch.length);
+		}
+
+		@Override
+		public int read() {
+			if (!nextBatch()) {
+				return -1;
+			}
+			available.decrementAndGet();
+			return current[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextBatch()) {
+				return -1;
+			}
+			int n = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, n);
+			position += n;
+			available.addAndGet(-n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return available.get();
+		}
+
+		private boolean nextBatch() {
+			if (current == null || position >= current.length) {
+				current = batches.poll();
+				position = 0;
+			}
+			return current != null;
+		}
+	}
+}
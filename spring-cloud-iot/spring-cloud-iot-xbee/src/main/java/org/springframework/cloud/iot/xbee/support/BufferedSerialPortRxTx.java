@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import java.io.InputStream;
+
+import com.digi.xbee.api.exceptions.InterfaceInUseException;
+import com.digi.xbee.api.exceptions.InvalidConfigurationException;
+import com.digi.xbee.api.exceptions.InvalidInterfaceException;
+import com.digi.xbee.api.exceptions.PermissionDeniedException;
+
+/**
+ * {@link SerialPortRxTx} reading a serial port with a dedicated reader thread
+ * instead of relying on data available events. Reader thread does blocking
+ * bulk reads and wakes up XBee library's packet reader once per batch of
+ * complete api frames using {@link ApiFrameReader}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class BufferedSerialPortRxTx extends SerialPortRxTx {
+
+	private volatile ApiFrameReader frameReader;
+	private Thread readerThread;
+	private volatile boolean escaped;
+
+	/**
+	 * Instantiates a new buffered serial port rx tx.
+	 *
+	 * @param port the serial port name
+	 * @param baudRate the serial port baud rate
+	 */
+	public BufferedSerialPortRxTx(String port, int baudRate) {
+		super(port, baudRate);
+	}
+
+	/**
+	 * Instantiates a new buffered serial port rx tx.
+	 *
+	 * @param port the serial port name
+	 * @param baudRate the serial port baud rate
+	 * @param receiveTimeout the serial port receive timeout in milliseconds
+	 */
+	public BufferedSerialPortRxTx(String port, int baudRate, int receiveTimeout) {
+		super(port, baudRate, receiveTimeout);
+	}
+
+	@Override
+	public void open() throws InterfaceInUseException, InvalidInterfaceException, InvalidConfigurationException,
+			PermissionDeniedException {
+		super.open();
+		// reader is fully configured before its thread starts consuming bytes
+		ApiFrameReader reader = new ApiFrameReader(getSerialInputStream(), this::notifyDataAvailable,
+				ApiFrameReader.DEFAULT_BUFFER_SIZE, escaped);
+		frameReader = reader;
+		readerThread = new Thread(() -> {
+			reader.run();
+			if (frameReader == reader) {
+				// reader stopped on its own, serial device has been disconnected
+				close();
+			}
+		}, "xbee-serial-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	@Override
+	public void close() {
+		ApiFrameReader reader = frameReader;
+		frameReader = null;
+		if (reader != null) {
+			reader.stop();
+		}
+		super.close();
+		Thread thread = readerThread;
+		readerThread = null;
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// wake up packet reader so that it notices closed connection
+		notifyDataAvailable();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		ApiFrameReader reader = frameReader;
+		return reader != null ? reader.getInputStream() : null;
+	}
+
+	@Override
+	protected boolean isDataAvailableEventEnabled() {
+		return false;
+	}
+
+	/**
+	 * Sets if device is in escaped api mode. Should be set before connection
+	 * is opened as frames exchanged while opening it are otherwise parsed in
+	 * a wrong mode.
+	 *
+	 * @param escaped the new escaped
+	 */
+	public void setEscaped(boolean escaped) {
+		this.escaped = escaped;
+		ApiFrameReader reader = frameReader;
+		if (reader != null) {
+			reader.setEscaped(escaped);
+		}
+	}
+
+	/**
+	 * Gets the bytes per second read during a last sampling interval.
+	 *
+	 * @return the bytes per second
+	 */
+	public long getBytesPerSecond() {
+		ApiFrameReader reader = frameReader;
+		return reader != null ? reader.getBytesPerSecond() : 0;
+	}
+
+	/**
+	 * Gets the frames per second read during a last sampling interval.
+	 *
+	 * @return the frames per second
+	 */
+	public long getFramesPerSecond() {
+		ApiFrameReader reader = frameReader;
+		return reader != null ? reader.getFramesPerSecond() : 0;
+	}
+
+	/**
+	 * Gets the frame reader of an open connection.
+	 *
+	 * @return the frame reader, {@code null} if connection is not open
+	 */
+	public ApiFrameReader getFrameReader() {
+		return frameReader;
+	}
+
+	private void notifyDataAvailable() {
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+}
@@ -15,29 +15,53 @@
  */
 package org.springframework.cloud.iot.xbee.support;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.cloud.iot.support.HexUtils;
+import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.cloud.iot.xbee.GroupSendResult;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
 import org.springframework.cloud.iot.xbee.XBeeReceiver;
 import org.springframework.cloud.iot.xbee.XBeeSender;
 import org.springframework.cloud.iot.xbee.listener.CompositeXBeeReceiverListener;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
 import org.springframework.cloud.iot.xbee.listener.XBeeReceiverListener;
+import org.springframework.cloud.iot.xbee.protocol.MessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.NackMessageProtocol;
 import org.springframework.cloud.iot.xbee.protocol.RxMessageProtocol;
 import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 
+import com.digi.xbee.api.RemoteXBeeDevice;
 import com.digi.xbee.api.XBeeDevice;
-import com.digi.xbee.api.exceptions.TimeoutException;
 import com.digi.xbee.api.exceptions.XBeeException;
 import com.digi.xbee.api.listeners.IDataReceiveListener;
+import com.digi.xbee.api.models.XBee64BitAddress;
 import com.digi.xbee.api.models.XBeeMessage;
 
 /**
@@ -45,18 +69,66 @@ import com.digi.xbee.api.models.XBeeMessage;
  * implementation tries to provide easier way to work with a raw
  * {@link XBeeDevice} providing higher level transport protocol to overcome
  * XBee's limitations of a payload size per frame.
+ * <p>
+ * Messages having a {@link XBeeHeaders#DESTINATION_ADDRESS} header are sent as
+ * unicast to that device, other messages are broadcasted. Received messages
+ * get a {@link XBeeHeaders#SOURCE_ADDRESS} header for replying to an
+ * originating device, and a {@link XBeeHeaders#ROUTING_ID} header if a
+ * sender set one.
+ * <p>
+ * Messages are queued into a bounded send queue drained by a single writer
+ * thread which owns sending side of a device. What happens when the queue is
+ * full is controlled by an {@link OverflowPolicy}.
+ * <p>
+ * Unless frame size is set explicitly, device is asked for its maximum RF
+ * payload size with {@code NP} parameter during initialization and frames are
+ * sized to that.
+ * <p>
+ * Lost frames of a received message are requested again with a nack when an
+ * end frame arrives with earlier frames missing or when a session stalls, and
+ * frames requested by nacks from other devices are retransmitted. Late
+ * copies of frames and messages which were already received are dropped
+ * before reassembly and before being passed to listeners.
+ * <p>
+ * Received messages are passed to listeners on a thread receiving frames
+ * unless an {@link OrderedDispatcher} is set, in which case a slow listener
+ * only holds up messages from devices sharing its dispatcher stripe and
+ * messages overflowing a full stripe queue are dropped by default instead
+ * of stalling a receiving thread.
+ * <p>
+ * A message sent to a group of devices is encoded once and its unicasts are
+ * interleaved with other sent messages, failed unicasts are retried and
+ * results are aggregated into a {@link GroupSendResult}.
  *
  * @author Janne Valkealahti
  *
  */
-public class DefaultXBeeComponent implements XBeeSender, XBeeReceiver {
+public class DefaultXBeeComponent implements XBeeSender, XBeeReceiver, InitializingBean, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(DefaultXBeeComponent.class);
 
+	public final static int DEFAULT_SEND_QUEUE_CAPACITY = 64;
+	public final static int DEFAULT_GROUP_SEND_WINDOW = 8;
+	public final static int DEFAULT_GROUP_SEND_RETRIES = 2;
+	public final static long DEFAULT_LINK_QUALITY_INTERVAL = 10000;
+	private final static long BROADCAST_ADDRESS = XBeeUtils.toLong(XBee64BitAddress.BROADCAST_ADDRESS);
+	private final static long NACK_CHECK_INTERVAL = 500;
 	private final XBeeDevice xbeeDevice;
 	private final CompositeXBeeReceiverListener receiverListener = new CompositeXBeeReceiverListener();
 	private final XBeeIDataReceiveListener xbeeDataListener = new XBeeIDataReceiveListener();
-	private final MessageProtocolSessions sessions = new MessageProtocolSessions();
+	private final MessageProtocolSessions sessions;
+	private final BlockingQueue<PendingMessage> sendQueue;
+	private final Queue<GroupSend> groupSends = new ConcurrentLinkedQueue<>();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private volatile int groupSendWindow = DEFAULT_GROUP_SEND_WINDOW;
+	private volatile int groupSendRetries = DEFAULT_GROUP_SEND_RETRIES;
+	private volatile XBeeMetricsListener metricsListener = XBeeMetricsListener.NONE;
+	private volatile long linkQualityInterval = DEFAULT_LINK_QUALITY_INTERVAL;
+	private volatile OrderedDispatcher receiveDispatcher;
+	private volatile Thread writerThread;
+	private volatile boolean destroyed;
+	private boolean frameSizeSet;
 
 	/**
 	 * Instantiates a new default xbee component.
@@ -64,28 +136,525 @@ public class DefaultXBeeComponent implements XBeeSender, XBeeReceiver {
 	 * @param xbeeDevice the xbee device
 	 */
 	public DefaultXBeeComponent(XBeeDevice xbeeDevice) {
+		this(xbeeDevice, new MessageProtocolSessions());
+	}
+
+	/**
+	 * Instantiates a new default xbee component.
+	 *
+	 * @param xbeeDevice the xbee device
+	 * @param sessions the message protocol sessions
+	 */
+	public DefaultXBeeComponent(XBeeDevice xbeeDevice, MessageProtocolSessions sessions) {
+		this(xbeeDevice, sessions, DEFAULT_SEND_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new default xbee component.
+	 *
+	 * @param xbeeDevice the xbee device
+	 * @param sessions the message protocol sessions
+	 * @param sendQueueCapacity the send queue capacity
+	 */
+	public DefaultXBeeComponent(XBeeDevice xbeeDevice, MessageProtocolSessions sessions, int sendQueueCapacity) {
+		Assert.notNull(xbeeDevice, "'xbeeDevice' must be set");
+		Assert.notNull(sessions, "'sessions' must be set");
+		Assert.isTrue(sendQueueCapacity > 0, "'sendQueueCapacity' must be positive");
 		this.xbeeDevice = xbeeDevice;
+		this.sessions = sessions;
+		this.sendQueue = new LinkedBlockingQueue<>(sendQueueCapacity);
 		this.xbeeDevice.addDataListener(xbeeDataListener);
 	}
 
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		startWriterIfNeeded();
+		if (!frameSizeSet) {
+			Integer frameSize = queryMaxPayloadSize();
+			if (frameSize != null) {
+				sessions.setFrameSize(frameSize);
+			}
+		}
+		log.info("Using frame size {}", sessions.getFrameSize());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When called on a writer thread, i.e. from a completion callback of an
+	 * asynchronous send, message is sent inline as waiting for a writer thread
+	 * to drain the queue would never return.
+	 */
 	@Override
 	public void sendMessage(Message<byte[]> message) {
+		if (isWriterThread()) {
+			if (destroyed) {
+				throw new MessagingException(message, "Component has been destroyed");
+			}
+			doSendMessage(message);
+			return;
+		}
+		try {
+			sendMessageAsync(message).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException(message, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MessagingException) {
+				throw (MessagingException) e.getCause();
+			}
+			throw new MessagingException(message, e.getCause());
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> sendMessageAsync(Message<byte[]> message) {
+		PendingMessage pending = new PendingMessage(message);
+		if (destroyed) {
+			pending.future.completeExceptionally(new MessagingException(message, "Component has been destroyed"));
+			return pending.future;
+		}
+		startWriterIfNeeded();
+		switch (overflowPolicy) {
+		case BLOCK:
+			if (isWriterThread()) {
+				// writer can't wait for itself to make room in the queue
+				if (!sendQueue.offer(pending)) {
+					send(pending);
+				}
+				break;
+			}
+			try {
+				sendQueue.put(pending);
+				signalWriter();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pending.future.completeExceptionally(new MessagingException(message, e));
+			}
+			break;
+		case DROP_OLDEST:
+			while (!sendQueue.offer(pending)) {
+				PendingMessage oldest = sendQueue.poll();
+				if (oldest != null) {
+					droppedCount.incrementAndGet();
+					oldest.future.completeExceptionally(
+							new MessagingException(oldest.message, "Message dropped as send queue is full"));
+				}
+			}
+			signalWriter();
+			break;
+		case FAIL_FAST:
+			if (!sendQueue.offer(pending)) {
+				droppedCount.incrementAndGet();
+				pending.future.completeExceptionally(new MessagingException(message, "Send queue is full"));
+			} else {
+				signalWriter();
+			}
+			break;
+		}
+		return pending.future;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Message is encoded once and unicasts are sent by a writer thread
+	 * interleaved with other queued messages, sending at most a group send
+	 * window of unicasts from a group before letting other messages through.
+	 * Unicasts failing to get delivered are retried up to group send retries
+	 * times after other addresses of a group have been tried.
+	 */
+	@Override
+	public CompletableFuture<GroupSendResult> sendGroupMessageAsync(Collection<XBee64BitAddress> addresses,
+			Message<byte[]> message) {
+		Assert.notNull(addresses, "'addresses' must be set");
+		GroupSend group;
+		try {
+			group = new GroupSend(message, sessions.encodeTxMessage(message), addresses, groupSendRetries);
+		} catch (RuntimeException e) {
+			CompletableFuture<GroupSendResult> future = new CompletableFuture<>();
+			future.completeExceptionally(new MessagingException(message, e));
+			return future;
+		}
+		if (destroyed) {
+			group.failRemaining(new MessagingException(message, "Component has been destroyed"));
+		} else if (!group.isDone()) {
+			startWriterIfNeeded();
+			groupSends.add(group);
+			if (destroyed) {
+				failIfQueued(group);
+			} else {
+				signalWriter();
+			}
+		}
+		return group.future;
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		destroyed = true;
+		Thread thread = writerThread;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join(1000);
+		}
+		PendingMessage pending;
+		while ((pending = sendQueue.poll()) != null) {
+			pending.future.completeExceptionally(new MessagingException(pending.message, "Component has been destroyed"));
+		}
+		GroupSend group;
+		while ((group = groupSends.poll()) != null) {
+			group.failRemaining(new MessagingException(group.message, "Component has been destroyed"));
+		}
+		OrderedDispatcher dispatcher = receiveDispatcher;
+		if (dispatcher != null) {
+			dispatcher.destroy();
+		}
+	}
+
+	/**
+	 * Sets the overflow policy used when the send queue is full. Defaults to
+	 * {@link OverflowPolicy#BLOCK}.
+	 *
+	 * @param overflowPolicy the new overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "'overflowPolicy' must be set");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Sets the max number of group unicasts sent in a row before other queued
+	 * messages are sent. Defaults to {@link #DEFAULT_GROUP_SEND_WINDOW}.
+	 *
+	 * @param groupSendWindow the new group send window
+	 */
+	public void setGroupSendWindow(int groupSendWindow) {
+		Assert.isTrue(groupSendWindow > 0, "'groupSendWindow' must be positive");
+		this.groupSendWindow = groupSendWindow;
+	}
+
+	/**
+	 * Sets the number of times a failed group unicast is retried per address.
+	 * Defaults to {@link #DEFAULT_GROUP_SEND_RETRIES}.
+	 *
+	 * @param groupSendRetries the new group send retries
+	 */
+	public void setGroupSendRetries(int groupSendRetries) {
+		Assert.isTrue(groupSendRetries >= 0, "'groupSendRetries' must not be negative");
+		this.groupSendRetries = groupSendRetries;
+	}
+
+	/**
+	 * Sets the frame size used for sending messages. If not set, frame size
+	 * is queried from a device.
+	 *
+	 * @param frameSize the new frame size
+	 */
+	public void setFrameSize(int frameSize) {
+		sessions.setFrameSize(frameSize);
+		this.frameSizeSet = true;
+	}
+
+	/**
+	 * Sets the dispatcher used to deliver received messages to listeners.
+	 * If set, payloads and headers of fully received messages are decoded
+	 * and passed to listeners on dispatcher threads keeping an order per
+	 * source device, otherwise this happens on a thread receiving frames
+	 * from a device. Dispatcher is destroyed together with this component.
+	 *
+	 * @param receiveDispatcher the new receive dispatcher
+	 */
+	public void setReceiveDispatcher(OrderedDispatcher receiveDispatcher) {
+		this.receiveDispatcher = receiveDispatcher;
+	}
+
+	/**
+	 * Gets the dispatcher used to deliver received messages to listeners.
+	 *
+	 * @return the receive dispatcher, {@code null} if not set
+	 */
+	public OrderedDispatcher getReceiveDispatcher() {
+		return receiveDispatcher;
+	}
+
+	/**
+	 * Sets the listener notified about sent and received frames, transmit
+	 * failures, reassembled messages and sampled link quality. Listener is
+	 * also set to message protocol sessions of this component.
+	 *
+	 * @param metricsListener the new metrics listener
+	 */
+	public void setMetricsListener(XBeeMetricsListener metricsListener) {
+		Assert.notNull(metricsListener, "'metricsListener' must be set");
+		this.metricsListener = metricsListener;
+		sessions.setMetricsListener(metricsListener);
+	}
+
+	/**
+	 * Sets the interval in milliseconds a signal strength of a last received
+	 * packet is queried from a device with a {@code DB} command when metrics
+	 * listener is set, zero disables sampling. Defaults to
+	 * {@link #DEFAULT_LINK_QUALITY_INTERVAL}.
+	 *
+	 * @param linkQualityInterval the new link quality interval
+	 */
+	public void setLinkQualityInterval(long linkQualityInterval) {
+		Assert.isTrue(linkQualityInterval >= 0, "'linkQualityInterval' must not be negative");
+		this.linkQualityInterval = linkQualityInterval;
+	}
+
+	/**
+	 * Gets the message protocol sessions of this component.
+	 *
+	 * @return the message protocol sessions
+	 */
+	public MessageProtocolSessions getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Gets the number of messages waiting in the send queue.
+	 *
+	 * @return the send queue size
+	 */
+	public int getSendQueueSize() {
+		return sendQueue.size();
+	}
+
+	/**
+	 * Gets the number of messages dropped or rejected because the send queue
+	 * was full.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	private void deliverMessage(RxMessageProtocol rxMessageSession, XBee64BitAddress sourceAddress) {
+		byte[] payload;
+		Map<String, Object> headersToCopy;
+		try {
+			payload = rxMessageSession.getPayload();
+			headersToCopy = new HashMap<>(sessions.decodeHeaders(rxMessageSession));
+		} catch (IllegalArgumentException e) {
+			log.error("Dropping message from " + sourceAddress + " with invalid headers or payload", e);
+			return;
+		}
+		log.debug("Full frame headers={} payload={}", headersToCopy, payload);
+		headersToCopy.put(XBeeHeaders.SOURCE_ADDRESS, sourceAddress);
+		if (rxMessageSession.getRoutingId() >= 0) {
+			headersToCopy.put(XBeeHeaders.ROUTING_ID, rxMessageSession.getRoutingId());
+		}
+		receiverListener.onMessage(MessageBuilder.withPayload(payload).copyHeaders(headersToCopy).build());
+	}
+
+	private Integer queryMaxPayloadSize() {
+		try {
+			byte[] value = xbeeDevice.getParameter("NP");
+			int size = 0;
+			for (int i = 0; i < value.length; i++) {
+				size = (size << 8) | (value[i] & 0xFF);
+			}
+			if (size >= MessageProtocol.MIN_FRAME_SIZE && size <= MessageProtocol.MAX_FRAME_SIZE) {
+				return size;
+			}
+			log.warn("Ignoring invalid maximum payload size {} from device", size);
+		} catch (XBeeException e) {
+			log.warn("Unable to query maximum payload size from device, using default frame size", e);
+		}
+		return null;
+	}
+
+	private synchronized void startWriterIfNeeded() {
+		if (writerThread == null) {
+			Thread thread = new Thread(this::drainSendQueue, "xbee-writer");
+			thread.setDaemon(true);
+			thread.start();
+			writerThread = thread;
+		}
+	}
+
+	private void offerFrames(byte[][] frames, long address) {
+		// never block a receiving thread, lost control frames are recovered by timeouts
+		if (!sendQueue.offer(new PendingMessage(frames, XBeeUtils.toAddress(address)))) {
+			log.debug("Send queue full, dropping {} control frames to {}", frames.length, Long.toHexString(address));
+		} else {
+			signalWriter();
+		}
+	}
+
+	private void drainSendQueue() {
+		long nextNackCheck = System.currentTimeMillis() + NACK_CHECK_INTERVAL;
+		long nextLinkQualitySample = 0;
+		while (!destroyed) {
+			PendingMessage pending = sendQueue.poll();
+			if (pending == null && groupSends.isEmpty()) {
+				// woken up by signalWriter() when messages or group sends are added
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(NACK_CHECK_INTERVAL));
+				if (Thread.interrupted()) {
+					break;
+				}
+				pending = sendQueue.poll();
+			}
+			if (pending != null) {
+				send(pending);
+			}
+			sendGroupWindow();
+			long now = System.currentTimeMillis();
+			long interval = linkQualityInterval;
+			if (interval > 0 && now >= nextLinkQualitySample && metricsListener != XBeeMetricsListener.NONE) {
+				nextLinkQualitySample = now + interval;
+				sampleLinkQuality();
+			}
+			if (now >= nextNackCheck) {
+				nextNackCheck = now + NACK_CHECK_INTERVAL;
+				for (MessageProtocolSessions.Nack nack : sessions.createStalledNacks()) {
+					try {
+						doSendFrames(null, new byte[][] { nack.getFrame() }, XBeeUtils.toAddress(nack.getAddress()));
+					} catch (RuntimeException e) {
+						log.debug("Failed to send nack", e);
+					}
+				}
+			}
+		}
+		log.debug("Writer thread exiting");
+	}
+
+	private void send(PendingMessage pending) {
+		try {
+			if (pending.frames != null) {
+				doSendFrames(null, pending.frames, pending.destination);
+			} else {
+				doSendMessage(pending.message);
+			}
+			pending.future.complete(null);
+		} catch (RuntimeException e) {
+			pending.future.completeExceptionally(e);
+		}
+	}
+
+	private boolean isWriterThread() {
+		return Thread.currentThread() == writerThread;
+	}
+
+	private void sendGroupWindow() {
+		GroupSend group = groupSends.poll();
+		if (group == null) {
+			return;
+		}
+		for (int i = 0; i < groupSendWindow && !destroyed; i++) {
+			XBee64BitAddress destination = group.next();
+			if (destination == null) {
+				break;
+			}
+			try {
+				doSendMessage(group.message, group.prototype, destination);
+				group.delivered(destination);
+			} catch (RuntimeException e) {
+				log.debug("Group unicast to {} failed", destination, e);
+				group.failed(destination, e);
+			}
+		}
+		if (!group.isDone()) {
+			// round robin between active groups
+			groupSends.add(group);
+			if (destroyed) {
+				failIfQueued(group);
+			}
+		}
+	}
+
+	private void failIfQueued(GroupSend group) {
+		// destroy may have drained group sends before this group was added back
+		if (groupSends.remove(group)) {
+			group.failRemaining(new MessagingException(group.message, "Component has been destroyed"));
+		}
+	}
+
+	private void signalWriter() {
+		Thread thread = writerThread;
+		if (thread != null && thread != Thread.currentThread()) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void doSendMessage(Message<byte[]> message) {
+		XBee64BitAddress destination = resolveDestination(message);
+		TxMessageProtocol prototype;
+		try {
+			prototype = sessions.encodeTxMessage(message);
+		} catch (RuntimeException e) {
+			throw new MessagingException(message, e);
+		}
+		doSendMessage(message, prototype, destination);
+	}
+
+	private void doSendMessage(Message<byte[]> message, TxMessageProtocol prototype, XBee64BitAddress destination) {
+		long address = destination != null ? XBeeUtils.toLong(destination) : BROADCAST_ADDRESS;
 		// create session which handles sending this message
-		TxMessageProtocol tx = sessions.createTxSession(message);
-		for (byte[] frame : tx.getFrames()) {
+		TxMessageProtocol tx;
+		try {
+			tx = sessions.createTxSession(prototype, address);
+		} catch (IllegalStateException e) {
+			throw new MessagingException(message, e);
+		}
+		RemoteXBeeDevice remoteDevice = destination != null ? new RemoteXBeeDevice(xbeeDevice, destination) : null;
+		try {
+			// frames are encoded into a reused buffer and handed directly to a device
+			tx.writeFrames((id, frame) -> sendFrame(frame, remoteDevice, address));
+		} catch (XBeeException e) {
+			throw new MessagingException(message, e);
+		} finally {
+			sessions.completeTxSession(tx, address);
+		}
+	}
+
+	private void doSendFrames(Message<byte[]> message, byte[][] frames, XBee64BitAddress destination) {
+		RemoteXBeeDevice remoteDevice = destination != null ? new RemoteXBeeDevice(xbeeDevice, destination) : null;
+		long address = destination != null ? XBeeUtils.toLong(destination) : BROADCAST_ADDRESS;
+		for (byte[] frame : frames) {
 			try {
-				log.debug("Broadcasting device='{}' frame='{}'", xbeeDevice, frame);
-				log.trace("Broadcasting device='{}' \n{}", xbeeDevice, HexUtils.prettyHexDump(frame));
-				xbeeDevice.sendBroadcastData(frame);
-				log.debug("Broadcasting device='{}' done", xbeeDevice);
-			} catch (TimeoutException e) {
-				throw new MessagingException(message, e);
+				sendFrame(frame, remoteDevice, address);
 			} catch (XBeeException e) {
 				throw new MessagingException(message, e);
 			}
 		}
 	}
 
+	private void sendFrame(byte[] frame, RemoteXBeeDevice remoteDevice, long address) throws XBeeException {
+		try {
+			if (remoteDevice != null) {
+				if (log.isTraceEnabled()) {
+					log.trace("Sending device='{}' remote='{}' \n{}", xbeeDevice, remoteDevice, HexUtils.prettyHexDump(frame));
+				}
+				xbeeDevice.sendData(remoteDevice, frame);
+			} else {
+				if (log.isTraceEnabled()) {
+					log.trace("Broadcasting device='{}' \n{}", xbeeDevice, HexUtils.prettyHexDump(frame));
+				}
+				xbeeDevice.sendBroadcastData(frame);
+			}
+		} catch (XBeeException e) {
+			metricsListener.onTransmitFailure(address);
+			throw e;
+		}
+		metricsListener.onFrameSent(address, frame.length);
+	}
+
+	private void sampleLinkQuality() {
+		try {
+			byte[] value = xbeeDevice.getParameter("DB");
+			if (value != null && value.length > 0) {
+				// value is a positive number of -dBm
+				metricsListener.onLinkQuality(-(value[value.length - 1] & 0xFF));
+			}
+		} catch (XBeeException e) {
+			log.debug("Unable to sample link quality", e);
+		}
+	}
+
 	@Override
 	public void addXBeeReceiverListener(XBeeReceiverListener listener) {
 		receiverListener.register(listener);
@@ -96,39 +665,164 @@ public class DefaultXBeeComponent implements XBeeSender, XBeeReceiver {
 		receiverListener.unregister(listener);
 	}
 
+	private static XBee64BitAddress resolveDestination(Message<?> message) {
+		Object value = message.getHeaders().get(XBeeHeaders.DESTINATION_ADDRESS);
+		XBee64BitAddress destination = null;
+		if (value instanceof XBee64BitAddress) {
+			destination = (XBee64BitAddress) value;
+		} else if (value instanceof Long) {
+			destination = XBeeUtils.toAddress((Long) value);
+		} else if (value instanceof String) {
+			try {
+				destination = new XBee64BitAddress((String) value);
+			} catch (IllegalArgumentException e) {
+				throw new MessagingException(message, "Invalid destination address " + value, e);
+			}
+		} else if (value != null) {
+			throw new MessagingException(message, "Destination address not XBee64BitAddress, Long or String, was "
+					+ ClassUtils.getUserClass(value));
+		}
+		if (XBee64BitAddress.BROADCAST_ADDRESS.equals(destination)) {
+			return null;
+		}
+		return destination;
+	}
+
+	private static class PendingMessage {
+
+		final Message<byte[]> message;
+		final byte[][] frames;
+		final XBee64BitAddress destination;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		PendingMessage(Message<byte[]> message) {
+			this.message = message;
+			this.frames = null;
+			this.destination = null;
+		}
+
+		PendingMessage(byte[][] frames, XBee64BitAddress destination) {
+			this.message = null;
+			this.frames = frames;
+			this.destination = destination;
+		}
+	}
+
+	/**
+	 * State of a group send, touched only by a writer thread once queued.
+	 */
+	private static class GroupSend {
+
+		final Message<byte[]> message;
+		final TxMessageProtocol prototype;
+		final CompletableFuture<GroupSendResult> future = new CompletableFuture<>();
+		private final Deque<XBee64BitAddress> remaining;
+		private final Map<XBee64BitAddress, Integer> attempts = new HashMap<>();
+		private final List<XBee64BitAddress> delivered = new ArrayList<>();
+		private final Map<XBee64BitAddress, Throwable> failures = new LinkedHashMap<>();
+		private final int retries;
+		private int retryCount;
+
+		GroupSend(Message<byte[]> message, TxMessageProtocol prototype, Collection<XBee64BitAddress> addresses,
+				int retries) {
+			this.message = message;
+			this.prototype = prototype;
+			this.remaining = new ArrayDeque<>(new LinkedHashSet<>(addresses));
+			this.retries = retries;
+			completeIfDone();
+		}
+
+		XBee64BitAddress next() {
+			return remaining.poll();
+		}
+
+		void delivered(XBee64BitAddress address) {
+			delivered.add(address);
+			completeIfDone();
+		}
+
+		void failed(XBee64BitAddress address, Throwable e) {
+			int attempt = attempts.merge(address, 1, Integer::sum);
+			if (attempt <= retries) {
+				retryCount++;
+				remaining.add(address);
+			} else {
+				failures.put(address, e);
+			}
+			completeIfDone();
+		}
+
+		void failRemaining(Throwable e) {
+			XBee64BitAddress address;
+			while ((address = remaining.poll()) != null) {
+				failures.put(address, e);
+			}
+			completeIfDone();
+		}
+
+		boolean isDone() {
+			return future.isDone();
+		}
+
+		private void completeIfDone() {
+			if (remaining.isEmpty()) {
+				future.complete(new GroupSendResult(delivered, failures, retryCount));
+			}
+		}
+	}
+
 	private class XBeeIDataReceiveListener implements IDataReceiveListener {
 
 		@Override
 		public void dataReceived(XBeeMessage xbeeMessage) {
-			RxMessageProtocol rxMessageSession = sessions.getRxSession(xbeeMessage.getData(),
-					xbeeMessage.getDevice().get64BitAddress().generateDeviceID());
+			XBee64BitAddress sourceAddress = xbeeMessage.getDevice().get64BitAddress();
+			long address = XBeeUtils.toLong(sourceAddress);
+			metricsListener.onFrameReceived(address, xbeeMessage.getData().length);
+			if (NackMessageProtocol.isNack(xbeeMessage.getData())) {
+				byte[][] frames = sessions.getRetransmitFrames(xbeeMessage.getData(), address);
+				log.debug("Received nack from {}, retransmitting {} frames", sourceAddress,
+						frames != null ? frames.length : 0);
+				if (frames != null && frames.length > 0) {
+					offerFrames(frames, address);
+				}
+				return;
+			}
+			if (xbeeMessage.getData().length < 4) {
+				log.debug("Dropping too short frame from {}", sourceAddress);
+				return;
+			}
+			if (sessions.isDuplicateFrame(xbeeMessage.getData(), address)) {
+				log.debug("Dropping duplicate frame from {}", sourceAddress);
+				return;
+			}
+			RxMessageProtocol rxMessageSession = sessions.getRxSession(xbeeMessage.getData(), address);
 
-			log.debug("Adding data {}", xbeeMessage.getData());
-			log.trace("Adding data \n{}", HexUtils.prettyHexDump(xbeeMessage.getData()));
-			boolean completed = rxMessageSession.add(xbeeMessage.getData());
+			if (log.isTraceEnabled()) {
+				log.trace("Adding data \n{}", HexUtils.prettyHexDump(xbeeMessage.getData()));
+			}
+			boolean completed;
+			try {
+				completed = rxMessageSession.add(xbeeMessage.getData());
+			} catch (IllegalArgumentException e) {
+				// frame can't belong to a valid message, rest of it is useless too
+				log.warn("Dropping session from {} with invalid frame: {}", sourceAddress, e.getMessage());
+				sessions.removeRxSession(xbeeMessage.getData(), address);
+				return;
+			}
 			log.debug("Protocol completed={}", completed);
-			if (completed) {
-				byte[] payload = rxMessageSession.getPayload();
-				byte[] header = rxMessageSession.getHeader();
-				Map<String, Object> headersToCopy = new HashMap<>();
-				log.debug("Full frame header={} payload={}", header, payload);
-				BufferedReader reader = new BufferedReader(new StringReader(new String(header)));
-
-				String line;
-				try {
-					while ((line = reader.readLine()) != null) {
-						if(log.isDebugEnabled()) {
-							log.debug("deserialize header: " + line);
-						}
-						String[] split = line.split(":");
-						if(split != null & split.length == 2) {
-							headersToCopy.put(split[0], split[1]);
-						}
-					}
-				} catch (IOException e) {
-					log.error("Error ", e);
+			if (!completed && IotUtils.isBitSet(xbeeMessage.getData()[0], MessageProtocol.MESSAGE_TYPE_END)) {
+				byte[] nack = sessions.createNack(xbeeMessage.getData(), address);
+				if (nack != null) {
+					offerFrames(new byte[][] { nack }, address);
+				}
+			}
+			if (completed && sessions.completeRxSession(rxMessageSession, xbeeMessage.getData(), address)) {
+				OrderedDispatcher dispatcher = receiveDispatcher;
+				if (dispatcher == null) {
+					deliverMessage(rxMessageSession, sourceAddress);
+				} else if (!dispatcher.dispatch(address, () -> deliverMessage(rxMessageSession, sourceAddress))) {
+					log.warn("Dropping message from {} as receive queue is full", sourceAddress);
 				}
-				receiverListener.onMessage(MessageBuilder.withPayload(payload).copyHeaders(headersToCopy).build());
 			}
 		}
 	}
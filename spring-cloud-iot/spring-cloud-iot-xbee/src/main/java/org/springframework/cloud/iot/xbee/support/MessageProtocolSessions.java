@@ -15,50 +15,879 @@
  */
 package org.springframework.cloud.iot.xbee.support;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
+import org.springframework.cloud.iot.xbee.protocol.BinaryHeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.CompressionUtils;
+import org.springframework.cloud.iot.xbee.protocol.HeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.MessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.NackMessageProtocol;
 import org.springframework.cloud.iot.xbee.protocol.RxMessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.TextHeaderCodec;
 import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.Assert;
 
 /**
  * Utility class tracking existing sessions for transferring and receiving sides.
+ * <p>
+ * Receiving sessions are keyed by a remote device 64-bit address and a session
+ * id. Session is removed when its message has been fully received, and
+ * sessions which haven't seen any new frames within a session timeout are
+ * evicted. Number of concurrent sessions per remote device is capped, and when
+ * going over a cap the least recently used session for that device is evicted.
+ * <p>
+ * Transmitting sessions get their session ids from one sequence shared by all
+ * destinations and are tracked while in-flight. As receiving side keys its
+ * sessions by a sender address and a session id, a broadcast and a unicast
+ * arriving to a same device never share an id and several messages can be
+ * sent concurrently without interleaving into one session.
+ * <p>
+ * Message headers having {@code String} values are sent together with a
+ * payload encoded with a {@link HeaderCodec}, which defaults to
+ * {@link TextHeaderCodec}. Receiving side decodes headers with a codec a
+ * sender used. A {@link XBeeHeaders#ROUTING_ID} header is not encoded with
+ * other headers but carried as a start frame field. Payloads can optionally be compressed when they are larger
+ * than a compression threshold.
+ * <p>
+ * Completed transmitting sessions are kept in a bounded retransmit buffer for
+ * a retransmit window so that frames requested by a {@link NackMessageProtocol}
+ * can be sent again. Receiving sessions which are missing frames after an end
+ * frame, or which have stalled for a nack timeout, are turned into nacks
+ * up to a max number of nacks per session.
+ * <p>
+ * If enabled, an instance picks a random boot id sent in start frames, thus a
+ * restarted sender reusing session ids is told apart from late copies of
+ * messages it sent before. It is disabled by default as older receivers don't
+ * know this start frame field. Completed receiving sessions are remembered
+ * per remote device in a small ring of boot and session ids together with
+ * checksums of a start frame and of a whole message. Within a duplicate
+ * window a start frame identical to one of a completed session is dropped
+ * before reassembly. Other frames can't be tied to a completed session as
+ * session ids are reused, thus they open a new session, and a completed
+ * message having a same boot id, session id and checksum as one in a ring is
+ * reported as a duplicate so that it is not dispatched again.
  *
  * @author Janne Valkealahti
  *
  */
 public class MessageProtocolSessions {
 
-	private final Map<String, RxMessageProtocol> rxSessions = new HashMap<>();
-	private final Map<String, TxMessageProtocol> txSessions = new HashMap<>();
+	private static final Logger log = LoggerFactory.getLogger(MessageProtocolSessions.class);
+	public final static long DEFAULT_SESSION_TIMEOUT = 30000;
+	public final static int DEFAULT_MAX_SESSIONS_PER_DEVICE = 8;
+	public final static long DEFAULT_NACK_TIMEOUT = 2000;
+	public final static int DEFAULT_MAX_NACKS = 3;
+	public final static int DEFAULT_RETRANSMIT_BUFFER_SIZE = 32;
+	public final static long DEFAULT_RETRANSMIT_WINDOW = 10000;
+	public final static int DEFAULT_DUPLICATE_WINDOW_SIZE = 16;
+	public final static long DEFAULT_DUPLICATE_WINDOW = 5000;
+	private final static long BROADCAST_ADDRESS = 0x000000000000FFFFL;
+	private final static int SESSION_ID_SPACE = 256;
+	private final static Set<String> LOCAL_HEADERS = new HashSet<>(Arrays.asList(MessageHeaders.ID,
+			MessageHeaders.TIMESTAMP, MessageHeaders.REPLY_CHANNEL, MessageHeaders.ERROR_CHANNEL,
+			XBeeHeaders.DESTINATION_ADDRESS, XBeeHeaders.SOURCE_ADDRESS, XBeeHeaders.ROUTING_ID));
+	private final Map<Key, RxSession> rxSessions = new ConcurrentHashMap<>();
+	private final Map<Integer, TxMessageProtocol> txSessions = new ConcurrentHashMap<>();
+	private final AtomicInteger txSequence = new AtomicInteger();
+	private volatile int bootId = -1;
+	private final Map<Long, AtomicInteger> rxSessionsPerDevice = new ConcurrentHashMap<>();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong lastEviction = new AtomicLong();
+	private volatile long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+	private volatile int maxSessionsPerDevice = DEFAULT_MAX_SESSIONS_PER_DEVICE;
+	private volatile int frameSize = MessageProtocol.DEFAULT_FRAME_SIZE;
+	private final HeaderCodec textHeaderCodec = new TextHeaderCodec();
+	private final HeaderCodec binaryHeaderCodec = new BinaryHeaderCodec();
+	private volatile HeaderCodec headerCodec = textHeaderCodec;
+	private volatile int compressionThreshold = -1;
+	private volatile long nackTimeout = DEFAULT_NACK_TIMEOUT;
+	private volatile int maxNacks = DEFAULT_MAX_NACKS;
+	private volatile int retransmitBufferSize = DEFAULT_RETRANSMIT_BUFFER_SIZE;
+	private volatile long retransmitWindow = DEFAULT_RETRANSMIT_WINDOW;
+	private final LinkedHashMap<Integer, Retransmit> retransmitBuffer = new LinkedHashMap<>();
+	private final Map<Long, DuplicateWindow> duplicateWindows = new ConcurrentHashMap<>();
+	private final AtomicLong duplicateFrameCount = new AtomicLong();
+	private final AtomicLong duplicateMessageCount = new AtomicLong();
+	private volatile int duplicateWindowSize = DEFAULT_DUPLICATE_WINDOW_SIZE;
+	private volatile long duplicateWindow = DEFAULT_DUPLICATE_WINDOW;
+	private volatile int maxMessageSize = RxMessageProtocol.DEFAULT_MAX_MESSAGE_SIZE;
+	private volatile XBeeMetricsListener metricsListener = XBeeMetricsListener.NONE;
 
+	/**
+	 * Creates a new transmitting session for a message to be broadcasted.
+	 *
+	 * @param message the message
+	 * @return the transmitting session
+	 * @see #createTxSession(Message, long)
+	 */
 	public TxMessageProtocol createTxSession(Message<byte[]> message) {
-		String header = "iotGatewayServiceRoute:RestGatewayService";
-		TxMessageProtocol tx = new TxMessageProtocol(header.getBytes(), message.getPayload(), (short) 0);
-		return tx;
+		return createTxSession(message, BROADCAST_ADDRESS);
 	}
 
-	public RxMessageProtocol getRxSession(byte[] data, String deviceId) {
-		int id = data[1] & 0xFF;
-		String key = deviceId + id;
-		RxMessageProtocol rxMessageSession = rxSessions.get(key);
-		if (rxMessageSession == null) {
-			rxMessageSession = new RxMessageProtocol();
-			rxSessions.put(key, rxMessageSession);
+	/**
+	 * Creates a new transmitting session for a message to be sent to a given
+	 * destination. Session ids are rotated through an 8-bit session id space
+	 * shared by all destinations skipping ids which are still in-flight.
+	 * Session should be completed with
+	 * {@link #completeTxSession(TxMessageProtocol, long)} when all its frames
+	 * have been sent.
+	 *
+	 * @param message the message
+	 * @param address the destination 64-bit address
+	 * @return the transmitting session
+	 * @throws IllegalStateException if all session ids are in-flight
+	 */
+	public TxMessageProtocol createTxSession(Message<byte[]> message, long address) {
+		return createTxSession(encodeTxMessage(message), address);
+	}
+
+	/**
+	 * Encodes headers and payload of a message to be sent without creating a
+	 * session. Returned protocol is used as a prototype with
+	 * {@link #createTxSession(TxMessageProtocol, long)}.
+	 *
+	 * @param message the message
+	 * @return the encoded message
+	 * @throws IllegalArgumentException if a routing id is not a number between 0 and 65535
+	 */
+	public TxMessageProtocol encodeTxMessage(Message<byte[]> message) {
+		HeaderCodec codec = headerCodec;
+		byte[] header = codec.encode(getSendableHeaders(message.getHeaders()));
+		byte[] payload = message.getPayload();
+		int flags = codec.getMessageTypeFlags();
+		int threshold = compressionThreshold;
+		if (threshold >= 0 && payload.length >= threshold) {
+			byte[] compressed = CompressionUtils.deflate(payload);
+			// compressing small or random data may not help
+			if (compressed.length < payload.length) {
+				log.debug("Compressed payload from {} to {} bytes", payload.length, compressed.length);
+				payload = compressed;
+				flags |= MessageProtocol.MESSAGE_TYPE_COMPRESSED;
+			}
+		}
+		return new TxMessageProtocol(header, payload, (short) 0, frameSize, flags, bootId,
+				getRoutingId(message.getHeaders()));
+	}
+
+	/**
+	 * Creates a new transmitting session for an already encoded message to be
+	 * sent to a given destination.
+	 *
+	 * @param prototype the encoded message
+	 * @param address the destination 64-bit address
+	 * @return the transmitting session
+	 * @throws IllegalStateException if all session ids are in-flight
+	 * @see #createTxSession(Message, long)
+	 */
+	public TxMessageProtocol createTxSession(TxMessageProtocol prototype, long address) {
+		for (int i = 0; i < SESSION_ID_SPACE; i++) {
+			short sessionId = (short) (txSequence.getAndIncrement() & 0xFF);
+			TxMessageProtocol tx = prototype.withSessionId(sessionId);
+			if (txSessions.putIfAbsent((int) sessionId, tx) == null) {
+				return tx;
+			}
+		}
+		throw new IllegalStateException("All session ids in-flight, can't send to address " + Long.toHexString(address));
+	}
+
+	/**
+	 * Completes a transmitting session making its session id available again.
+	 *
+	 * @param tx the transmitting session
+	 * @param address the destination 64-bit address
+	 */
+	public void completeTxSession(TxMessageProtocol tx, long address) {
+		int sessionId = tx.getSessionId();
+		txSessions.remove(sessionId, tx);
+		if (retransmitBufferSize > 0 && tx.getFrameCount() > 1) {
+			synchronized (retransmitBuffer) {
+				// session id is reused only after wrapping around, older session is gone
+				retransmitBuffer.remove(sessionId);
+				retransmitBuffer.put(sessionId, new Retransmit(tx, address, currentTimeMillis()));
+				Iterator<Integer> iterator = retransmitBuffer.keySet().iterator();
+				while (retransmitBuffer.size() > retransmitBufferSize && iterator.hasNext()) {
+					iterator.next();
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets frames requested by a nack frame from a recently completed
+	 * transmitting session. Frames are returned only if a session having
+	 * a nacked session id was sent to a nacking device or broadcasted.
+	 *
+	 * @param nackFrame the nack frame
+	 * @param address the nacking device 64-bit address
+	 * @return the frames to retransmit, or {@code null} if session is not known
+	 */
+	public byte[][] getRetransmitFrames(byte[] nackFrame, long address) {
+		NackMessageProtocol nack = NackMessageProtocol.parse(nackFrame);
+		long now = currentTimeMillis();
+		Retransmit retransmit;
+		synchronized (retransmitBuffer) {
+			retransmit = retransmitBuffer.get((int) nack.getSessionId());
+		}
+		if (retransmit == null || now - retransmit.completed > retransmitWindow
+				|| (retransmit.address != address && retransmit.address != BROADCAST_ADDRESS)) {
+			log.debug("No session to retransmit for {}", new Key(nack.getSessionId(), address));
+			return null;
+		}
+		return nack.selectFrames(retransmit.tx.getFrames());
+	}
+
+	/**
+	 * Creates a nack frame for a receiving session if it is missing frames
+	 * and max nacks for a session has not been reached.
+	 *
+	 * @param data the frame data
+	 * @param address the remote device 64-bit address
+	 * @return the nack frame, or {@code null} if nack should not be sent
+	 */
+	public byte[] createNack(byte[] data, long address) {
+		Key key = new Key(data[1] & 0xFF, address);
+		RxSession session = rxSessions.get(key);
+		if (session == null) {
+			return null;
+		}
+		return createNack(key, session, currentTimeMillis());
+	}
+
+	/**
+	 * Creates nacks for receiving sessions which haven't seen any new frames
+	 * within a nack timeout.
+	 *
+	 * @return the nacks to send
+	 */
+	public List<Nack> createStalledNacks() {
+		long now = currentTimeMillis();
+		List<Nack> nacks = new ArrayList<>();
+		for (Map.Entry<Key, RxSession> entry : rxSessions.entrySet()) {
+			RxSession session = entry.getValue();
+			if (now - Math.max(session.lastAccess, session.lastNack) > nackTimeout) {
+				byte[] frame = createNack(entry.getKey(), session, now);
+				if (frame != null) {
+					nacks.add(new Nack(entry.getKey().address, frame));
+				}
+			}
+		}
+		return nacks;
+	}
+
+	/**
+	 * Gets an existing or creates a new receiving session for a frame.
+	 *
+	 * @param data the frame data
+	 * @param address the remote device 64-bit address
+	 * @return the receiving session
+	 */
+	public RxMessageProtocol getRxSession(byte[] data, long address) {
+		long now = currentTimeMillis();
+		evictExpiredIfNeeded(now);
+		Key key = new Key(data[1] & 0xFF, address);
+		RxSession session = rxSessions.get(key);
+		if (session != null && isFromOtherBoot(session.protocol, data)) {
+			// sender has restarted and reused an id of a message which never completed
+			removeRxSession(key);
+			session = null;
+		}
+		if (session == null) {
+			RxSession created = new RxSession(new RxMessageProtocol(maxMessageSize), now);
+			session = rxSessions.putIfAbsent(key, created);
+			if (session == null) {
+				session = created;
+				int count = rxSessionsPerDevice.computeIfAbsent(address, a -> new AtomicInteger()).incrementAndGet();
+				if (count > maxSessionsPerDevice) {
+					evictLeastRecentlyUsed(address, key);
+				}
+			}
+		}
+		session.lastAccess = now;
+		return session.protocol;
+	}
+
+	/**
+	 * Checks if a frame is a start frame identical to one of a session from a
+	 * same remote device which was completed within a duplicate window and
+	 * doesn't have a live receiving session, meaning it's a late copy from a
+	 * mesh retry or a retransmit and should be dropped. Other frames carry
+	 * only a session id, which a busy sender reuses within a duplicate window,
+	 * thus they are never dropped here and a copy of a completed message is
+	 * only dropped when it completes again.
+	 *
+	 * @param data the frame data
+	 * @param address the remote device 64-bit address
+	 * @return true, if frame is a duplicate
+	 */
+	public boolean isDuplicateFrame(byte[] data, long address) {
+		if (duplicateWindowSize == 0 || !IotUtils.isBitSet(data[0], MessageProtocol.MESSAGE_TYPE_START)) {
+			return false;
+		}
+		DuplicateWindow window = duplicateWindows.get(address);
+		if (window == null) {
+			return false;
+		}
+		Key key = new Key(data[1] & 0xFF, address);
+		if (rxSessions.containsKey(key)) {
+			return false;
+		}
+		long since = currentTimeMillis() - duplicateWindow;
+		if (window.containsStart(key.sessionId, RxMessageProtocol.getChecksum(data), since)) {
+			duplicateFrameCount.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Completes a receiving session for a frame when its message has been
+	 * fully received, and remembers it for duplicate detection.
+	 *
+	 * @param rx the receiving session
+	 * @param data the frame data
+	 * @param address the remote device 64-bit address
+	 * @return true, if message is new, false if it's a duplicate
+	 */
+	public boolean completeRxSession(RxMessageProtocol rx, byte[] data, long address) {
+		int sessionId = data[1] & 0xFF;
+		Key key = new Key(sessionId, address);
+		RxSession session = rxSessions.get(key);
+		if (session != null && removeRxSession(key)) {
+			metricsListener.onMessageReassembled(address, currentTimeMillis() - session.created);
+		}
+		int size = duplicateWindowSize;
+		if (size == 0) {
+			return true;
+		}
+		long now = currentTimeMillis();
+		DuplicateWindow window = duplicateWindows.computeIfAbsent(address, a -> new DuplicateWindow(size));
+		if (!window.add(sessionId, rx.getBootId(), rx.getStartChecksum(), rx.getChecksum(), now, now - duplicateWindow)) {
+			duplicateMessageCount.incrementAndGet();
+			log.debug("Dropping duplicate message with session {} from {}", sessionId, Long.toHexString(address));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes headers of a fully received message using a codec identified
+	 * by a start frame.
+	 *
+	 * @param rx the receiving session
+	 * @return the decoded headers
+	 */
+	public Map<String, String> decodeHeaders(RxMessageProtocol rx) {
+		boolean binary = IotUtils.isBitSet(rx.getMessageType(), MessageProtocol.MESSAGE_TYPE_BINARY_HEADER);
+		HeaderCodec codec = headerCodec;
+		if (binary != IotUtils.isBitSet(codec.getMessageTypeFlags(), MessageProtocol.MESSAGE_TYPE_BINARY_HEADER)) {
+			codec = binary ? binaryHeaderCodec : textHeaderCodec;
+		}
+		return codec.decode(rx.getHeaderBuffer());
+	}
+
+	/**
+	 * Removes a receiving session for a frame, usually called when its message
+	 * has been fully received.
+	 *
+	 * @param data the frame data
+	 * @param address the remote device 64-bit address
+	 */
+	public void removeRxSession(byte[] data, long address) {
+		removeRxSession(new Key(data[1] & 0xFF, address));
+	}
+
+	/**
+	 * Evict all receiving sessions which have been idle longer than a session
+	 * timeout.
+	 *
+	 * @return the number of evicted sessions
+	 */
+	public int evictExpired() {
+		long now = currentTimeMillis();
+		lastEviction.set(now);
+		int evicted = 0;
+		for (Iterator<Map.Entry<Key, RxSession>> iterator = rxSessions.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<Key, RxSession> entry = iterator.next();
+			if (now - entry.getValue().lastAccess > sessionTimeout && removeRxSession(entry.getKey())) {
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			evictionCount.addAndGet(evicted);
+			log.debug("Evicted {} expired sessions", evicted);
+		}
+		duplicateWindows.values().removeIf(window -> now - window.getLastCompleted() > sessionTimeout);
+		return evicted;
+	}
+
+	/**
+	 * Gets the number of live receiving sessions.
+	 *
+	 * @return the number of receiving sessions
+	 */
+	public int getRxSessionCount() {
+		return rxSessions.size();
+	}
+
+	/**
+	 * Gets the number of in-flight transmitting sessions.
+	 *
+	 * @return the number of transmitting sessions
+	 */
+	public int getTxSessionCount() {
+		return txSessions.size();
+	}
+
+	/**
+	 * Gets the number of evicted receiving sessions.
+	 *
+	 * @return the number of evicted sessions
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Gets the random boot id sent in start frames of this instance.
+	 *
+	 * @return the boot id, {@code -1} if boot id is not sent
+	 */
+	public int getBootId() {
+		return bootId;
+	}
+
+	/**
+	 * Sets whether a random boot id is sent in start frames. Receivers not
+	 * knowing a boot id field can't read start frames carrying it, thus it
+	 * should only be enabled when all devices support it. Defaults to
+	 * {@code false}.
+	 *
+	 * @param sendBootId the new send boot id flag
+	 */
+	public void setSendBootId(boolean sendBootId) {
+		this.bootId = sendBootId ? ThreadLocalRandom.current().nextInt(MessageProtocol.MAX_BOOT_ID + 1) : -1;
+	}
+
+	/**
+	 * Gets the number of dropped duplicate frames.
+	 *
+	 * @return the duplicate frame count
+	 */
+	public long getDuplicateFrameCount() {
+		return duplicateFrameCount.get();
+	}
+
+	/**
+	 * Gets the number of dropped duplicate messages.
+	 *
+	 * @return the duplicate message count
+	 */
+	public long getDuplicateMessageCount() {
+		return duplicateMessageCount.get();
+	}
+
+	/**
+	 * Sets the session timeout in milliseconds after which idle sessions are
+	 * evicted.
+	 *
+	 * @param sessionTimeout the new session timeout
+	 */
+	public void setSessionTimeout(long sessionTimeout) {
+		Assert.isTrue(sessionTimeout > 0, "'sessionTimeout' must be positive");
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	/**
+	 * Sets the max number of concurrent receiving sessions per remote device.
+	 *
+	 * @param maxSessionsPerDevice the new max sessions per device
+	 */
+	public void setMaxSessionsPerDevice(int maxSessionsPerDevice) {
+		Assert.isTrue(maxSessionsPerDevice > 0, "'maxSessionsPerDevice' must be positive");
+		this.maxSessionsPerDevice = maxSessionsPerDevice;
+	}
+
+	/**
+	 * Sets the frame size used by transmitting sessions. Receiving sessions
+	 * use a frame size a sender tells in a start frame.
+	 *
+	 * @param frameSize the new frame size
+	 */
+	public void setFrameSize(int frameSize) {
+		Assert.isTrue(frameSize >= MessageProtocol.MIN_FRAME_SIZE && frameSize <= MessageProtocol.MAX_FRAME_SIZE,
+				"'frameSize' must be between " + MessageProtocol.MIN_FRAME_SIZE + " and "
+						+ MessageProtocol.MAX_FRAME_SIZE);
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * Sets the timeout in milliseconds after which a stalled receiving session
+	 * is nacked.
+	 *
+	 * @param nackTimeout the new nack timeout
+	 */
+	public void setNackTimeout(long nackTimeout) {
+		Assert.isTrue(nackTimeout > 0, "'nackTimeout' must be positive");
+		this.nackTimeout = nackTimeout;
+	}
+
+	/**
+	 * Sets the max number of nacks sent per receiving session, zero disables
+	 * nacks.
+	 *
+	 * @param maxNacks the new max nacks
+	 */
+	public void setMaxNacks(int maxNacks) {
+		Assert.isTrue(maxNacks >= 0, "'maxNacks' must not be negative");
+		this.maxNacks = maxNacks;
+	}
+
+	/**
+	 * Sets the max number of completed transmitting sessions kept for
+	 * retransmission, zero disables retransmission.
+	 *
+	 * @param retransmitBufferSize the new retransmit buffer size
+	 */
+	public void setRetransmitBufferSize(int retransmitBufferSize) {
+		Assert.isTrue(retransmitBufferSize >= 0, "'retransmitBufferSize' must not be negative");
+		this.retransmitBufferSize = retransmitBufferSize;
+	}
+
+	/**
+	 * Sets the time in milliseconds completed transmitting sessions can be
+	 * retransmitted.
+	 *
+	 * @param retransmitWindow the new retransmit window
+	 */
+	public void setRetransmitWindow(long retransmitWindow) {
+		Assert.isTrue(retransmitWindow > 0, "'retransmitWindow' must be positive");
+		this.retransmitWindow = retransmitWindow;
+	}
+
+	/**
+	 * Sets the number of completed receiving sessions remembered per remote
+	 * device for duplicate detection, zero disables duplicate detection.
+	 *
+	 * @param duplicateWindowSize the new duplicate window size
+	 */
+	public void setDuplicateWindowSize(int duplicateWindowSize) {
+		Assert.isTrue(duplicateWindowSize >= 0, "'duplicateWindowSize' must not be negative");
+		this.duplicateWindowSize = duplicateWindowSize;
+		duplicateWindows.clear();
+	}
+
+	/**
+	 * Sets the time in milliseconds after a session completion during which
+	 * its frames are dropped as duplicates.
+	 *
+	 * @param duplicateWindow the new duplicate window
+	 */
+	public void setDuplicateWindow(long duplicateWindow) {
+		Assert.isTrue(duplicateWindow >= 0, "'duplicateWindow' must not be negative");
+		this.duplicateWindow = duplicateWindow;
+	}
+
+	/**
+	 * Sets the max size in bytes of a received header and payload. Frames
+	 * positioned beyond it are rejected by receiving sessions. Defaults to
+	 * {@link RxMessageProtocol#DEFAULT_MAX_MESSAGE_SIZE}.
+	 *
+	 * @param maxMessageSize the new max message size
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		Assert.isTrue(maxMessageSize > 0, "'maxMessageSize' must be positive");
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Sets the listener notified about completed receiving sessions.
+	 *
+	 * @param metricsListener the new metrics listener
+	 */
+	public void setMetricsListener(XBeeMetricsListener metricsListener) {
+		Assert.notNull(metricsListener, "'metricsListener' must be set");
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Gets the nack timeout in milliseconds.
+	 *
+	 * @return the nack timeout
+	 */
+	public long getNackTimeout() {
+		return nackTimeout;
+	}
+
+	/**
+	 * Sets the header codec used by transmitting sessions, and by receiving
+	 * sessions when a sender used a codec with same message type flags.
+	 *
+	 * @param headerCodec the new header codec
+	 */
+	public void setHeaderCodec(HeaderCodec headerCodec) {
+		Assert.notNull(headerCodec, "'headerCodec' must be set");
+		this.headerCodec = headerCodec;
+	}
+
+	/**
+	 * Sets the payload size in bytes from which payloads are compressed.
+	 * Negative value disables compression which is a default.
+	 *
+	 * @param compressionThreshold the new compression threshold
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Gets the frame size used by transmitting sessions.
+	 *
+	 * @return the frame size
+	 */
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Gets the current time in milliseconds.
+	 *
+	 * @return the current time
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private static int getRoutingId(MessageHeaders headers) {
+		Object value = headers.get(XBeeHeaders.ROUTING_ID);
+		if (value == null) {
+			return -1;
+		}
+		Assert.isTrue(value instanceof Number, "Routing id must be a number, was " + value.getClass());
+		int routingId = ((Number) value).intValue();
+		Assert.isTrue(routingId >= 0 && routingId <= MessageProtocol.MAX_ROUTING_ID,
+				"Routing id must be between 0 and " + MessageProtocol.MAX_ROUTING_ID + ", was " + routingId);
+		return routingId;
+	}
+
+	private static Map<String, String> getSendableHeaders(MessageHeaders headers) {
+		Map<String, String> sendable = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> entry : headers.entrySet()) {
+			if (entry.getValue() instanceof String && !LOCAL_HEADERS.contains(entry.getKey())) {
+				sendable.put(entry.getKey(), (String) entry.getValue());
+			}
+		}
+		return sendable;
+	}
+
+	private byte[] createNack(Key key, RxSession session, long now) {
+		RxMessageProtocol rx = session.protocol;
+		synchronized (session) {
+			if (session.nackCount >= maxNacks || rx.isComplete() || rx.getReceivedFrameCount() == 0) {
+				return null;
+			}
+			int[] missing = rx.getMissingFrames(NackMessageProtocol.MAX_MISSING_FRAMES);
+			int tail = rx.getTailFrameId();
+			if (missing.length == 0 && tail < 0) {
+				return null;
+			}
+			session.nackCount++;
+			session.lastNack = now;
+			log.debug("Nacking session {} missing {} tail {}", key, missing, tail);
+			return new NackMessageProtocol((short) key.sessionId, missing, tail).getFrame();
+		}
+	}
+
+	private void evictExpiredIfNeeded(long now) {
+		long last = lastEviction.get();
+		if (now - last > sessionTimeout / 2 && lastEviction.compareAndSet(last, now)) {
+			evictExpired();
+		}
+	}
+
+	private void evictLeastRecentlyUsed(long address, Key exclude) {
+		Key oldest = null;
+		long oldestAccess = Long.MAX_VALUE;
+		for (Map.Entry<Key, RxSession> entry : rxSessions.entrySet()) {
+			Key key = entry.getKey();
+			if (key.address == address && !key.equals(exclude) && entry.getValue().lastAccess < oldestAccess) {
+				oldest = key;
+				oldestAccess = entry.getValue().lastAccess;
+			}
+		}
+		if (oldest != null && removeRxSession(oldest)) {
+			evictionCount.incrementAndGet();
+			log.debug("Evicted session {} as device went over max sessions", oldest);
+		}
+	}
+
+	private static boolean isFromOtherBoot(RxMessageProtocol rx, byte[] data) {
+		if (!IotUtils.isBitSet(data[0], MessageProtocol.MESSAGE_TYPE_START) || rx.getMessageType() == 0) {
+			return false;
+		}
+		return RxMessageProtocol.getBootId(data) != rx.getBootId();
+	}
+
+	private boolean removeRxSession(Key key) {
+		if (rxSessions.remove(key) != null) {
+			AtomicInteger count = rxSessionsPerDevice.get(key.address);
+			if (count != null && count.decrementAndGet() <= 0) {
+				rxSessionsPerDevice.remove(key.address, count);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static class RxSession {
+
+		final RxMessageProtocol protocol;
+		final long created;
+		volatile long lastAccess;
+		volatile long lastNack;
+		volatile int nackCount;
+
+		RxSession(RxMessageProtocol protocol, long lastAccess) {
+			this.protocol = protocol;
+			this.created = lastAccess;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Ring of recently completed sessions of a remote device, sessions are
+	 * boot id and session id packed into an {@code int}. Entries completed
+	 * before a given time are ignored.
+	 */
+	private static class DuplicateWindow {
+
+		private final int[] sessions;
+		private final long[] startChecksums;
+		private final long[] checksums;
+		private final long[] completed;
+		private int next;
+		private int count;
+
+		DuplicateWindow(int size) {
+			this.sessions = new int[size];
+			this.startChecksums = new long[size];
+			this.checksums = new long[size];
+			this.completed = new long[size];
+		}
+
+		synchronized boolean containsStart(int sessionId, long startChecksum, long since) {
+			for (int i = 0; i < count; i++) {
+				if ((sessions[i] & 0xFF) == sessionId && startChecksums[i] == startChecksum && completed[i] >= since) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		synchronized boolean add(int sessionId, int bootId, long startChecksum, long checksum, long now, long since) {
+			int session = ((bootId + 1) << 8) | sessionId;
+			for (int i = 0; i < count; i++) {
+				if (sessions[i] == session && checksums[i] == checksum && completed[i] >= since) {
+					return false;
+				}
+			}
+			sessions[next] = session;
+			startChecksums[next] = startChecksum;
+			checksums[next] = checksum;
+			completed[next] = now;
+			next = (next + 1) % sessions.length;
+			count = Math.min(count + 1, sessions.length);
+			return true;
+		}
+
+		synchronized long getLastCompleted() {
+			return count > 0 ? completed[(next + sessions.length - 1) % sessions.length] : 0;
+		}
+	}
+
+	private static class Retransmit {
+
+		final TxMessageProtocol tx;
+		final long address;
+		final long completed;
+
+		Retransmit(TxMessageProtocol tx, long address, long completed) {
+			this.tx = tx;
+			this.address = address;
+			this.completed = completed;
+		}
+	}
+
+	/**
+	 * Nack frame to be sent to a remote device.
+	 */
+	public static class Nack {
+
+		private final long address;
+		private final byte[] frame;
+
+		public Nack(long address, byte[] frame) {
+			this.address = address;
+			this.frame = frame;
+		}
+
+		public long getAddress() {
+			return address;
+		}
+
+		public byte[] getFrame() {
+			return frame;
 		}
-		return rxMessageSession;
 	}
 
 	public static class Key {
 
 		private final int sessionId;
-		private final String sessionAddress;
+		private final long address;
 
-		public Key(int sessionId, String sessionAddress) {
+		public Key(int sessionId, long address) {
 			this.sessionId = sessionId;
-			this.sessionAddress = sessionAddress;
+			this.address = address;
 		}
 
+		@Override
+		public int hashCode() {
+			return 31 * Long.hashCode(address) + sessionId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return sessionId == other.sessionId && address == other.address;
+		}
+
+		@Override
+		public String toString() {
+			return "Key [sessionId=" + sessionId + ", address=" + Long.toHexString(address) + "]";
+		}
 	}
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * Dispatcher running tasks on an {@link Executor} while keeping an order of
+ * tasks dispatched with a same key. Keys are striped into a fixed number of
+ * bounded queues and each queue is drained by at most one executor thread at
+ * a time, thus tasks for a same key run in order while tasks for keys in
+ * different stripes run concurrently.
+ * <p>
+ * What happens when a stripe queue is full is controlled by an
+ * {@link OverflowPolicy}. Tasks are rejected by default as dispatching
+ * usually happens on a radio receive thread which must not block.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class OrderedDispatcher implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(OrderedDispatcher.class);
+	public final static int DEFAULT_STRIPES = 4;
+	public final static int DEFAULT_QUEUE_CAPACITY = 64;
+	private final static int MAX_DRAIN_BATCH = 32;
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final Stripe[] stripes;
+	private final AtomicLong dispatchedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.FAIL_FAST;
+
+	/**
+	 * Instantiates a new ordered dispatcher with default stripes and queue
+	 * capacity.
+	 */
+	public OrderedDispatcher() {
+		this(DEFAULT_STRIPES, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new ordered dispatcher with its own thread per stripe.
+	 *
+	 * @param stripes the number of stripes
+	 * @param queueCapacity the queue capacity per stripe
+	 */
+	public OrderedDispatcher(int stripes, int queueCapacity) {
+		this(null, stripes, queueCapacity);
+	}
+
+	/**
+	 * Instantiates a new ordered dispatcher. If executor is not given, an
+	 * executor having a thread per stripe is created and shut down when this
+	 * dispatcher is destroyed.
+	 *
+	 * @param executor the executor, may be {@code null}
+	 * @param stripes the number of stripes
+	 * @param queueCapacity the queue capacity per stripe
+	 */
+	public OrderedDispatcher(Executor executor, int stripes, int queueCapacity) {
+		Assert.isTrue(stripes > 0, "'stripes' must be positive");
+		Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be positive");
+		if (executor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			this.ownedExecutor = Executors.newFixedThreadPool(stripes, r -> {
+				Thread thread = new Thread(r, "xbee-dispatch-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.executor = ownedExecutor;
+		} else {
+			this.ownedExecutor = null;
+			this.executor = executor;
+		}
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(queueCapacity);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+		}
+		for (Stripe stripe : stripes) {
+			stripe.queue.clear();
+		}
+	}
+
+	/**
+	 * Sets the overflow policy used when a stripe queue is full. Defaults to
+	 * {@link OverflowPolicy#FAIL_FAST}, {@link OverflowPolicy#BLOCK} stalls
+	 * a dispatching thread until a slow task completes.
+	 *
+	 * @param overflowPolicy the new overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "'overflowPolicy' must be set");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Dispatch a task to be run after all tasks previously dispatched with
+	 * a same key.
+	 *
+	 * @param key the ordering key
+	 * @param task the task
+	 * @return true, if task was queued, false if it was rejected
+	 */
+	public boolean dispatch(long key, Runnable task) {
+		Assert.notNull(task, "'task' must be set");
+		Stripe stripe = stripes[stripeIndex(key)];
+		boolean queued = stripe.offer(task);
+		if (queued) {
+			stripe.schedule();
+		}
+		return queued;
+	}
+
+	/**
+	 * Gets the number of tasks waiting in all stripe queues.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Stripe stripe : stripes) {
+			depth += stripe.queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Gets the number of tasks waiting in each stripe queue.
+	 *
+	 * @return the queue depths per stripe
+	 */
+	public int[] getStripeQueueDepths() {
+		int[] depths = new int[stripes.length];
+		for (int i = 0; i < stripes.length; i++) {
+			depths[i] = stripes[i].queue.size();
+		}
+		return depths;
+	}
+
+	/**
+	 * Gets the number of tasks which have been run.
+	 *
+	 * @return the dispatched count
+	 */
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+
+	/**
+	 * Gets the number of tasks dropped or rejected because a stripe queue
+	 * was full.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	private int stripeIndex(long key) {
+		int hash = (int) (key ^ (key >>> 32));
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash, stripes.length);
+	}
+
+	private class Stripe implements Runnable {
+
+		final BlockingQueue<Runnable> queue;
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Stripe(int capacity) {
+			this.queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		boolean offer(Runnable task) {
+			switch (overflowPolicy) {
+			case BLOCK:
+				try {
+					queue.put(task);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					droppedCount.incrementAndGet();
+					return false;
+				}
+				return true;
+			case DROP_OLDEST:
+				while (!queue.offer(task)) {
+					if (queue.poll() != null) {
+						droppedCount.incrementAndGet();
+					}
+				}
+				return true;
+			default:
+				if (!queue.offer(task)) {
+					droppedCount.incrementAndGet();
+					return false;
+				}
+				return true;
+			}
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					log.warn("Dispatch executor rejected draining, {} tasks left queued", queue.size());
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				Runnable task;
+				int count = 0;
+				// drain in batches to give other stripes a chance on a shared executor
+				while (count++ < MAX_DRAIN_BATCH && (task = queue.poll()) != null) {
+					try {
+						task.run();
+					} catch (Throwable e) {
+						log.error("Dispatched task failed", e);
+					}
+					dispatchedCount.incrementAndGet();
+				}
+			} finally {
+				scheduled.set(false);
+				if (!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+/**
+ * Policy what to do when a bounded queue is full.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public enum OverflowPolicy {
+
+	/** Block the caller until there is space in a queue */
+	BLOCK,
+
+	/** Drop the oldest queued item making space for a new one */
+	DROP_OLDEST,
+
+	/** Reject a new item immediately */
+	FAIL_FAST;
+}
@@ -198,10 +198,12 @@ public class SerialPortRxTx extends AbstractSerialPort implements SerialPortEven
 			// Initialize input and output streams before setting the listener.
 			inputStream = serialPort.getInputStream();
 			outputStream = serialPort.getOutputStream();
-			// Activate data received event.
-			serialPort.notifyOnDataAvailable(true);
-			// Register serial port event listener to be notified when data is available.
-			serialPort.addEventListener(this);
+			if (isDataAvailableEventEnabled()) {
+				// Activate data received event.
+				serialPort.notifyOnDataAvailable(true);
+				// Register serial port event listener to be notified when data is available.
+				serialPort.addEventListener(this);
+			}
 		} catch (PortInUseException e) {
 			throw new InterfaceInUseException("Port " + port + " is already in use by other application(s)", e);
 		} catch (UnsupportedCommOperationException e) {
@@ -232,8 +234,10 @@ public class SerialPortRxTx extends AbstractSerialPort implements SerialPortEven
 		synchronized (lock) {
 			if (serialPort != null) {
 				try {
-					serialPort.notifyOnDataAvailable(false);
-					serialPort.removeEventListener();
+					if (isDataAvailableEventEnabled()) {
+						serialPort.notifyOnDataAvailable(false);
+						serialPort.removeEventListener();
+					}
 					portIdentifier.removePortOwnershipListener(this);
 					serialPort.close();
 					serialPort = null;
@@ -243,6 +247,26 @@ public class SerialPortRxTx extends AbstractSerialPort implements SerialPortEven
 		}
 	}
 
+	/**
+	 * Checks if data available events are used to wake up the read thread.
+	 * Subclasses reading the serial port by other means should return
+	 * {@code false}.
+	 *
+	 * @return true, if data available events are enabled
+	 */
+	protected boolean isDataAvailableEventEnabled() {
+		return true;
+	}
+
+	/**
+	 * Gets the input stream of an underlying serial port.
+	 *
+	 * @return the serial port input stream, {@code null} if port is not open
+	 */
+	protected InputStream getSerialInputStream() {
+		return inputStream;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see gnu.io.SerialPortEventListener#serialEvent(gnu.io.SerialPortEvent)
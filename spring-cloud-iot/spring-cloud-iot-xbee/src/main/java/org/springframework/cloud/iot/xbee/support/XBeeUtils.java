@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import com.digi.xbee.api.models.XBee64BitAddress;
+
+/**
+ * XBee utilities.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public abstract class XBeeUtils {
+
+	/**
+	 * Convert {@link XBee64BitAddress} into its primitive {@code long} form.
+	 *
+	 * @param address the xbee address
+	 * @return the address as long
+	 */
+	public static long toLong(XBee64BitAddress address) {
+		byte[] value = address.getValue();
+		long result = 0;
+		for (int i = 0; i < value.length; i++) {
+			result = (result << 8) | (value[i] & 0xFF);
+		}
+		return result;
+	}
+
+	/**
+	 * Convert primitive {@code long} address into {@link XBee64BitAddress}.
+	 *
+	 * @param address the address as long
+	 * @return the xbee address
+	 */
+	public static XBee64BitAddress toAddress(long address) {
+		byte[] value = new byte[8];
+		for (int i = 7; i >= 0; i--) {
+			value[i] = (byte) (address & 0xFF);
+			address >>>= 8;
+		}
+		return new XBee64BitAddress(value);
+	}
+}
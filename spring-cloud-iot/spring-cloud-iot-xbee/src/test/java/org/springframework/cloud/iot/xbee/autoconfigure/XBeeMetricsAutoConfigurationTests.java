@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.autoconfigure;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cloud.iot.xbee.metrics.MicrometerXBeeMetrics;
+import org.springframework.cloud.iot.xbee.support.DefaultXBeeComponent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.digi.xbee.api.XBeeDevice;
+import com.digi.xbee.api.connection.IConnectionInterface;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for {@link XBeeMetricsAutoConfiguration}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class XBeeMetricsAutoConfigurationTests {
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(XBeeAutoConfiguration.class, XBeeMetricsAutoConfiguration.class));
+
+	@Test
+	public void testMetricsBinderCreated() {
+		contextRunner
+				.withUserConfiguration(ComponentConfig.class, MeterRegistryConfig.class)
+				.run(context -> {
+					assertThat(context.getBeansOfType(MicrometerXBeeMetrics.class).size(), is(1));
+				});
+	}
+
+	@Test
+	public void testNoMetricsBinderWithoutMeterRegistry() {
+		contextRunner
+				.withUserConfiguration(ComponentConfig.class)
+				.run(context -> {
+					assertThat(context.getBeansOfType(MicrometerXBeeMetrics.class).size(), is(0));
+				});
+	}
+
+	@Test
+	public void testNoMetricsBinderWithoutComponent() {
+		contextRunner
+				.withUserConfiguration(MeterRegistryConfig.class)
+				.run(context -> {
+					assertThat(context.getBeansOfType(MicrometerXBeeMetrics.class).size(), is(0));
+				});
+	}
+
+	@Configuration
+	static class ComponentConfig {
+
+		@Bean
+		public DefaultXBeeComponent defaultXBeeComponent() {
+			DefaultXBeeComponent component = new DefaultXBeeComponent(
+					new XBeeDevice(new NoopConnectionInterface()));
+			component.setFrameSize(100);
+			return component;
+		}
+	}
+
+	@Configuration
+	static class MeterRegistryConfig {
+
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+
+	private static class NoopConnectionInterface implements IConnectionInterface {
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return null;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return null;
+		}
+
+		@Override
+		public void writeData(byte[] data) {
+		}
+
+		@Override
+		public void writeData(byte[] data, int offset, int length) {
+		}
+
+		@Override
+		public int readData(byte[] data) {
+			return 0;
+		}
+
+		@Override
+		public int readData(byte[] data, int offset, int length) {
+			return 0;
+		}
+	}
+}
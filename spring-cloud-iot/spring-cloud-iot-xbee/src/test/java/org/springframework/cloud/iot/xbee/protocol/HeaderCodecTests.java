@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.protocol;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HeaderCodecTests {
+
+	@Test
+	public void testBinaryWellKnown() {
+		BinaryHeaderCodec codec = new BinaryHeaderCodec();
+		Map<String, String> headers = Collections.singletonMap("iotGatewayServiceRoute", "RestGatewayService");
+		byte[] encoded = codec.encode(headers);
+
+		assertThat(encoded.length, is(2));
+		assertThat(codec.decode(ByteBuffer.wrap(encoded)), is(headers));
+	}
+
+	@Test
+	public void testBinaryLiterals() {
+		BinaryHeaderCodec codec = new BinaryHeaderCodec();
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("customKey", "customValue");
+		headers.put("contentType", "application/xml");
+		headers.put("long", buildString(300));
+		headers.put("empty", "");
+
+		assertThat(codec.decode(ByteBuffer.wrap(codec.encode(headers))), is(headers));
+	}
+
+	@Test
+	public void testBinaryCustomDictionaries() {
+		BinaryHeaderCodec codec = new BinaryHeaderCodec(Arrays.asList("key1"), Arrays.asList("value1"));
+		Map<String, String> headers = Collections.singletonMap("key1", "value1");
+		byte[] encoded = codec.encode(headers);
+
+		assertThat(encoded.length, is(2));
+		assertThat(codec.decode(ByteBuffer.wrap(encoded)), is(headers));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinaryTruncated() {
+		BinaryHeaderCodec codec = new BinaryHeaderCodec();
+		byte[] encoded = codec.encode(Collections.singletonMap("custom", "value"));
+
+		codec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 2)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinaryMissingValue() {
+		new BinaryHeaderCodec().decode(ByteBuffer.wrap(new byte[] { 1 }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinaryNegativeLength() {
+		// varint of 2^31 as a value length
+		new BinaryHeaderCodec().decode(ByteBuffer.wrap(new byte[] { 1, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+				(byte) 0x80, 0x08 }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinaryLengthBeyondRemaining() {
+		// varint of 2^30 as a value length
+		new BinaryHeaderCodec().decode(ByteBuffer.wrap(new byte[] { 1, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+				0x04, 'a' }));
+	}
+
+	@Test
+	public void testText() {
+		TextHeaderCodec codec = new TextHeaderCodec();
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("iotGatewayServiceRoute", "RestGatewayService");
+		headers.put("key", "value:with:colons");
+		byte[] encoded = codec.encode(headers);
+
+		assertThat(new String(encoded), is("iotGatewayServiceRoute:RestGatewayService\nkey:value:with:colons"));
+		assertThat(codec.decode(ByteBuffer.wrap(encoded)), is(headers));
+	}
+
+	private static String buildString(int size) {
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			buf.append('X');
+		}
+		return buf.toString();
+	}
+}
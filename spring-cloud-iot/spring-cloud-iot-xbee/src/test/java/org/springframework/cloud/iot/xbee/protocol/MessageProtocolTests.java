@@ -17,6 +17,12 @@ package org.springframework.cloud.iot.xbee.protocol;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 import org.springframework.cloud.iot.support.IotUtils;
@@ -94,6 +100,52 @@ public class MessageProtocolTests {
 		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
 	}
 
+	@Test
+	public void testBootId() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD1.getBytes(), (short) 0,
+				MessageProtocol.DEFAULT_FRAME_SIZE, 0, 200);
+		byte[][] frames = tx.getFrames();
+
+		assertThat(IotUtils.isBitSet(frames[0][0], MessageProtocol.MESSAGE_TYPE_BOOT_ID), is(true));
+		assertThat(IotUtils.isBitSet(frames[1][0], MessageProtocol.MESSAGE_TYPE_BOOT_ID), is(false));
+		assertThat(tx.withSessionId((short) 1).getBootId(), is(200));
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : frames) {
+			rx.add(frame);
+		}
+
+		assertThat(rx.getBootId(), is(200));
+		assertThat(new String(rx.getHeader()), is(HEADER2));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD1));
+	}
+
+	@Test
+	public void testWriteFramesReusesBuffers() {
+		byte[] header = PAYLOAD3.substring(0, 100).getBytes();
+		TxMessageProtocol tx = new TxMessageProtocol(header, PAYLOAD3.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+		List<byte[]> buffers = new ArrayList<>();
+		RxMessageProtocol rx = new RxMessageProtocol();
+
+		tx.writeFrames((id, frame) -> {
+			assertThat(Arrays.equals(frame, frames[id]), is(true));
+			buffers.add(frame);
+			rx.add(frame.clone());
+		});
+
+		assertThat(buffers.size(), is(frames.length));
+		assertThat(buffers.get(0) == buffers.get(1), is(true));
+		assertThat(buffers.get(0) == buffers.get(frames.length - 1), is(false));
+		assertThat(new String(rx.getHeader()), is(new String(header)));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+
+		List<byte[]> buffers2 = new ArrayList<>();
+		new TxMessageProtocol(header, PAYLOAD3.getBytes(), (short) 1).writeFrames((id, frame) -> buffers2.add(frame));
+		assertThat(buffers2.get(0) == buffers.get(0), is(true));
+		assertThat(buffers2.get(frames.length - 1) == buffers.get(frames.length - 1), is(true));
+	}
+
 	@Test
 	public void testEmptySingleFrameWithHeader() {
 		TxMessageProtocol tx = new TxMessageProtocol(HEADER1.getBytes(), PAYLOAD2.getBytes(), (short) 0);
@@ -164,6 +216,226 @@ public class MessageProtocolTests {
 		assertThat(payloadIn.length, is(payloadOut.length));
 	}
 
+	@Test
+	public void testFramesOutOfOrder() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+		assertThat(frames.length, is(7));
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			rx.add(frames[i]);
+		}
+
+		assertThat(new String(rx.getHeader()), is(HEADER2));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+	}
+
+	@Test
+	public void testReadOnlyBuffers() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER1.getBytes(), PAYLOAD1.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = 0; i < frames.length; i++) {
+			rx.add(frames[i]);
+		}
+		ByteBuffer header = rx.getHeaderBuffer();
+		ByteBuffer payload = rx.getPayloadBuffer();
+
+		assertThat(header.isReadOnly(), is(true));
+		assertThat(payload.isReadOnly(), is(true));
+		assertThat(header.remaining(), is(HEADER1.length()));
+		assertThat(payload.remaining(), is(PAYLOAD1.length()));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD1));
+	}
+
+	@Test
+	public void testDefaultFrameSizeNotSent() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER1.getBytes(), PAYLOAD1.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+
+		assertThat(IotUtils.isBitSet(frames[0][0], MessageProtocol.MESSAGE_TYPE_FRAME_SIZE), is(false));
+		assertThat(frames[0].length, is(MessageProtocol.DEFAULT_FRAME_SIZE));
+	}
+
+	@Test
+	public void testLargerFrameSize() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0, 84);
+		byte[][] frames = tx.getFrames();
+
+		assertThat(frames.length, is(5));
+		assertThat(frames[0].length, is(84));
+		assertThat(IotUtils.isBitSet(frames[0][0], MessageProtocol.MESSAGE_TYPE_FRAME_SIZE), is(true));
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = 0; i < frames.length; i++) {
+			rx.add(frames[i]);
+		}
+
+		assertThat(rx.getFrameSize(), is(84));
+		assertThat(new String(rx.getHeader()), is(HEADER2));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+	}
+
+	@Test
+	public void testSmallerFrameSizeStartFrameLast() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0, 32);
+		byte[][] frames = tx.getFrames();
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			rx.add(frames[i]);
+		}
+
+		assertThat(rx.getFrameSize(), is(32));
+		assertThat(new String(rx.getHeader()), is(HEADER2));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+	}
+
+	@Test
+	public void testRoutingIdWithFrameSize() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0, 32, 0, -1,
+				0xA1B2);
+		byte[][] frames = tx.getFrames();
+
+		// two bytes after frame size
+		assertThat(IotUtils.isBitSet(frames[0][0], MessageProtocol.MESSAGE_TYPE_ROUTING_ID), is(true));
+		assertThat(IotUtils.isBitSet(frames[1][0], MessageProtocol.MESSAGE_TYPE_ROUTING_ID), is(false));
+		assertThat(frames[0][10] & 0xFF, is(0xA1));
+		assertThat(frames[0][11] & 0xFF, is(0xB2));
+		assertThat(tx.withSessionId((short) 1).getRoutingId(), is(0xA1B2));
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			rx.add(frames[i]);
+		}
+
+		assertThat(rx.getRoutingId(), is(0xA1B2));
+		assertThat(rx.getFrameSize(), is(32));
+		assertThat(new String(rx.getHeader()), is(HEADER2));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+	}
+
+	@Test
+	public void testRoutingIdCostsTwoBytes() {
+		TxMessageProtocol plain = new TxMessageProtocol(null, "hello".getBytes(), (short) 0);
+		TxMessageProtocol routed = new TxMessageProtocol(null, "hello".getBytes(), (short) 0,
+				MessageProtocol.DEFAULT_FRAME_SIZE, 0, -1, 7);
+
+		assertThat(routed.getFrames()[0].length, is(plain.getFrames()[0].length + 2));
+		assertThat(new RxMessageProtocol().getRoutingId(), is(-1));
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		rx.add(routed.getFrames()[0]);
+		assertThat(rx.getRoutingId(), is(7));
+		assertThat(new String(rx.getPayload()), is("hello"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooSmallFrameSize() {
+		new TxMessageProtocol(HEADER1.getBytes(), PAYLOAD1.getBytes(), (short) 0, 8);
+	}
+
+	@Test
+	public void testFrameBeyondMaxMessageSizeRejected() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0,
+				MessageProtocol.MAX_FRAME_SIZE);
+		byte[] start = tx.getFrames()[0].clone();
+		start[0] &= ~MessageProtocol.MESSAGE_TYPE_END;
+		byte[] frame = new byte[] { 0, 0, (byte) 0xFF, (byte) 0xFE, 1, 2, 3 };
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		assertThat(rx.add(start), is(false));
+		for (int i = 0; i < 2; i++) {
+			// rejected frame is not marked as received
+			try {
+				rx.add(frame);
+				fail("Expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertThat(rx.getReceivedFrameCount(), is(1));
+		assertThat(rx.getTailFrameId(), is(1));
+	}
+
+	@Test
+	public void testPendingFrameBeyondMaxMessageSizeRejected() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+
+		RxMessageProtocol rx = new RxMessageProtocol(100);
+		assertThat(rx.add(frames[2]), is(false));
+		try {
+			rx.add(frames[0]);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		assertThat(rx.getReceivedFrameCount(), is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooShortStartFrameRejected() {
+		new RxMessageProtocol().add(new byte[] { MessageProtocol.MESSAGE_TYPE_START, 0, 0, 0, 0 });
+	}
+
+	@Test
+	public void testNotCompleteWithGap() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (int i = 0; i < frames.length; i++) {
+			if (i != 2 && i != 4) {
+				assertThat(rx.add(frames[i]), is(false));
+			}
+		}
+
+		assertThat(rx.isEndReceived(), is(true));
+		assertThat(rx.getMissingFrames(10), is(new int[] { 2, 4 }));
+		assertThat(rx.getMissingFrames(1), is(new int[] { 2 }));
+		assertThat(rx.getTailFrameId(), is(-1));
+		assertThat(rx.add(frames[4]), is(false));
+		assertThat(rx.add(frames[4]), is(false));
+		assertThat(rx.add(frames[2]), is(true));
+		assertThat(new String(rx.getPayload()), is(PAYLOAD3));
+	}
+
+	@Test
+	public void testMissingTail() {
+		TxMessageProtocol tx = new TxMessageProtocol(HEADER2.getBytes(), PAYLOAD3.getBytes(), (short) 0);
+		byte[][] frames = tx.getFrames();
+
+		RxMessageProtocol rx = new RxMessageProtocol();
+		rx.add(frames[0]);
+		rx.add(frames[2]);
+
+		assertThat(rx.isEndReceived(), is(false));
+		assertThat(rx.getMissingFrames(10), is(new int[] { 1 }));
+		assertThat(rx.getTailFrameId(), is(3));
+	}
+
+	@Test
+	public void testNack() {
+		NackMessageProtocol nack = NackMessageProtocol.parse(new NackMessageProtocol((short) 200, new int[] { 1, 3 }, 5).getFrame());
+
+		assertThat(nack.getSessionId(), is((short) 200));
+		assertThat(nack.getMissingFrames(), is(new int[] { 1, 3 }));
+		assertThat(nack.getTailFrameId(), is(5));
+
+		byte[][] frames = new byte[][] { { 0 }, { 1 }, { 2 }, { 3 }, { 4 }, { 5 }, { 6 } };
+		byte[][] selected = nack.selectFrames(frames);
+		assertThat(selected.length, is(4));
+		assertThat(selected[0][0], is((byte) 1));
+		assertThat(selected[1][0], is((byte) 3));
+		assertThat(selected[2][0], is((byte) 5));
+		assertThat(selected[3][0], is((byte) 6));
+
+		nack = NackMessageProtocol.parse(new NackMessageProtocol((short) 1, new int[] { 2 }, -1).getFrame());
+		assertThat(nack.getTailFrameId(), is(-1));
+		assertThat(nack.selectFrames(frames).length, is(1));
+	}
+
 	private static byte[] getFakeData(int size) {
 		StringBuilder buf = new StringBuilder();
 		for (int i = 0; i < size; i++) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ApiFrameReader}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class ApiFrameReaderTests {
+
+	private final static byte[] FRAME1 = new byte[] { 0x7E, 0x00, 0x02, 0x01, 0x02, (byte) 0xFC };
+	private final static byte[] FRAME2 = new byte[] { 0x7E, 0x00, 0x03, 0x0A, 0x0B, 0x0C, (byte) 0xDC };
+
+	@Test
+	public void testFramesSplitAcrossReads() throws Exception {
+		byte[] data = concat(FRAME1, FRAME2);
+		AtomicInteger batches = new AtomicInteger();
+		ApiFrameReader reader = new ApiFrameReader(new ChunkedInputStream(data, 4, 5, 4), () -> batches.incrementAndGet());
+		reader.run();
+
+		assertThat(readAll(reader.getInputStream()), is(data));
+		assertThat(reader.getFramesRead(), is(2L));
+		assertThat(reader.getBytesRead(), is((long) data.length));
+		assertThat(reader.getDiscardedBytes(), is(0L));
+		assertThat(batches.get(), is(2));
+		assertThat(reader.getBatchCount(), is(2L));
+	}
+
+	@Test
+	public void testManyFramesInOneBatch() throws Exception {
+		byte[] data = concat(FRAME1, FRAME2, FRAME1);
+		AtomicInteger batches = new AtomicInteger();
+		ApiFrameReader reader = new ApiFrameReader(new ChunkedInputStream(data, data.length), () -> batches.incrementAndGet());
+		reader.run();
+
+		assertThat(readAll(reader.getInputStream()), is(data));
+		assertThat(reader.getFramesRead(), is(3L));
+		assertThat(batches.get(), is(1));
+	}
+
+	@Test
+	public void testGarbageDiscarded() throws Exception {
+		byte[] data = concat(new byte[] { 0x01, 0x02 }, FRAME1, new byte[] { 0x03 }, FRAME2);
+		ApiFrameReader reader = new ApiFrameReader(new ChunkedInputStream(data, 3, 3, 3, 3, 3, 3), () -> {});
+		reader.run();
+
+		assertThat(readAll(reader.getInputStream()), is(concat(FRAME1, FRAME2)));
+		assertThat(reader.getDiscardedBytes(), is(3L));
+	}
+
+	@Test
+	public void testEscapedFrame() throws Exception {
+		// length 0x0003 has data byte 0x7E escaped as 0x7D 0x5E
+		byte[] frame = new byte[] { 0x7E, 0x00, 0x03, 0x10, 0x7D, 0x5E, 0x01, 0x70 };
+		byte[] data = concat(frame, FRAME1);
+		ApiFrameReader reader = new ApiFrameReader(new ChunkedInputStream(data, 5, 5, 4), () -> {},
+				ApiFrameReader.DEFAULT_BUFFER_SIZE, true);
+		reader.run();
+
+		assertThat(readAll(reader.getInputStream()), is(data));
+		assertThat(reader.getFramesRead(), is(2L));
+	}
+
+	@Test
+	public void testIncompleteFrameNotPublished() throws Exception {
+		byte[] data = Arrays.copyOf(FRAME2, FRAME2.length - 1);
+		ApiFrameReader reader = new ApiFrameReader(new ChunkedInputStream(data, data.length), () -> {});
+		reader.run();
+
+		assertThat(reader.getInputStream().available(), is(0));
+		assertThat(reader.getInputStream().read(), is(-1));
+		assertThat(reader.getFramesRead(), is(0L));
+	}
+
+	private static byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) {
+			out.write(b);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] array : arrays) {
+			out.write(array, 0, array.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns data in given chunk sizes and end of stream after that.
+	 */
+	private static class ChunkedInputStream extends InputStream {
+
+		private final byte[] data;
+		private final List<Integer> chunks = new ArrayList<>();
+		private int position;
+
+		ChunkedInputStream(byte[] data, int... chunks) {
+			this.data = data;
+			for (int chunk : chunks) {
+				this.chunks.add(chunk);
+			}
+		}
+
+		@Override
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (chunks.isEmpty() || position >= data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(chunks.remove(0), len), data.length - position);
+			System.arraycopy(data, position, b, off, n);
+			position += n;
+			return n;
+		}
+	}
+}
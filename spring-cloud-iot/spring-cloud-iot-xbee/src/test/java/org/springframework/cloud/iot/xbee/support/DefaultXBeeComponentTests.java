@@ -0,0 +1,478 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.iot.xbee.GroupSendResult;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.metrics.MicrometerXBeeMetrics;
+import org.springframework.cloud.iot.xbee.protocol.MessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.digi.xbee.api.RemoteXBeeDevice;
+import com.digi.xbee.api.XBeeDevice;
+import com.digi.xbee.api.connection.IConnectionInterface;
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IDataReceiveListener;
+import com.digi.xbee.api.models.XBee64BitAddress;
+import com.digi.xbee.api.models.XBeeMessage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DefaultXBeeComponentTests {
+
+	private TestXBeeDevice device;
+	private DefaultXBeeComponent component;
+	private CountDownLatch sending;
+	private CountDownLatch release;
+
+	@Before
+	public void setup() throws Exception {
+		sending = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		device = new TestXBeeDevice();
+	}
+
+	@After
+	public void clean() throws Exception {
+		release.countDown();
+		if (component != null) {
+			component.destroy();
+		}
+	}
+
+	@Test
+	public void testSendAsync() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		release.countDown();
+		CompletableFuture<Void> future = component.sendMessageAsync(message("hello"));
+		future.get(5, TimeUnit.SECONDS);
+
+		assertThat(device.sent.get(), is(1));
+	}
+
+	@Test
+	public void testSendFromCompletionCallback() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 1);
+		List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+		CompletableFuture<Void> future = component.sendMessageAsync(message("1"))
+				.thenRun(() -> {
+					component.sendMessage(message("2"));
+					// queue of one is full after third, writer sends fourth inline
+					futures.add(component.sendMessageAsync(message("3")));
+					futures.add(component.sendMessageAsync(message("4")));
+				});
+		assertThat(sending.await(5, TimeUnit.SECONDS), is(true));
+		release.countDown();
+		future.get(5, TimeUnit.SECONDS);
+		futures.get(1).get(5, TimeUnit.SECONDS);
+		futures.get(0).get(5, TimeUnit.SECONDS);
+
+		assertThat(device.sent.get(), is(4));
+	}
+
+	@Test
+	public void testUnicastToDestinationAddress() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		release.countDown();
+		XBee64BitAddress address = new XBee64BitAddress("0013A20040A1B2C3");
+		component.sendMessageAsync(message("1", address)).get(5, TimeUnit.SECONDS);
+		component.sendMessageAsync(message("2", 0x0013A20040A1B2C4L)).get(5, TimeUnit.SECONDS);
+		component.sendMessageAsync(message("3", "0013A20040A1B2C5")).get(5, TimeUnit.SECONDS);
+		component.sendMessageAsync(message("4", XBee64BitAddress.BROADCAST_ADDRESS)).get(5, TimeUnit.SECONDS);
+
+		assertThat(device.unicasts.size(), is(3));
+		assertThat(device.unicasts.get(0), is(address));
+		assertThat(device.unicasts.get(1), is(new XBee64BitAddress("0013A20040A1B2C4")));
+		assertThat(device.unicasts.get(2), is(new XBee64BitAddress("0013A20040A1B2C5")));
+		assertThat(device.sent.get(), is(1));
+	}
+
+	@Test
+	public void testInvalidDestinationAddress() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		release.countDown();
+		CompletableFuture<Void> future = component.sendMessageAsync(message("1", 1));
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("Expected failure");
+		} catch (ExecutionException e) {
+		}
+		assertThat(device.unicasts.size(), is(0));
+		assertThat(device.sent.get(), is(0));
+	}
+
+	@Test
+	public void testFrameSizeFromDevice() throws Exception {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		component = new DefaultXBeeComponent(device, sessions, 2);
+		component.afterPropertiesSet();
+
+		assertThat(sessions.getFrameSize(), is(84));
+	}
+
+	@Test
+	public void testFrameSizeSetExplicitly() throws Exception {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		component = new DefaultXBeeComponent(device, sessions, 2);
+		component.setFrameSize(72);
+		component.afterPropertiesSet();
+
+		assertThat(sessions.getFrameSize(), is(72));
+	}
+
+	@Test
+	public void testFailFast() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		component.setOverflowPolicy(OverflowPolicy.FAIL_FAST);
+		CompletableFuture<Void> future1 = component.sendMessageAsync(message("1"));
+		assertThat(sending.await(5, TimeUnit.SECONDS), is(true));
+		CompletableFuture<Void> future2 = component.sendMessageAsync(message("2"));
+		CompletableFuture<Void> future3 = component.sendMessageAsync(message("3"));
+		CompletableFuture<Void> future4 = component.sendMessageAsync(message("4"));
+
+		assertThat(future4.isCompletedExceptionally(), is(true));
+		assertThat(component.getDroppedCount(), is(1L));
+		assertThat(component.getSendQueueSize(), is(2));
+
+		release.countDown();
+		CompletableFuture.allOf(future1, future2, future3).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		component.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		CompletableFuture<Void> future1 = component.sendMessageAsync(message("1"));
+		assertThat(sending.await(5, TimeUnit.SECONDS), is(true));
+		CompletableFuture<Void> future2 = component.sendMessageAsync(message("2"));
+		CompletableFuture<Void> future3 = component.sendMessageAsync(message("3"));
+		CompletableFuture<Void> future4 = component.sendMessageAsync(message("4"));
+
+		assertThat(future2.isCompletedExceptionally(), is(true));
+		assertThat(component.getDroppedCount(), is(1L));
+
+		release.countDown();
+		CompletableFuture.allOf(future1, future3, future4).get(5, TimeUnit.SECONDS);
+		assertThat(device.sent.get(), is(3));
+	}
+
+	@Test
+	public void testDestroyFailsQueued() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		component.sendMessageAsync(message("1"));
+		assertThat(sending.await(5, TimeUnit.SECONDS), is(true));
+		CompletableFuture<Void> future2 = component.sendMessageAsync(message("2"));
+		component.destroy();
+
+		assertThat(future2.isCompletedExceptionally(), is(true));
+		assertThat(component.sendMessageAsync(message("3")).isCompletedExceptionally(), is(true));
+	}
+
+	@Test
+	public void testDestroyFailsGroupSendInProgress() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		component.setGroupSendWindow(1);
+		device.unicastRelease = new CountDownLatch(1);
+		XBee64BitAddress address1 = new XBee64BitAddress("0013A20040A1B2C3");
+		XBee64BitAddress address2 = new XBee64BitAddress("0013A20040A1B2C4");
+		XBee64BitAddress address3 = new XBee64BitAddress("0013A20040A1B2C5");
+		CompletableFuture<GroupSendResult> future = component
+				.sendGroupMessageAsync(Arrays.asList(address1, address2, address3), message("hello"));
+		assertThat(device.unicastSending.await(2, TimeUnit.SECONDS), is(true));
+
+		// writer is stuck in a unicast past destroy and puts its group back afterwards
+		component.destroy();
+		device.unicastRelease.countDown();
+
+		GroupSendResult result = future.get(2, TimeUnit.SECONDS);
+		assertThat(result.getDelivered().size(), is(1));
+		assertThat(result.getFailures().size(), is(2));
+	}
+
+	@Test
+	public void testGroupSendWakesUpIdleWriter() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 1);
+		release.countDown();
+		component.sendMessageAsync(message("hello")).get(5, TimeUnit.SECONDS);
+		// writer is idle and must be woken up instead of waiting for a park timeout
+		long start = System.currentTimeMillis();
+		GroupSendResult result = component.sendGroupMessageAsync(
+				Arrays.asList(new XBee64BitAddress("0013A20040A1B2C3")), message("hello")).get(5, TimeUnit.SECONDS);
+		assertThat(result.isSuccess(), is(true));
+		assertThat(System.currentTimeMillis() - start < 400, is(true));
+		assertThat(component.getSendQueueSize(), is(0));
+	}
+
+	@Test
+	public void testBlockedListenerDoesNotBlockReceive() throws Exception {
+		release.countDown();
+		TestXBeeDevice senderDevice = new TestXBeeDevice();
+		DefaultXBeeComponent sender = new DefaultXBeeComponent(senderDevice, new MessageProtocolSessions(), 10);
+		for (int i = 0; i < 4; i++) {
+			sender.sendMessageAsync(message("hello" + i)).get(5, TimeUnit.SECONDS);
+		}
+		sender.destroy();
+		assertThat(senderDevice.broadcasts.size(), is(4));
+
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		OrderedDispatcher dispatcher = new OrderedDispatcher(1, 1);
+		component.setReceiveDispatcher(dispatcher);
+		CountDownLatch received = new CountDownLatch(1);
+		CountDownLatch unblock = new CountDownLatch(1);
+		List<String> payloads = new CopyOnWriteArrayList<>();
+		component.addXBeeReceiverListener(m -> {
+			payloads.add(new String(m.getPayload()));
+			received.countDown();
+			try {
+				unblock.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		RemoteXBeeDevice remote = new RemoteXBeeDevice(device, new XBee64BitAddress("0013A20040A1B2C3"));
+		device.receive(new XBeeMessage(remote, senderDevice.broadcasts.get(0), true));
+		assertThat(received.await(2, TimeUnit.SECONDS), is(true));
+
+		// listener is stuck, rest of the messages must not stall a receiving thread
+		CompletableFuture<Void> receiving = CompletableFuture.runAsync(() -> {
+			for (int i = 1; i < 4; i++) {
+				device.receive(new XBeeMessage(remote, senderDevice.broadcasts.get(i), true));
+			}
+		});
+		receiving.get(2, TimeUnit.SECONDS);
+		assertThat(dispatcher.getDroppedCount(), is(2L));
+
+		unblock.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (payloads.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(payloads.size(), is(2));
+		assertThat(payloads.get(1), is("hello1"));
+	}
+
+	@Test
+	public void testInvalidFrameDropsSession() throws Exception {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		component = new DefaultXBeeComponent(device, sessions, 2);
+		List<String> payloads = new CopyOnWriteArrayList<>();
+		component.addXBeeReceiverListener(m -> payloads.add(new String(m.getPayload())));
+		byte[][] frames = new TxMessageProtocol(new byte[0], new byte[200], (short) 0).getFrames();
+		byte[] invalid = frames[1].clone();
+		invalid[2] = (byte) 0xFF;
+		invalid[3] = (byte) 0xFE;
+		RemoteXBeeDevice remote = new RemoteXBeeDevice(device, new XBee64BitAddress("0013A20040A1B2C3"));
+
+		device.receive(new XBeeMessage(remote, frames[0], true));
+		assertThat(sessions.getRxSessionCount(), is(1));
+		device.receive(new XBeeMessage(remote, invalid, true));
+		assertThat(sessions.getRxSessionCount(), is(0));
+		device.receive(new XBeeMessage(remote, new byte[] { 0, 0 }, true));
+		assertThat(payloads.size(), is(0));
+	}
+
+	@Test
+	public void testInvalidHeadersDropMessage() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		List<String> payloads = new CopyOnWriteArrayList<>();
+		component.addXBeeReceiverListener(m -> payloads.add(new String(m.getPayload())));
+		byte[][] frames = new TxMessageProtocol(new byte[] { 0, 100, 'k' }, "hello".getBytes(), (short) 0,
+				MessageProtocol.DEFAULT_FRAME_SIZE, MessageProtocol.MESSAGE_TYPE_BINARY_HEADER, -1).getFrames();
+		RemoteXBeeDevice remote = new RemoteXBeeDevice(device, new XBee64BitAddress("0013A20040A1B2C3"));
+
+		device.receive(new XBeeMessage(remote, frames[0], true));
+
+		assertThat(payloads.size(), is(0));
+	}
+
+	private static Message<byte[]> message(String payload) {
+		return MessageBuilder.withPayload(payload.getBytes()).build();
+	}
+
+	private static Message<byte[]> message(String payload, Object destination) {
+		return MessageBuilder.withPayload(payload.getBytes()).setHeader(XBeeHeaders.DESTINATION_ADDRESS, destination)
+				.build();
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		new MicrometerXBeeMetrics(component).bindTo(registry);
+		release.countDown();
+		component.sendMessageAsync(message("hello")).get(5, TimeUnit.SECONDS);
+
+		assertThat(registry.get("xbee.frames.sent").tag("address", "000000000000FFFF").counter().count(), is(1.0));
+		assertThat(registry.get("xbee.bytes.sent").counter().count(), is(13.0));
+		assertThat(registry.get("xbee.send.queue").gauge().value(), is(0.0));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (Double.isNaN(registry.get("xbee.link.rssi").gauge().value()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(registry.get("xbee.link.rssi").gauge().value(), is(-40.0));
+	}
+
+	@Test
+	public void testGatewayMetrics() throws Exception {
+		component = new DefaultXBeeComponent(device, new MessageProtocolSessions(), 2);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerXBeeMetrics metrics = new MicrometerXBeeMetrics(component);
+		metrics.bindTo(registry);
+		metrics.onRequestPending();
+		metrics.onRequestPending();
+		metrics.onRequestCompleted();
+		metrics.onRequestTimeout();
+		metrics.onUnmatchedReply();
+
+		assertThat(registry.get("xbee.gateway.pending").gauge().value(), is(1.0));
+		assertThat(registry.get("xbee.gateway.timeouts").counter().count(), is(1.0));
+		assertThat(registry.get("xbee.gateway.unmatched").counter().count(), is(1.0));
+	}
+
+	private class TestXBeeDevice extends XBeeDevice {
+
+		final AtomicInteger sent = new AtomicInteger();
+		final List<XBee64BitAddress> unicasts = new CopyOnWriteArrayList<>();
+		final List<byte[]> broadcasts = new CopyOnWriteArrayList<>();
+		final List<IDataReceiveListener> dataListeners = new CopyOnWriteArrayList<>();
+		final CountDownLatch unicastSending = new CountDownLatch(1);
+		volatile CountDownLatch unicastRelease;
+
+		TestXBeeDevice() {
+			super(new NoopConnectionInterface());
+		}
+
+		@Override
+		public byte[] getParameter(String parameter) throws XBeeException {
+			if ("NP".equals(parameter)) {
+				return new byte[] { 0x00, 0x54 };
+			}
+			if ("DB".equals(parameter)) {
+				return new byte[] { 0x28 };
+			}
+			return super.getParameter(parameter);
+		}
+
+		@Override
+		public void sendBroadcastData(byte[] data) throws XBeeException {
+			sending.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			broadcasts.add(data.clone());
+			sent.incrementAndGet();
+		}
+
+		@Override
+		public void addDataListener(IDataReceiveListener listener) {
+			dataListeners.add(listener);
+		}
+
+		void receive(XBeeMessage message) {
+			for (IDataReceiveListener listener : dataListeners) {
+				listener.dataReceived(message);
+			}
+		}
+
+		@Override
+		public void sendData(RemoteXBeeDevice remoteXBeeDevice, byte[] data) throws XBeeException {
+			CountDownLatch latch = unicastRelease;
+			if (latch != null) {
+				unicastSending.countDown();
+				boolean interrupted = false;
+				while (true) {
+					try {
+						latch.await(5, TimeUnit.SECONDS);
+						break;
+					} catch (InterruptedException e) {
+						// keep blocking like a radio write would
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			unicasts.add(remoteXBeeDevice.get64BitAddress());
+		}
+	}
+
+	private static class NoopConnectionInterface implements IConnectionInterface {
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return null;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return null;
+		}
+
+		@Override
+		public void writeData(byte[] data) {
+		}
+
+		@Override
+		public void writeData(byte[] data, int offset, int length) {
+		}
+
+		@Override
+		public int readData(byte[] data) {
+			return 0;
+		}
+
+		@Override
+		public int readData(byte[] data, int offset, int length) {
+			return 0;
+		}
+	}
+}
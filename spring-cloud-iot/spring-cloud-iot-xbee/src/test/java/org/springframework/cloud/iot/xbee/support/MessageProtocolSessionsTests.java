@@ -15,6 +15,598 @@
  */
 package org.springframework.cloud.iot.xbee.support;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.cloud.iot.support.IotUtils;
+import org.springframework.cloud.iot.xbee.XBeeHeaders;
+import org.springframework.cloud.iot.xbee.listener.XBeeMetricsListener;
+import org.springframework.cloud.iot.xbee.protocol.BinaryHeaderCodec;
+import org.springframework.cloud.iot.xbee.protocol.MessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.NackMessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.RxMessageProtocol;
+import org.springframework.cloud.iot.xbee.protocol.TxMessageProtocol;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
 public class MessageProtocolSessionsTests {
 
+	private final static long ADDRESS1 = 0x0013A20040A1B2C3L;
+	private final static long ADDRESS2 = 0x0013A20040A1B2C4L;
+
+	@Test
+	public void testSessionsKeyedByAddressAndId() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		RxMessageProtocol rx1 = sessions.getRxSession(frame(1), ADDRESS1);
+		RxMessageProtocol rx2 = sessions.getRxSession(frame(1), ADDRESS1);
+		RxMessageProtocol rx3 = sessions.getRxSession(frame(2), ADDRESS1);
+		RxMessageProtocol rx4 = sessions.getRxSession(frame(1), ADDRESS2);
+
+		assertThat(rx1, sameInstance(rx2));
+		assertThat(rx1, not(sameInstance(rx3)));
+		assertThat(rx1, not(sameInstance(rx4)));
+		assertThat(sessions.getRxSessionCount(), is(3));
+	}
+
+	@Test
+	public void testRemoveCompletedSession() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		RxMessageProtocol rx1 = sessions.getRxSession(frame(1), ADDRESS1);
+		sessions.removeRxSession(frame(1), ADDRESS1);
+		assertThat(sessions.getRxSessionCount(), is(0));
+
+		RxMessageProtocol rx2 = sessions.getRxSession(frame(1), ADDRESS1);
+		assertThat(rx1, not(sameInstance(rx2)));
+		assertThat(sessions.getEvictionCount(), is(0L));
+	}
+
+	@Test
+	public void testEvictExpired() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setSessionTimeout(1000);
+		sessions.getRxSession(frame(1), ADDRESS1);
+		sessions.time = 600;
+		sessions.getRxSession(frame(2), ADDRESS1);
+		sessions.time = 1500;
+
+		assertThat(sessions.evictExpired(), is(1));
+		assertThat(sessions.getRxSessionCount(), is(1));
+		assertThat(sessions.getEvictionCount(), is(1L));
+	}
+
+	@Test
+	public void testEvictExpiredOnAccess() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setSessionTimeout(1000);
+		sessions.getRxSession(frame(1), ADDRESS1);
+		sessions.time = 2000;
+		sessions.getRxSession(frame(1), ADDRESS2);
+
+		assertThat(sessions.getRxSessionCount(), is(1));
+		assertThat(sessions.getEvictionCount(), is(1L));
+	}
+
+	@Test
+	public void testMaxSessionsPerDevice() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setMaxSessionsPerDevice(2);
+		RxMessageProtocol rx1 = sessions.getRxSession(frame(1), ADDRESS1);
+		sessions.time = 1;
+		sessions.getRxSession(frame(2), ADDRESS1);
+		sessions.time = 2;
+		sessions.getRxSession(frame(1), ADDRESS2);
+		sessions.time = 3;
+		sessions.getRxSession(frame(3), ADDRESS1);
+
+		assertThat(sessions.getRxSessionCount(), is(3));
+		assertThat(sessions.getEvictionCount(), is(1L));
+		assertThat(sessions.getRxSession(frame(1), ADDRESS1), not(sameInstance(rx1)));
+	}
+
+	@Test
+	public void testTxSessionIdsSharedByAddresses() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload(new byte[0]).build();
+		TxMessageProtocol tx1 = sessions.createTxSession(message, ADDRESS1);
+		TxMessageProtocol tx2 = sessions.createTxSession(message, ADDRESS1);
+		TxMessageProtocol tx3 = sessions.createTxSession(message, ADDRESS2);
+
+		assertThat(tx1.getSessionId(), is((short) 0));
+		assertThat(tx2.getSessionId(), is((short) 1));
+		assertThat(tx3.getSessionId(), is((short) 2));
+		assertThat(sessions.getTxSessionCount(), is(3));
+
+		sessions.completeTxSession(tx1, ADDRESS1);
+		sessions.completeTxSession(tx2, ADDRESS1);
+		sessions.completeTxSession(tx3, ADDRESS2);
+		assertThat(sessions.getTxSessionCount(), is(0));
+	}
+
+	@Test
+	public void testTxSessionSkipsInFlightIds() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload(new byte[0]).build();
+		TxMessageProtocol tx0 = sessions.createTxSession(message, ADDRESS1);
+		for (int i = 1; i < 256; i++) {
+			sessions.completeTxSession(sessions.createTxSession(message, ADDRESS1), ADDRESS1);
+		}
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+
+		assertThat(tx0.getSessionId(), is((short) 0));
+		assertThat(tx.getSessionId(), is((short) 1));
+	}
+
+	@Test
+	public void testBroadcastAndUnicastNotMerged() {
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		MessageProtocolSessions receiver = new MessageProtocolSessions();
+		TxMessageProtocol broadcast = sender.createTxSession(
+				MessageBuilder.withPayload(buildString(100).getBytes()).build());
+		TxMessageProtocol unicast = sender.createTxSession(
+				MessageBuilder.withPayload(buildString(80).getBytes()).build(), ADDRESS2);
+		byte[][] broadcastFrames = broadcast.getFrames();
+		byte[][] unicastFrames = unicast.getFrames();
+
+		receiver.getRxSession(broadcastFrames[0], ADDRESS1).add(broadcastFrames[0]);
+		RxMessageProtocol rx = receiver.getRxSession(unicastFrames[0], ADDRESS1);
+		for (byte[] frame : unicastFrames) {
+			rx.add(frame);
+		}
+
+		assertThat(rx.isComplete(), is(true));
+		assertThat(new String(rx.getPayload()), is(buildString(80)));
+		assertThat(receiver.getRxSessionCount(), is(2));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTxSessionIdsExhausted() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload(new byte[0]).build();
+		for (int i = 0; i < 257; i++) {
+			sessions.createTxSession(message, ADDRESS1);
+		}
+	}
+
+	@Test
+	public void testTxSessionHeaders() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload("payload".getBytes())
+				.setHeader("iotGatewayServiceRoute", "RestGatewayService")
+				.setHeader("notString", 1)
+				.setHeader(XBeeHeaders.DESTINATION_ADDRESS, "0013A20040A1B2C3")
+				.build();
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : tx.getFrames()) {
+			rx.add(frame);
+		}
+
+		assertThat(new String(rx.getHeader()), is("iotGatewayServiceRoute:RestGatewayService"));
+		assertThat(new String(rx.getPayload()), is("payload"));
+	}
+
+	@Test
+	public void testTxSessionBinaryHeaders() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.setHeaderCodec(new BinaryHeaderCodec());
+		Message<byte[]> message = MessageBuilder.withPayload("payload".getBytes())
+				.setHeader("iotGatewayServiceRoute", "RestGatewayService")
+				.build();
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : tx.getFrames()) {
+			rx.add(frame);
+		}
+
+		assertThat(rx.getHeader().length, is(2));
+		assertThat(sessions.decodeHeaders(rx).get("iotGatewayServiceRoute"), is("RestGatewayService"));
+		assertThat(new String(rx.getPayload()), is("payload"));
+	}
+
+	@Test
+	public void testTxSessionRoutingId() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload("payload".getBytes())
+				.setHeader(XBeeHeaders.ROUTING_ID, 0xA1B2)
+				.build();
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : tx.getFrames()) {
+			rx.add(frame);
+		}
+
+		assertThat(rx.getRoutingId(), is(0xA1B2));
+		assertThat(rx.getHeader().length, is(0));
+		assertThat(new String(rx.getPayload()), is("payload"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTxSessionInvalidRoutingId() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.encodeTxMessage(MessageBuilder.withPayload("payload".getBytes())
+				.setHeader(XBeeHeaders.ROUTING_ID, "a1b2")
+				.build());
+	}
+
+	@Test
+	public void testDecodeTextHeadersWithBinaryCodec() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload("payload".getBytes())
+				.setHeader("iotGatewayServiceRoute", "RestGatewayService")
+				.build();
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : tx.getFrames()) {
+			rx.add(frame);
+		}
+		sessions.setHeaderCodec(new BinaryHeaderCodec());
+
+		assertThat(sessions.decodeHeaders(rx).get("iotGatewayServiceRoute"), is("RestGatewayService"));
+	}
+
+	@Test
+	public void testCompressedPayload() {
+		StringBuilder buf = new StringBuilder("[");
+		for (int i = 0; i < 20; i++) {
+			buf.append("{\"id\":" + i + ",\"name\":\"sensor" + i + "\",\"status\":\"OK\",\"value\":" + i * 7 + "},");
+		}
+		String json = buf.append("]").toString();
+		Message<byte[]> message = MessageBuilder.withPayload(json.getBytes()).build();
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		int uncompressedFrames = sessions.createTxSession(message, ADDRESS1).getFrames().length;
+		sessions.setCompressionThreshold(128);
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+		RxMessageProtocol rx = new RxMessageProtocol();
+		for (byte[] frame : tx.getFrames()) {
+			rx.add(frame);
+		}
+
+		assertThat(tx.getFrames().length < uncompressedFrames / 2, is(true));
+		assertThat(new String(rx.getPayload()), is(json));
+	}
+
+	@Test
+	public void testNotCompressedUnderThreshold() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.setCompressionThreshold(128);
+		Message<byte[]> message = MessageBuilder.withPayload("payloadpayloadpayload".getBytes()).build();
+		TxMessageProtocol tx = sessions.createTxSession(message, ADDRESS1);
+
+		assertThat(IotUtils.isBitSet(tx.getFrames()[0][0], MessageProtocol.MESSAGE_TYPE_COMPRESSED), is(false));
+	}
+
+	@Test
+	public void testNackAndRetransmit() {
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		MessageProtocolSessions receiver = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload(buildString(500).getBytes()).build();
+		TxMessageProtocol tx = sender.createTxSession(message, ADDRESS2);
+		byte[][] frames = tx.getFrames();
+		sender.completeTxSession(tx, ADDRESS2);
+
+		RxMessageProtocol rx = null;
+		for (int i = 0; i < frames.length; i++) {
+			if (i != 3) {
+				rx = receiver.getRxSession(frames[i], ADDRESS1);
+				rx.add(frames[i]);
+			}
+		}
+		assertThat(rx.isComplete(), is(false));
+
+		byte[] nack = receiver.createNack(frames[frames.length - 1], ADDRESS1);
+		byte[][] retransmit = sender.getRetransmitFrames(nack, ADDRESS2);
+		assertThat(retransmit.length, is(1));
+		for (byte[] frame : retransmit) {
+			receiver.getRxSession(frame, ADDRESS1).add(frame);
+		}
+
+		assertThat(rx.isComplete(), is(true));
+		assertThat(new String(rx.getPayload()), is(buildString(500)));
+		assertThat(sender.getRetransmitFrames(nack, ADDRESS1), is((byte[][]) null));
+	}
+
+	@Test
+	public void testRetransmitOnlyNackedSession() {
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		sender.setRetransmitBufferSize(512);
+		Message<byte[]> message = MessageBuilder.withPayload(buildString(500).getBytes()).build();
+		TxMessageProtocol broadcast = sender.createTxSession(message);
+		sender.completeTxSession(broadcast, 0x000000000000FFFFL);
+		for (int i = 1; i < 256; i++) {
+			sender.completeTxSession(sender.createTxSession(message, ADDRESS2), ADDRESS2);
+		}
+		// session id wraps around and is reused for a unicast to another device
+		TxMessageProtocol unicast = sender.createTxSession(message, ADDRESS2);
+		sender.completeTxSession(unicast, ADDRESS2);
+		assertThat(unicast.getSessionId(), is(broadcast.getSessionId()));
+
+		byte[] nack = new NackMessageProtocol(unicast.getSessionId(), new int[] { 1 }, -1).getFrame();
+		assertThat(sender.getRetransmitFrames(nack, ADDRESS1), is((byte[][]) null));
+		assertThat(sender.getRetransmitFrames(nack, ADDRESS2).length, is(1));
+	}
+
+	@Test
+	public void testStalledNacks() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setNackTimeout(100);
+		sessions.setMaxNacks(2);
+		TxMessageProtocol tx = sessions.createTxSession(MessageBuilder.withPayload(buildString(500).getBytes()).build(),
+				ADDRESS2);
+		byte[][] frames = tx.getFrames();
+		sessions.getRxSession(frames[0], ADDRESS1).add(frames[0]);
+
+		assertThat(sessions.createStalledNacks().size(), is(0));
+		sessions.time = 200;
+		assertThat(sessions.createStalledNacks().size(), is(1));
+		assertThat(sessions.createStalledNacks().size(), is(0));
+		sessions.time = 400;
+		List<MessageProtocolSessions.Nack> nacks = sessions.createStalledNacks();
+		assertThat(nacks.size(), is(1));
+		assertThat(nacks.get(0).getAddress(), is(ADDRESS1));
+		assertThat(NackMessageProtocol.parse(nacks.get(0).getFrame()).getTailFrameId(), is(1));
+		sessions.time = 600;
+		assertThat(sessions.createStalledNacks().size(), is(0));
+	}
+
+	@Test
+	public void testDuplicateFramesDropped() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setDuplicateWindow(1000);
+		byte[][] frames = new TxMessageProtocol("hello".getBytes(), (short) 5).getFrames();
+
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS1), is(false));
+		RxMessageProtocol rx = sessions.getRxSession(frames[0], ADDRESS1);
+		assertThat(rx.add(frames[0]), is(true));
+		assertThat(sessions.completeRxSession(rx, frames[0], ADDRESS1), is(true));
+
+		sessions.time = 500;
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS1), is(true));
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS2), is(false));
+		assertThat(sessions.isDuplicateFrame(frame(6), ADDRESS1), is(false));
+		assertThat(sessions.getDuplicateFrameCount(), is(1L));
+
+		sessions.time = 1500;
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS1), is(false));
+	}
+
+	@Test
+	public void testDuplicateMessageDropped() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.setDuplicateWindowSize(2);
+		byte[][] frames1 = new TxMessageProtocol("hello".getBytes(), (short) 5).getFrames();
+		byte[][] frames2 = new TxMessageProtocol("world".getBytes(), (short) 5).getFrames();
+		byte[][] frames3 = new TxMessageProtocol("hello".getBytes(), (short) 6).getFrames();
+
+		assertThat(complete(sessions, frames1[0], ADDRESS1), is(true));
+		assertThat(complete(sessions, frames1[0], ADDRESS1), is(false));
+		assertThat(complete(sessions, frames1[0], ADDRESS2), is(true));
+		assertThat(complete(sessions, frames2[0], ADDRESS1), is(true));
+		assertThat(complete(sessions, frames3[0], ADDRESS1), is(true));
+		// window of two has dropped first message
+		assertThat(complete(sessions, frames1[0], ADDRESS1), is(true));
+		assertThat(sessions.getDuplicateMessageCount(), is(1L));
+		assertThat(sessions.getRxSessionCount(), is(0));
+	}
+
+	@Test
+	public void testBroadcastAndUnicastWithSameIdDelivered() {
+		// older sender allocating ids per destination
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		MessageProtocolSessions receiver = new MessageProtocolSessions();
+		byte[][] broadcastFrames = sender.encodeTxMessage(MessageBuilder.withPayload("broadcast".getBytes()).build())
+				.withSessionId((short) 5).getFrames();
+		byte[][] unicastFrames = sender.encodeTxMessage(MessageBuilder.withPayload("unicast".getBytes()).build())
+				.withSessionId((short) 5).getFrames();
+
+		assertThat(complete(receiver, broadcastFrames[0], ADDRESS1), is(true));
+		assertThat(receiver.isDuplicateFrame(unicastFrames[0], ADDRESS1), is(false));
+		assertThat(complete(receiver, unicastFrames[0], ADDRESS1), is(true));
+		assertThat(receiver.isDuplicateFrame(broadcastFrames[0], ADDRESS1), is(true));
+		assertThat(receiver.getDuplicateMessageCount(), is(0L));
+	}
+
+	@Test
+	public void testRestartedSenderDelivered() {
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		sender.setSendBootId(true);
+		MessageProtocolSessions restarted = new MessageProtocolSessions();
+		do {
+			restarted.setSendBootId(true);
+		} while (restarted.getBootId() == sender.getBootId());
+		MessageProtocolSessions receiver = new MessageProtocolSessions();
+		Message<byte[]> message = MessageBuilder.withPayload("hello".getBytes()).build();
+		byte[][] frames = sender.createTxSession(message).getFrames();
+		byte[][] restartedFrames = restarted.createTxSession(message).getFrames();
+		assertThat(restartedFrames[0][1], is(frames[0][1]));
+
+		assertThat(complete(receiver, frames[0], ADDRESS1), is(true));
+		assertThat(receiver.isDuplicateFrame(restartedFrames[0], ADDRESS1), is(false));
+		assertThat(complete(receiver, restartedFrames[0], ADDRESS1), is(true));
+		assertThat(receiver.isDuplicateFrame(frames[0], ADDRESS1), is(true));
+		assertThat(complete(receiver, frames[0], ADDRESS1), is(false));
+	}
+
+	@Test
+	public void testRestartedSenderReplacesUnfinishedSession() {
+		MessageProtocolSessions sender = new MessageProtocolSessions();
+		sender.setSendBootId(true);
+		MessageProtocolSessions restarted = new MessageProtocolSessions();
+		do {
+			restarted.setSendBootId(true);
+		} while (restarted.getBootId() == sender.getBootId());
+		MessageProtocolSessions receiver = new MessageProtocolSessions();
+		byte[][] frames = sender.createTxSession(MessageBuilder.withPayload(buildString(100).getBytes()).build())
+				.getFrames();
+		byte[][] restartedFrames = restarted.createTxSession(MessageBuilder.withPayload("hello".getBytes()).build())
+				.getFrames();
+
+		receiver.getRxSession(frames[0], ADDRESS1).add(frames[0]);
+		RxMessageProtocol rx = receiver.getRxSession(restartedFrames[0], ADDRESS1);
+		assertThat(rx.add(restartedFrames[0]), is(true));
+		assertThat(new String(rx.getPayload()), is("hello"));
+		assertThat(receiver.getRxSessionCount(), is(1));
+	}
+
+	@Test
+	public void testBootIdNotSentByDefault() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		byte[] header = "k:v".getBytes();
+		byte[] frame = sessions.createTxSession(MessageBuilder.withPayload("hello".getBytes())
+				.setHeader("k", "v").build()).getFrames()[0];
+
+		assertThat(sessions.getBootId(), is(-1));
+		assertThat(IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_BOOT_ID), is(false));
+		// same start frame headers as older implementations send
+		assertThat(frame.length, is(8 + header.length + 5));
+		assertThat(frame[7] & 0xFF, is(header.length));
+		assertThat(frame[4] & 0xFF, is(0));
+	}
+
+	@Test
+	public void testBootIdSentInOwnField() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.setSendBootId(true);
+		byte[] frame = sessions.createTxSession(MessageBuilder.withPayload("hello".getBytes())
+				.setHeader("k", "v").build()).getFrames()[0];
+
+		assertThat(IotUtils.isBitSet(frame[0], MessageProtocol.MESSAGE_TYPE_BOOT_ID), is(true));
+		assertThat(frame[4] & 0xFF, is(0));
+		assertThat(frame[7] & 0xFF, is(3));
+		assertThat(frame[8] & 0xFF, is(sessions.getBootId()));
+		assertThat(RxMessageProtocol.getBootId(frame), is(sessions.getBootId()));
+	}
+
+	@Test
+	public void testReusedSessionIdWithLostStartFrameNacked() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setDuplicateWindow(5000);
+		byte[][] first = new TxMessageProtocol(buildString(100).getBytes(), (short) 5).getFrames();
+		byte[][] second = new TxMessageProtocol(buildString(120).getBytes(), (short) 5).getFrames();
+		RxMessageProtocol rx = sessions.getRxSession(first[0], ADDRESS1);
+		rx.add(first[0]);
+		rx.add(first[1]);
+		assertThat(sessions.completeRxSession(rx, first[1], ADDRESS1), is(true));
+
+		// busy sender reused id and start frame of a new message got lost
+		sessions.time = 100;
+		assertThat(sessions.isDuplicateFrame(second[1], ADDRESS1), is(false));
+		assertThat(sessions.isDuplicateFrame(second[2], ADDRESS1), is(false));
+		rx = sessions.getRxSession(second[1], ADDRESS1);
+		rx.add(second[1]);
+		rx.add(second[2]);
+		byte[] nack = sessions.createNack(second[2], ADDRESS1);
+		assertThat(NackMessageProtocol.parse(nack).getMissingFrames()[0], is(0));
+
+		assertThat(sessions.isDuplicateFrame(second[0], ADDRESS1), is(false));
+		assertThat(rx.add(second[0]), is(true));
+		assertThat(sessions.completeRxSession(rx, second[0], ADDRESS1), is(true));
+		assertThat(new String(rx.getPayload()), is(buildString(120)));
+	}
+
+	@Test
+	public void testLateCopyOfNonStartFrameDroppedWhenCompleted() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		byte[][] frames = new TxMessageProtocol(buildString(100).getBytes(), (short) 5).getFrames();
+		RxMessageProtocol rx = sessions.getRxSession(frames[0], ADDRESS1);
+		rx.add(frames[0]);
+		rx.add(frames[1]);
+		assertThat(sessions.completeRxSession(rx, frames[1], ADDRESS1), is(true));
+
+		sessions.time = 100;
+		assertThat(sessions.isDuplicateFrame(frames[1], ADDRESS1), is(false));
+		rx = sessions.getRxSession(frames[1], ADDRESS1);
+		rx.add(frames[1]);
+		// start frame retransmitted on a nack completes a copy
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS1), is(false));
+		assertThat(rx.add(frames[0]), is(true));
+		assertThat(sessions.completeRxSession(rx, frames[0], ADDRESS1), is(false));
+		assertThat(sessions.getRxSessionCount(), is(0));
+	}
+
+	@Test
+	public void testDuplicateMessageAcceptedAfterWindow() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		sessions.setDuplicateWindow(1000);
+		byte[][] frames = new TxMessageProtocol("hello".getBytes(), (short) 5).getFrames();
+
+		assertThat(complete(sessions, frames[0], ADDRESS1), is(true));
+		sessions.time = 500;
+		assertThat(complete(sessions, frames[0], ADDRESS1), is(false));
+		sessions.time = 1500;
+		assertThat(complete(sessions, frames[0], ADDRESS1), is(true));
+		assertThat(sessions.getDuplicateMessageCount(), is(1L));
+	}
+
+	@Test
+	public void testDuplicateDetectionDisabled() {
+		MessageProtocolSessions sessions = new MessageProtocolSessions();
+		sessions.setDuplicateWindowSize(0);
+		byte[][] frames = new TxMessageProtocol("hello".getBytes(), (short) 5).getFrames();
+
+		assertThat(complete(sessions, frames[0], ADDRESS1), is(true));
+		assertThat(sessions.isDuplicateFrame(frames[0], ADDRESS1), is(false));
+		assertThat(complete(sessions, frames[0], ADDRESS1), is(true));
+	}
+
+	@Test
+	public void testReassemblyTimeReported() {
+		TestMessageProtocolSessions sessions = new TestMessageProtocolSessions();
+		List<Long> times = new ArrayList<>();
+		sessions.setMetricsListener(new XBeeMetricsListener() {
+
+			@Override
+			public void onMessageReassembled(long address, long time) {
+				times.add(time);
+			}
+		});
+		byte[][] frames = new TxMessageProtocol(buildString(100).getBytes(), (short) 5).getFrames();
+		sessions.getRxSession(frames[0], ADDRESS1).add(frames[0]);
+		sessions.time = 250;
+		RxMessageProtocol rx = sessions.getRxSession(frames[1], ADDRESS1);
+		rx.add(frames[1]);
+		sessions.completeRxSession(rx, frames[1], ADDRESS1);
+
+		assertThat(times.size(), is(1));
+		assertThat(times.get(0), is(250L));
+	}
+
+	@Test
+	public void testAddressConversion() {
+		assertThat(XBeeUtils.toLong(XBeeUtils.toAddress(ADDRESS1)), is(ADDRESS1));
+		assertThat(XBeeUtils.toAddress(ADDRESS1).toString(), is("0013A20040A1B2C3"));
+	}
+
+	private static String buildString(int size) {
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			buf.append((char) ('a' + i % 26));
+		}
+		return buf.toString();
+	}
+
+	private static boolean complete(MessageProtocolSessions sessions, byte[] frame, long address) {
+		RxMessageProtocol rx = sessions.getRxSession(frame, address);
+		rx.add(frame);
+		return sessions.completeRxSession(rx, frame, address);
+	}
+
+	private static byte[] frame(int sessionId) {
+		return new byte[] { 0x00, (byte) sessionId, 0x00, 0x00 };
+	}
+
+	private static class TestMessageProtocolSessions extends MessageProtocolSessions {
+
+		long time = 0;
+
+		@Override
+		protected long currentTimeMillis() {
+			return time;
+		}
+	}
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.iot.xbee.support;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OrderedDispatcher}.
+ *
+ * @author Janne Valkealahti
+ *
+ */
+public class OrderedDispatcherTests {
+
+	private OrderedDispatcher dispatcher;
+
+	@After
+	public void clean() {
+		if (dispatcher != null) {
+			dispatcher.destroy();
+		}
+	}
+
+	@Test
+	public void testOrderKeptPerKey() throws Exception {
+		dispatcher = new OrderedDispatcher(4, 16);
+		dispatcher.setOverflowPolicy(OverflowPolicy.BLOCK);
+		int keys = 10;
+		int count = 500;
+		Map<Long, List<Integer>> results = new ConcurrentHashMap<>();
+		CountDownLatch latch = new CountDownLatch(keys * count);
+		for (int i = 0; i < count; i++) {
+			for (long key = 0; key < keys; key++) {
+				long k = key;
+				int value = i;
+				dispatcher.dispatch(k, () -> {
+					results.computeIfAbsent(k, x -> new ArrayList<>()).add(value);
+					latch.countDown();
+				});
+			}
+		}
+		assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+		for (long key = 0; key < keys; key++) {
+			List<Integer> values = results.get(key);
+			assertThat(values.size(), is(count));
+			for (int i = 0; i < count; i++) {
+				assertThat(values.get(i), is(i));
+			}
+		}
+		assertThat(dispatcher.getDispatchedCount(), is((long) keys * count));
+		assertThat(dispatcher.getQueueDepth(), is(0));
+	}
+
+	@Test
+	public void testSlowKeyDoesNotBlockOtherStripes() throws Exception {
+		dispatcher = new OrderedDispatcher(2, 16);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		// keys 0 and 1 land on different stripes
+		dispatcher.dispatch(0, () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		dispatcher.dispatch(0, () -> {});
+		dispatcher.dispatch(1, () -> done.countDown());
+		assertThat(done.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(dispatcher.getQueueDepth(), is(1));
+		release.countDown();
+	}
+
+	@Test
+	public void testFailFastRejectsWhenFull() throws Exception {
+		dispatcher = new OrderedDispatcher(1, 1);
+		dispatcher.setOverflowPolicy(OverflowPolicy.FAIL_FAST);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher.dispatch(0, () -> {
+			running.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertThat(running.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(dispatcher.dispatch(0, () -> {}), is(true));
+		assertThat(dispatcher.dispatch(0, () -> {}), is(false));
+		assertThat(dispatcher.getDroppedCount(), is(1L));
+		assertThat(dispatcher.getStripeQueueDepths(), is(new int[] { 1 }));
+		release.countDown();
+	}
+
+	@Test
+	public void testDropOldestWhenFull() throws Exception {
+		dispatcher = new OrderedDispatcher(1, 1);
+		dispatcher.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Integer> results = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(1);
+		dispatcher.dispatch(0, () -> {
+			running.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertThat(running.await(2, TimeUnit.SECONDS), is(true));
+		dispatcher.dispatch(0, () -> results.add(1));
+		dispatcher.dispatch(0, () -> {
+			results.add(2);
+			done.countDown();
+		});
+		release.countDown();
+		assertThat(done.await(2, TimeUnit.SECONDS), is(true));
+		assertThat(results.size(), is(1));
+		assertThat(results.get(0), is(2));
+		assertThat(dispatcher.getDroppedCount(), is(1L));
+	}
+}